@@ -1,19 +1,77 @@
 package com.example.backend.config;
 
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
-import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Кэши на Caffeine. У каждого кэша свой spec (cache.specs.&lt;name&gt;): размер,
+ * expireAfterWrite/expireAfterAccess и refreshAfterWrite. Для refresh-ahead нужен
+ * {@link NamedCacheLoader} с тем же именем: значение перечитывается в фоне,
+ * пока читатели получают прежнее. Кэши, не описанные в specs, создаются по default-spec.
+ */
 @Configuration
 @EnableCaching
+@ConfigurationProperties(prefix = "cache")
+@Data
+@Slf4j
 public class CacheConfig {
 
+    public static final String USERS = "users";
+    public static final String CHAT_OWNERS = "chatOwners";
+    public static final String CONNECTION_DESCRIPTORS = "connectionDescriptors";
+
+    private String defaultSpec = "maximumSize=10000,expireAfterWrite=10m";
+    private Map<String, String> specs = new HashMap<>();
+
+    /**
+     * Загрузчик для фонового обновления кэша с именем {@link #cacheName()}.
+     */
+    public interface NamedCacheLoader extends CacheLoader<Object, Object> {
+        String cacheName();
+    }
+
     @Bean
-    public CacheManager cacheManager() {
-        ConcurrentMapCacheManager cacheManager = new ConcurrentMapCacheManager();
-        cacheManager.setCacheNames(java.util.Arrays.asList("users"));
+    public CacheManager cacheManager(ObjectProvider<NamedCacheLoader> loaderProvider) {
+        Map<String, NamedCacheLoader> loaders = loaderProvider.orderedStream()
+                .collect(Collectors.toMap(NamedCacheLoader::cacheName, loader -> loader));
+
+        CaffeineCacheManager cacheManager = new CaffeineCacheManager();
+        // recordStats нужен для метрик cache.gets / cache.evictions в actuator
+        cacheManager.setCaffeine(Caffeine.from(defaultSpec).recordStats());
+        cacheManager.setAllowNullValues(false);
+
+        Set<String> names = new LinkedHashSet<>(List.of(USERS, CHAT_OWNERS, CONNECTION_DESCRIPTORS));
+        names.addAll(specs.keySet());
+        for (String name : names) {
+            String spec = specs.getOrDefault(name, defaultSpec);
+            Caffeine<Object, Object> builder = Caffeine.from(CaffeineSpec.parse(spec)).recordStats();
+            NamedCacheLoader loader = loaders.get(name);
+            if (loader != null) {
+                cacheManager.registerCustomCache(name, builder.build(loader));
+            } else if (spec.contains("refreshAfterWrite")) {
+                throw new IllegalStateException("Cache '" + name + "' uses refreshAfterWrite but has no NamedCacheLoader");
+            } else {
+                cacheManager.registerCustomCache(name, builder.build());
+            }
+            log.info("Configured cache '{}': {}{}", name, spec, loader != null ? " (refresh-ahead)" : "");
+        }
         return cacheManager;
     }
-} 
\ No newline at end of file
+}
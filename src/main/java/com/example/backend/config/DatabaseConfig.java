@@ -18,6 +18,8 @@ public class DatabaseConfig {
         config.setUsername("postgres");
         config.setPassword("postgres");
         config.setMaximumPoolSize(10);
+        // Драйвер склеивает пакет INSERT'ов в многострочный INSERT
+        config.addDataSourceProperty("reWriteBatchedInserts", "true");
         return new HikariDataSource(config);
     }
 
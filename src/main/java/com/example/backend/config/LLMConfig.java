@@ -1,11 +1,16 @@
 package com.example.backend.config;
 
+import io.netty.channel.ChannelOption;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
 
 @Configuration
 @ConfigurationProperties(prefix = "llm")
@@ -21,25 +26,66 @@ public class LLMConfig {
     private int connectTimeout = 5000;
     private int readTimeout = 30000;
 
+    // Structured (JSON) output
+    private boolean structuredOutputEnabled = true;
+
+    // Streaming configuration
+    private boolean streamingEnabled = true;
+    private int streamCoalesceMs = 150;
+    private int streamCoalesceMaxChunks = 32;
+
+    // Prompt budget configuration
+    private int promptTokenBudget = 3000;
+    private double promptCharsPerToken = 3.0;
+    private int promptHotPlanNodes = 5;
+    private int responseBaseTokens = 512;
+    private double responseTokensPerQueryToken = 2.0;
+    private int promptFewShotExamples = 2;
+
+    // Hedging configuration
+    private boolean hedgingEnabled = true;
+    private double hedgePercentile = 0.9;
+    private int hedgeMinSamples = 20;
+    private long hedgeDefaultDelayMs = 8000;
+    private long hedgeMinDelayMs = 500;
+    private long latencySloMs = 30000;
+
+    // Bulkhead configuration
+    private int localMaxConcurrentCalls = 2;
+    private int cloudMaxConcurrentCalls = 8;
+    private int bulkheadQueueCapacity = 20;
+    private long bulkheadMaxWaitMs = 10000;
+
     // LM Studio configuration
     private String localApiUrl = "http://localhost:1234";
     private boolean localEnabled = false;
     private int localConnectTimeout = 10000;
     private int localReadTimeout = 60000;
+    private int localMaxConnections = 16;
+    private int localPendingAcquireMaxCount = 64;
+    private int localPendingAcquireTimeoutMs = 10000;
+    private int localMaxIdleTimeMs = 30000;
 
     @Bean
-    public RestTemplate restTemplate() {
-        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
-        factory.setConnectTimeout(connectTimeout);
-        factory.setReadTimeout(readTimeout);
-        return new RestTemplate(factory);
-    }
+    public WebClient localWebClient() {
+        // Пул соединений с keep-alive; таймаут чтения не держит поток, а срабатывает в event loop
+        ConnectionProvider connectionProvider = ConnectionProvider.builder("llm-local")
+                .maxConnections(localMaxConnections)
+                .pendingAcquireMaxCount(localPendingAcquireMaxCount)
+                .pendingAcquireTimeout(Duration.ofMillis(localPendingAcquireTimeoutMs))
+                .maxIdleTime(Duration.ofMillis(localMaxIdleTimeMs))
+                .evictInBackground(Duration.ofMillis(localMaxIdleTimeMs))
+                .metrics(true)
+                .build();
 
-    @Bean
-    public RestTemplate localRestTemplate() {
-        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
-        factory.setConnectTimeout(localConnectTimeout);
-        factory.setReadTimeout(localReadTimeout);
-        return new RestTemplate(factory);
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .keepAlive(true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, localConnectTimeout)
+                .responseTimeout(Duration.ofMillis(localReadTimeout));
+
+        return WebClient.builder()
+                .baseUrl(localApiUrl)
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
     }
 }
@@ -53,15 +53,11 @@ public class WebSocketMessageHandler implements ChannelInterceptor {
 
             if (token != null && token.startsWith("Bearer ")) {
                 token = token.substring(7);
-                if (jwtTokenProvider.validateToken(token)) {
-                    Authentication auth = jwtTokenProvider.getAuthentication(token);
-                    if (auth != null) {
-                        log.debug("WebSocket authentication successful for user: {}", auth.getName());
-                        SecurityContextHolder.getContext().setAuthentication(auth);
-                        accessor.setUser(auth);
-                    } else {
-                        log.warn("WebSocket authentication failed: null authentication");
-                    }
+                Authentication auth = jwtTokenProvider.authenticate(token);
+                if (auth != null) {
+                    log.debug("WebSocket authentication successful for user: {}", auth.getName());
+                    SecurityContextHolder.getContext().setAuthentication(auth);
+                    accessor.setUser(auth);
                 } else {
                     log.warn("WebSocket authentication failed: invalid token");
                 }
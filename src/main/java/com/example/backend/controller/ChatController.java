@@ -2,6 +2,7 @@ package com.example.backend.controller;
 
 import com.example.backend.exception.ResourceNotFoundException;
 import com.example.backend.model.dto.ChatDto;
+import com.example.backend.model.dto.CursorPage;
 import com.example.backend.model.dto.MessageDto;
 import com.example.backend.security.CustomUserDetails;
 import com.example.backend.service.ChatService;
@@ -37,6 +38,16 @@ public class ChatController {
         return ResponseEntity.ok(chatService.getUserChats(userId));
     }
 
+    @GetMapping("/page")
+    @Operation(summary = "Get a page of chats for the current user, most recently updated first")
+    public ResponseEntity<CursorPage<ChatDto>> getUserChatsPage(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @AuthenticationPrincipal UserDetails userDetails) {
+        Long userId = getUserId(userDetails);
+        return ResponseEntity.ok(chatService.getUserChatsPage(userId, cursor, limit));
+    }
+
     @PostMapping
     @Operation(summary = "Create a new chat")
     public ResponseEntity<ChatDto> createChat(
@@ -95,6 +106,17 @@ public class ChatController {
         return ResponseEntity.ok(chatService.getChatMessages(chatId, userId));
     }
 
+    @GetMapping("/{chatId}/messages/page")
+    @Operation(summary = "Get a page of messages in a chat, newest first")
+    public ResponseEntity<CursorPage<MessageDto>> getChatMessagesPage(
+            @PathVariable Long chatId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @AuthenticationPrincipal UserDetails userDetails) {
+        Long userId = getUserId(userDetails);
+        return ResponseEntity.ok(chatService.getChatMessagesPage(chatId, userId, cursor, limit));
+    }
+
     @PostMapping("/{chatId}/messages")
     public ResponseEntity<MessageDto> sendMessage(
             @PathVariable Long chatId,
@@ -1,8 +1,10 @@
 package com.example.backend.controller;
 
 import com.example.backend.model.dto.DatabaseConnectionDto;
+import com.example.backend.model.dto.DistributionKeyProposalDto;
 import com.example.backend.security.CustomUserDetails;
 import com.example.backend.service.DatabaseConnectionService;
+import com.example.backend.service.DistributionKeyAdvisorService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
@@ -24,6 +26,7 @@ import java.util.Map;
 public class DatabaseConnectionController {
 
     private final DatabaseConnectionService databaseConnectionService;
+    private final DistributionKeyAdvisorService distributionKeyAdvisorService;
 
     @GetMapping("/chat/{chatId}")
     @Operation(summary = "Get all database connections for a chat")
@@ -55,6 +58,16 @@ public class DatabaseConnectionController {
         return ResponseEntity.noContent().build();
     }
 
+    @GetMapping("/{connectionId}/distribution-advice")
+    @Operation(summary = "Suggest Greenplum distribution keys that eliminate data motions")
+    public ResponseEntity<List<DistributionKeyProposalDto>> getDistributionAdvice(
+            @PathVariable Long connectionId,
+            @RequestParam(defaultValue = "false") boolean validate,
+            @AuthenticationPrincipal UserDetails userDetails) {
+        Long userId = getUserId(userDetails);
+        return ResponseEntity.ok(distributionKeyAdvisorService.adviseDistributionKeys(userId, connectionId, validate));
+    }
+
     private Long getUserId(UserDetails userDetails) {
         if (userDetails instanceof CustomUserDetails) {
             return ((CustomUserDetails) userDetails).getUserId();
@@ -2,16 +2,23 @@ package com.example.backend.controller;
 
 import com.example.backend.exception.ApiException;
 import com.example.backend.exception.ResourceNotFoundException;
+import com.example.backend.model.dto.CursorPage;
+import com.example.backend.model.dto.SimilarQueryDto;
 import com.example.backend.model.dto.SqlQueryRequest;
 import com.example.backend.model.dto.SqlQueryResponse;
+import com.example.backend.model.dto.SqlSearchResultDto;
 import com.example.backend.security.CustomUserDetails;
+import com.example.backend.service.HistoryExportService;
 import com.example.backend.service.SqlOptimizationService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
@@ -19,6 +26,7 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Mono;
 
+import java.io.IOException;
 import java.util.List;
 
 @RestController
@@ -30,6 +38,7 @@ import java.util.List;
 public class SqlOptimizationController {
 
     private final SqlOptimizationService sqlOptimizationService;
+    private final HistoryExportService historyExportService;
 
     @PostMapping("/optimize")
     @Operation(summary = "Оптимизировать SQL-запрос")
@@ -76,6 +85,79 @@ public class SqlOptimizationController {
         return ResponseEntity.ok(sqlOptimizationService.getQueryHistory(chatId, userId));
     }
 
+    @GetMapping("/history/{chatId}/page")
+    @Operation(summary = "Получить страницу истории SQL-запросов для чата (от новых к старым)")
+    public ResponseEntity<CursorPage<SqlQueryResponse>> getQueryHistoryPage(
+            @PathVariable Long chatId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @AuthenticationPrincipal UserDetails userDetails) {
+        Long userId = getUserId(userDetails);
+        return ResponseEntity.ok(sqlOptimizationService.getQueryHistoryPage(chatId, userId, cursor, limit));
+    }
+
+    @GetMapping("/search")
+    @Operation(summary = "Поиск по истории SQL-запросов пользователя и названиям чатов")
+    public ResponseEntity<CursorPage<SqlSearchResultDto>> searchHistory(
+            @RequestParam("q") String query,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @AuthenticationPrincipal UserDetails userDetails) {
+        Long userId = getUserId(userDetails);
+        return ResponseEntity.ok(sqlOptimizationService.searchHistory(userId, query, cursor, limit));
+    }
+
+    @GetMapping("/similar")
+    @Operation(summary = "Найти похожие запросы, уже оптимизированные ранее")
+    public ResponseEntity<List<SimilarQueryDto>> findSimilarQueries(
+            @RequestParam("q") String query,
+            @RequestParam(required = false) Integer limit,
+            @AuthenticationPrincipal UserDetails userDetails) {
+        Long userId = getUserId(userDetails);
+        return ResponseEntity.ok(sqlOptimizationService.findSimilarQueries(userId, query, limit));
+    }
+
+    // Пишем прямо в поток ответа синхронно: выгрузка может идти дольше таймаута async-запросов
+    @GetMapping("/export")
+    @Operation(summary = "Выгрузить историю оптимизаций всех чатов пользователя (NDJSON или CSV)")
+    public void exportHistory(
+            @RequestParam(defaultValue = "ndjson") String format,
+            @RequestParam(required = false) String columns,
+            @RequestParam(defaultValue = "false") boolean gzip,
+            @AuthenticationPrincipal UserDetails userDetails,
+            HttpServletResponse response) throws IOException {
+        Long userId = getUserId(userDetails);
+        HistoryExportService.Format exportFormat = HistoryExportService.Format.fromName(format);
+        List<String> exportColumns = historyExportService.resolveColumns(columns);
+
+        try (HistoryExportService.ExportSlot slot = historyExportService.acquireSlot()) {
+            String filename = "sql-history." + exportFormat.getExtension() + (gzip ? ".gz" : "");
+            response.setContentType(gzip ? "application/gzip" : exportFormat.getContentType() + ";charset=UTF-8");
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                    ContentDisposition.attachment().filename(filename).build().toString());
+            historyExportService.export(userId, exportFormat, exportColumns, gzip, response.getOutputStream());
+        }
+    }
+
+    @GetMapping("/queries/{queryId}")
+    @Operation(summary = "Получить результат оптимизации SQL-запроса")
+    public ResponseEntity<SqlQueryResponse> getQuery(
+            @PathVariable Long queryId,
+            @AuthenticationPrincipal UserDetails userDetails) {
+        Long userId = getUserId(userDetails);
+        return ResponseEntity.ok(sqlOptimizationService.getQuery(queryId, userId));
+    }
+
+    @GetMapping(value = "/queries/{queryId}/sections/{section}", produces = "text/markdown;charset=UTF-8")
+    @Operation(summary = "Получить секцию результата оптимизации в Markdown")
+    public ResponseEntity<String> getQuerySection(
+            @PathVariable Long queryId,
+            @PathVariable String section,
+            @AuthenticationPrincipal UserDetails userDetails) {
+        Long userId = getUserId(userDetails);
+        return ResponseEntity.ok(sqlOptimizationService.renderQuerySection(queryId, userId, section));
+    }
+
     private Long getUserId(UserDetails userDetails) {
         if (userDetails instanceof CustomUserDetails) {
             return ((CustomUserDetails) userDetails).getUserId();
@@ -2,6 +2,7 @@ package com.example.backend.controller;
 
 import com.example.backend.model.ChatMessage;
 import com.example.backend.model.dto.MessageDto;
+import com.example.backend.security.CustomUserDetails;
 import com.example.backend.service.ChatService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -9,8 +10,11 @@ import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Controller;
 
+import java.security.Principal;
+
 @Slf4j
 @Controller
 @RequiredArgsConstructor
@@ -32,7 +36,7 @@ public class WebSocketController {
                 .llmProvider(chatMessage.getLlmProvider())
                 .build();
 
-        chatService.sendMessage(chatMessage.getChatId(), Long.parseLong(username), messageDto);
+        chatService.sendMessage(chatMessage.getChatId(), resolveUserId(headerAccessor.getUser()), messageDto);
     }
 
     @MessageMapping("/chat.addUser")
@@ -45,4 +49,13 @@ public class WebSocketController {
         chatMessage.setType(ChatMessage.MessageType.JOIN);
         messagingTemplate.convertAndSend("/topic/chat/" + chatMessage.getChatId(), chatMessage);
     }
+
+    // userId берётся из principal, собранного по claims JWT
+    private Long resolveUserId(Principal user) {
+        if (user instanceof Authentication
+                && ((Authentication) user).getPrincipal() instanceof CustomUserDetails) {
+            return ((CustomUserDetails) ((Authentication) user).getPrincipal()).getUserId();
+        }
+        return Long.parseLong(user.getName());
+    }
 }
@@ -0,0 +1,14 @@
+package com.example.backend.exception;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * Провайдер LLM отклонил вызов без обращения к нему: открыт circuit breaker
+ * или переполнен bulkhead. Такие ошибки не ретраятся и не учитываются breaker'ом.
+ */
+public class ProviderUnavailableException extends ApiException {
+
+    public ProviderUnavailableException(String message) {
+        super(message, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+}
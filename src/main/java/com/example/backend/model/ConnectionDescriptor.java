@@ -0,0 +1,28 @@
+package com.example.backend.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/**
+ * Параметры подключения к пользовательской БД без связей JPA, чтобы их можно было кэшировать.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ConnectionDescriptor {
+
+    private Long id;
+    private Long chatId;
+    private String dbType;
+    private String host;
+    private int port;
+    private String databaseName;
+    private String username;
+    @ToString.Exclude
+    private String password;
+    private boolean active;
+}
@@ -0,0 +1,25 @@
+package com.example.backend.model;
+
+public enum LLMProvider {
+    LOCAL("Local"),
+    GIGACHAT("GigaChat");
+
+    private final String name;
+
+    LLMProvider(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public LLMProvider alternate() {
+        return this == LOCAL ? GIGACHAT : LOCAL;
+    }
+
+    // Исторически всё, что не "Local", уходит в облачную модель
+    public static LLMProvider fromName(String name) {
+        return LOCAL.name.equals(name) ? LOCAL : GIGACHAT;
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.backend.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class LLMRequest {
+    private String provider;
+    private String systemPrompt;
+    private String userPrompt;
+    // null - использовать llm.max-tokens
+    private Integer maxTokens;
+    private int estimatedPromptTokens;
+}
@@ -0,0 +1,20 @@
+package com.example.backend.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LLMResponse {
+    private String optimizedSql;
+    private String optimizationRationale;
+    private String performanceImpact;
+    private String potentialRisks;
+    private List<String> candidateIndexes;
+}
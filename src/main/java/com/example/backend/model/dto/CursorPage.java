@@ -0,0 +1,22 @@
+package com.example.backend.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CursorPage<T> {
+
+    private List<T> items;
+
+    // Передаётся в следующий запрос как cursor; null, если страниц больше нет
+    private String nextCursor;
+
+    private boolean hasMore;
+}
@@ -0,0 +1,29 @@
+package com.example.backend.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class DistributionKeyProposalDto {
+
+    private String tableName;
+    private String currentDistribution;
+    private List<String> proposedKey;
+    private long estimatedBytesEliminated;
+    private int motionsEliminated;
+    private int affectedQueries;
+    private List<String> joinPartners;
+
+    // Результат проверки на выборке; null, если проверка не запускалась
+    private Boolean validated;
+    private Long sampleMotionBytesBefore;
+    private Long sampleMotionBytesAfter;
+    private String validationMessage;
+}
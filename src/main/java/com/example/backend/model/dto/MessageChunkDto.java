@@ -0,0 +1,21 @@
+package com.example.backend.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MessageChunkDto {
+
+    private Long chatId;
+
+    // Очередная порция текста ответа LLM (инкремент, а не весь текст)
+    private String content;
+
+    @Builder.Default
+    private boolean partial = true;
+}
@@ -30,6 +30,9 @@ public class MessageDto {
 
     private String llmProvider;
 
+    // Ссылка на результат оптимизации; секции загружаются через /sql/queries/{id}
+    private Long sqlQueryId;
+
     public static MessageDto fromEntity(Message message) {
         return MessageDto.builder()
                 .id(message.getId())
@@ -37,6 +40,7 @@ public class MessageDto {
                 .fromUser(message.isFromUser())
                 .createdAt(message.getCreatedAt())
                 .chatId(message.getChat().getId())
+                .sqlQueryId(message.getSqlQuery() != null ? message.getSqlQuery().getId() : null)
                 .build();
     }
 }
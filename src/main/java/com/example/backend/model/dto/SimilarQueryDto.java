@@ -0,0 +1,24 @@
+package com.example.backend.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SimilarQueryDto {
+
+    private Long queryId;
+
+    private Long chatId;
+
+    private String originalQuery;
+
+    private String optimizedQuery;
+
+    // Оценка коэффициента Жаккара по MinHash-сигнатурам, от 0 до 1
+    private double similarity;
+}
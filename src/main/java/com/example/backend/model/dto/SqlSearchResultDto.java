@@ -0,0 +1,30 @@
+package com.example.backend.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SqlSearchResultDto {
+
+    private Long queryId;
+
+    private Long chatId;
+
+    private String chatTitle;
+
+    private String originalQuery;
+
+    private String optimizedQuery;
+
+    private LocalDateTime createdAt;
+
+    // Сумма полнотекстового ранга и сходства по триграммам, больше - релевантнее
+    private Double rank;
+}
@@ -23,7 +23,8 @@ import java.util.List;
 public class Chat {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "chats_id_seq")
+    @SequenceGenerator(name = "chats_id_seq", sequenceName = "chats_id_seq", allocationSize = 50)
     private Long id;
 
     @JsonBackReference
@@ -0,0 +1,55 @@
+package com.example.backend.model.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+import org.hibernate.annotations.Immutable;
+
+import java.time.LocalDateTime;
+
+/**
+ * Сжатое содержимое (план выполнения, снимок метаданных), адресуемое SHA-256
+ * от несжатого JSON. Строки не изменяются, одинаковое содержимое хранится один раз.
+ */
+@Entity
+@Table(name = "content_blobs")
+@Immutable
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ContentBlob {
+
+    public static final String KIND_PLAN = "plan";
+    public static final String KIND_TABLES_METADATA = "tables_metadata";
+
+    @Id
+    @Column(length = 64)
+    private String hash;
+
+    @Column(nullable = false, length = 32)
+    private String kind;
+
+    @Column(nullable = false, length = 16)
+    private String encoding;
+
+    @ToString.Exclude
+    @Column(nullable = false, columnDefinition = "bytea")
+    private byte[] data;
+
+    @Column(name = "raw_size", nullable = false)
+    private int rawSize;
+
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+    // Разжатое значение, чтобы не распаковывать повторно в рамках сессии
+    @Transient
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private Object decoded;
+}
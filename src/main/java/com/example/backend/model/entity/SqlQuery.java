@@ -1,14 +1,17 @@
 package com.example.backend.model.entity;
 
+import com.example.backend.util.ContentCodec;
 import com.example.sqlopt.ast.QueryPlanResult;
-import com.vladmihalcea.hibernate.type.json.JsonBinaryType;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.type.TypeReference;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 import org.hibernate.annotations.CreationTimestamp;
-import org.hibernate.annotations.Type;
 
 import java.time.LocalDateTime;
 import java.util.Map;
@@ -20,14 +23,22 @@ import java.util.Map;
 @AllArgsConstructor
 @Builder
 public class SqlQuery {
+    private static final TypeReference<QueryPlanResult> PLAN_TYPE = new TypeReference<>() { };
+    private static final TypeReference<Map<String, Map<String, Object>>> TABLES_METADATA_TYPE = new TypeReference<>() { };
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "sql_queries_id_seq")
+    @SequenceGenerator(name = "sql_queries_id_seq", sequenceName = "sql_queries_id_seq", allocationSize = 50)
     private Long id;
 
     @OneToOne
     @JoinColumn(name = "message_id", nullable = false)
     private Message message;
 
+    // Дублирует message.chat для постраничной истории по индексу (chat_id, created_at, id)
+    @Column(name = "chat_id")
+    private Long chatId;
+
     @Column(name = "original_query", nullable = false, columnDefinition = "TEXT")
     private String originalQuery;
 
@@ -41,17 +52,27 @@ public class SqlQuery {
     @Column(name = "execution_time_ms")
     private Long executionTimeMs;
 
-    @Type(JsonBinaryType.class)
-    @Column(name = "original_plan", columnDefinition = "jsonb")
-    private QueryPlanResult originalPlan;
+    // Планы и метаданные лежат в content_blobs и подгружаются только при обращении
+    @JsonIgnore
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "original_plan_hash")
+    private ContentBlob originalPlanBlob;
 
-    @Type(JsonBinaryType.class)
-    @Column(name = "optimized_plan", columnDefinition = "jsonb")
-    private QueryPlanResult optimizedPlan;
+    @JsonIgnore
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "optimized_plan_hash")
+    private ContentBlob optimizedPlanBlob;
 
-    @Type(JsonBinaryType.class)
-    @Column(name = "tables_metadata", columnDefinition = "jsonb")
-    private Map<String, Map<String, Object>> tablesMetadata;
+    @JsonIgnore
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "tables_metadata_hash")
+    private ContentBlob tablesMetadataBlob;
 
     @Column(name = "optimization_rationale", columnDefinition = "TEXT")
     private String optimizationRationale;
@@ -62,7 +83,35 @@ public class SqlQuery {
     @Column(name = "potential_risks", columnDefinition = "TEXT")
     private String potentialRisks;
 
+    // Оптимизированный SQL получен от LLM и прошёл проверку; только такие запросы идут в примеры похожих
+    @Column(name = "validated", nullable = false)
+    private boolean validated;
+
     @CreationTimestamp
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
+
+    public QueryPlanResult getOriginalPlan() {
+        return ContentCodec.decode(originalPlanBlob, PLAN_TYPE);
+    }
+
+    public void setOriginalPlan(QueryPlanResult plan) {
+        this.originalPlanBlob = ContentCodec.encode(ContentBlob.KIND_PLAN, plan);
+    }
+
+    public QueryPlanResult getOptimizedPlan() {
+        return ContentCodec.decode(optimizedPlanBlob, PLAN_TYPE);
+    }
+
+    public void setOptimizedPlan(QueryPlanResult plan) {
+        this.optimizedPlanBlob = ContentCodec.encode(ContentBlob.KIND_PLAN, plan);
+    }
+
+    public Map<String, Map<String, Object>> getTablesMetadata() {
+        return ContentCodec.decode(tablesMetadataBlob, TABLES_METADATA_TYPE);
+    }
+
+    public void setTablesMetadata(Map<String, Map<String, Object>> tablesMetadata) {
+        this.tablesMetadataBlob = ContentCodec.encode(ContentBlob.KIND_TABLES_METADATA, tablesMetadata);
+    }
 }
@@ -1,9 +1,13 @@
 package com.example.backend.repository;
 
 import com.example.backend.model.entity.Chat;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -13,4 +17,19 @@ public interface ChatRepository extends JpaRepository<Chat, Long> {
     List<Chat> findByUserIdOrderByUpdatedAtDesc(Long userId);
 
     Optional<Chat> findByIdAndUserId(Long id, Long userId);
+
+    @Query("SELECT c.user.id FROM Chat c WHERE c.id = :chatId")
+    Optional<Long> findOwnerIdById(Long chatId);
+
+    // Обновляет время чата и заодно проверяет владельца: 0 строк - чат не найден или чужой
+    @Modifying
+    @Query("UPDATE Chat c SET c.updatedAt = :updatedAt WHERE c.id = :chatId AND c.user.id = :userId")
+    int touchOwnedChat(Long chatId, Long userId, LocalDateTime updatedAt);
+
+    @Query("SELECT c FROM Chat c WHERE c.user.id = :userId ORDER BY c.updatedAt DESC, c.id DESC")
+    List<Chat> findPageByUserId(Long userId, Pageable pageable);
+
+    @Query("SELECT c FROM Chat c WHERE c.user.id = :userId AND c.updatedAt <= :updatedAt " +
+            "AND (c.updatedAt < :updatedAt OR c.id < :id) ORDER BY c.updatedAt DESC, c.id DESC")
+    List<Chat> findPageByUserIdBefore(Long userId, LocalDateTime updatedAt, Long id, Pageable pageable);
 }
@@ -0,0 +1,22 @@
+package com.example.backend.repository;
+
+import com.example.backend.model.entity.ContentBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ContentBlobRepository extends JpaRepository<ContentBlob, String> {
+
+    @Modifying
+    @Query(value = "INSERT INTO content_blobs (hash, kind, encoding, data, raw_size, created_at) " +
+            "VALUES (:hash, :kind, :encoding, :data, :rawSize, CURRENT_TIMESTAMP) " +
+            "ON CONFLICT (hash) DO NOTHING", nativeQuery = true)
+    int insertIfAbsent(@Param("hash") String hash,
+                       @Param("kind") String kind,
+                       @Param("encoding") String encoding,
+                       @Param("data") byte[] data,
+                       @Param("rawSize") int rawSize);
+}
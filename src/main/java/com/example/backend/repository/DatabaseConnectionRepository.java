@@ -2,8 +2,12 @@ package com.example.backend.repository;
 
 import com.example.backend.model.entity.DatabaseConnection;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -15,4 +19,9 @@ public interface DatabaseConnectionRepository extends JpaRepository<DatabaseConn
     Optional<DatabaseConnection> findByIdAndChatId(Long id, Long chatId);
 
     void deleteAllByChatId(Long chatId);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE DatabaseConnection dc SET dc.lastConnectedAt = :connectedAt WHERE dc.id = :id")
+    int updateLastConnectedAt(Long id, LocalDateTime connectedAt);
 }
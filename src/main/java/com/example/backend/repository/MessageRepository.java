@@ -1,10 +1,12 @@
 package com.example.backend.repository;
 
 import com.example.backend.model.entity.Message;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -15,4 +17,24 @@ public interface MessageRepository extends JpaRepository<Message, Long> {
     List<Message> findByChatIdOrderByCreatedAtAsc(Long chatId);
 
     Optional<Message> findFirstByChatIdOrderByCreatedAtDesc(Long chatId);
+
+    // Проекция для ленты чата: без загрузки SqlQuery и его планов
+    interface MessageView {
+        Long getId();
+        String getContent();
+        Boolean getFromUser();
+        LocalDateTime getCreatedAt();
+        Long getSqlQueryId();
+    }
+
+    @Query("SELECT m.id AS id, m.content AS content, m.fromUser AS fromUser, m.createdAt AS createdAt, " +
+            "sq.id AS sqlQueryId FROM Message m LEFT JOIN m.sqlQuery sq WHERE m.chat.id = :chatId " +
+            "ORDER BY m.createdAt DESC, m.id DESC")
+    List<MessageView> findPageByChatId(Long chatId, Pageable pageable);
+
+    @Query("SELECT m.id AS id, m.content AS content, m.fromUser AS fromUser, m.createdAt AS createdAt, " +
+            "sq.id AS sqlQueryId FROM Message m LEFT JOIN m.sqlQuery sq WHERE m.chat.id = :chatId " +
+            "AND m.createdAt <= :createdAt AND (m.createdAt < :createdAt OR m.id < :id) " +
+            "ORDER BY m.createdAt DESC, m.id DESC")
+    List<MessageView> findPageByChatIdBefore(Long chatId, LocalDateTime createdAt, Long id, Pageable pageable);
 }
@@ -1,15 +1,110 @@
 package com.example.backend.repository;
 
+import com.example.backend.model.entity.ContentBlob;
 import com.example.backend.model.entity.SqlQuery;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface SqlQueryRepository extends JpaRepository<SqlQuery, Long> {
 
-    @Query("SELECT sq FROM SqlQuery sq LEFT JOIN FETCH sq.message m LEFT JOIN FETCH sq.databaseConnection WHERE m.chat.id = :chatId ORDER BY sq.createdAt DESC")
+    // Open-in-view выключен: всё, что нужно для ответа, загружается одним запросом
+    @EntityGraph(attributePaths = {"message", "databaseConnection", "originalPlanBlob", "optimizedPlanBlob"})
+    @Query("SELECT sq FROM SqlQuery sq WHERE sq.message.chat.id = :chatId ORDER BY sq.createdAt DESC")
     List<SqlQuery> findByMessageChatIdOrderByCreatedAtDesc(Long chatId);
+
+    // Последние исходные планы подключения для советника по ключам распределения
+    interface PlanHistoryView {
+        Long getId();
+        String getOriginalQuery();
+        ContentBlob getPlanBlob();
+    }
+
+    @Query("SELECT sq.id AS id, sq.originalQuery AS originalQuery, b AS planBlob FROM SqlQuery sq " +
+            "JOIN sq.originalPlanBlob b WHERE sq.databaseConnection.id = :connectionId " +
+            "ORDER BY sq.createdAt DESC, sq.id DESC")
+    List<PlanHistoryView> findLatestPlans(Long connectionId, Pageable pageable);
+
+    @EntityGraph(attributePaths = {"message", "originalPlanBlob", "optimizedPlanBlob", "tablesMetadataBlob"})
+    Optional<SqlQuery> findByIdAndMessageChatUserId(Long id, Long userId);
+
+    // Проекция для списка истории: без планов, метаданных и текстов обоснования
+    interface HistoryView {
+        Long getId();
+        String getOriginalQuery();
+        String getOptimizedQuery();
+        Long getExecutionTimeMs();
+        LocalDateTime getCreatedAt();
+        Long getMessageId();
+    }
+
+    @Query("SELECT sq.id AS id, sq.originalQuery AS originalQuery, sq.optimizedQuery AS optimizedQuery, " +
+            "sq.executionTimeMs AS executionTimeMs, sq.createdAt AS createdAt, sq.message.id AS messageId " +
+            "FROM SqlQuery sq WHERE sq.chatId = :chatId ORDER BY sq.createdAt DESC, sq.id DESC")
+    List<HistoryView> findHistoryPage(Long chatId, Pageable pageable);
+
+    @Query("SELECT sq.id AS id, sq.originalQuery AS originalQuery, sq.optimizedQuery AS optimizedQuery, " +
+            "sq.executionTimeMs AS executionTimeMs, sq.createdAt AS createdAt, sq.message.id AS messageId " +
+            "FROM SqlQuery sq WHERE sq.chatId = :chatId AND sq.createdAt <= :createdAt " +
+            "AND (sq.createdAt < :createdAt OR sq.id < :id) ORDER BY sq.createdAt DESC, sq.id DESC")
+    List<HistoryView> findHistoryPageBefore(Long chatId, LocalDateTime createdAt, Long id, Pageable pageable);
+
+    // Строки для индекса похожих запросов: только успешные оптимизации
+    interface SimilarityIndexView {
+        Long getId();
+        Long getChatId();
+        Long getUserId();
+        String getOriginalQuery();
+        String getOptimizedQuery();
+    }
+
+    @Query("SELECT sq.id AS id, sq.chatId AS chatId, c.user.id AS userId, sq.originalQuery AS originalQuery, " +
+            "sq.optimizedQuery AS optimizedQuery FROM SqlQuery sq JOIN Chat c ON c.id = sq.chatId " +
+            "WHERE sq.id > :afterId AND sq.validated = true AND sq.optimizedQuery IS NOT NULL " +
+            "AND sq.optimizedQuery <> sq.originalQuery " +
+            "ORDER BY sq.id")
+    List<SimilarityIndexView> findSimilarityIndexBatch(Long afterId, Pageable pageable);
+
+    interface SearchView {
+        Long getId();
+        Long getChatId();
+        String getChatTitle();
+        String getOriginalQuery();
+        String getOptimizedQuery();
+        LocalDateTime getCreatedAt();
+        Double getRank();
+    }
+
+    /**
+     * Поиск по истории пользователя (V9). Каждая ветка matches идёт по своим GIN-индексам:
+     * tsvector и триграммы по SQL, а также по названию чата. Совпадение по названию
+     * поднимает все запросы чата. Ранг - ts_rank_cd плюс word_similarity.
+     */
+    @Query(value = "WITH q AS (SELECT websearch_to_tsquery('simple', :query) || websearch_to_tsquery('russian', :query) AS ts), " +
+            "user_chats AS (SELECT id FROM chats WHERE user_id = :userId), " +
+            "matches AS (" +
+            "  SELECT sq.id, ts_rank_cd(sq.search_vector, q.ts) + GREATEST(word_similarity(:query, sq.original_query), " +
+            "         word_similarity(:query, coalesce(sq.optimized_query, ''))) AS rank " +
+            "  FROM sql_queries sq, q " +
+            "  WHERE sq.chat_id IN (SELECT id FROM user_chats) " +
+            "    AND (sq.search_vector @@ q.ts OR :query <% sq.original_query OR :query <% sq.optimized_query) " +
+            "  UNION ALL " +
+            "  SELECT sq.id, ts_rank_cd(c.title_vector, q.ts) + word_similarity(:query, c.title) " +
+            "  FROM chats c JOIN sql_queries sq ON sq.chat_id = c.id, q " +
+            "  WHERE c.user_id = :userId AND (c.title_vector @@ q.ts OR :query <% c.title)" +
+            "), ranked AS (SELECT id, MAX(rank) AS rank FROM matches GROUP BY id) " +
+            "SELECT sq.id AS \"id\", sq.chat_id AS \"chatId\", c.title AS \"chatTitle\", " +
+            "sq.original_query AS \"originalQuery\", sq.optimized_query AS \"optimizedQuery\", " +
+            "sq.created_at AS \"createdAt\", r.rank AS \"rank\" " +
+            "FROM ranked r JOIN sql_queries sq ON sq.id = r.id JOIN chats c ON c.id = sq.chat_id " +
+            "WHERE c.user_id = :userId " +
+            "ORDER BY r.rank DESC, sq.id DESC LIMIT :limit OFFSET :offset", nativeQuery = true)
+    List<SearchView> search(Long userId, String query, int limit, int offset);
 }
@@ -2,8 +2,10 @@ package com.example.backend.security;
 
 import com.example.backend.model.entity.User;
 import lombok.Getter;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 
+import java.util.Collection;
 import java.util.Collections;
 
 @Getter
@@ -15,4 +17,10 @@ public class CustomUserDetails extends org.springframework.security.core.userdet
         this.userId = user.getId();
     }
 
+    // Principal из claims JWT: пароль не нужен, пользователь из БД не загружается
+    public CustomUserDetails(Long userId, String username, Collection<? extends GrantedAuthority> authorities) {
+        super(username, "", authorities);
+        this.userId = userId;
+    }
+
 }
@@ -1,27 +1,50 @@
 package com.example.backend.security;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
 import jakarta.annotation.PostConstruct;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.stereotype.Component;
 
 import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Collectors;
 
+/**
+ * Выпуск и проверка JWT. Токен содержит userId и роли, поэтому principal
+ * собирается из claims без обращения к БД. Подпись проверяется одним
+ * переиспользуемым парсером; уже проверенные токены (по SHA-256) держатся
+ * в небольшом кэше до истечения срока действия.
+ */
 @Component
 @RequiredArgsConstructor
+@Slf4j
 public class JwtTokenProvider {
 
+    static final String CLAIM_USER_ID = "uid";
+    static final String CLAIM_ROLES = "roles";
+
     private final UserDetailsService userDetailsService;
 
     @Value("${jwt.secret}")
@@ -30,49 +53,80 @@ public class JwtTokenProvider {
     @Value("${jwt.expiration}")
     private long validityInMilliseconds;
 
+    @Value("${jwt.verified-cache-size:10000}")
+    private long verifiedCacheSize;
+
     private SecretKey key;
+    private JwtParser parser;
+    private Cache<String, VerifiedToken> verifiedTokens;
+
+    private static class VerifiedToken {
+        private final Authentication authentication;
+        private final long expiresAtMillis;
+
+        VerifiedToken(Authentication authentication, long expiresAtMillis) {
+            this.authentication = authentication;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
 
     @PostConstruct
     protected void init() {
         key = Keys.hmacShaKeyFor(secretKey.getBytes());
+        parser = Jwts.parser().verifyWith(key).build();
+        verifiedTokens = Caffeine.newBuilder()
+                .maximumSize(verifiedCacheSize)
+                // Запись не переживает токен; роли из claims не меняются до его истечения
+                .expireAfterWrite(Duration.ofMillis(validityInMilliseconds))
+                .build();
     }
 
-    public String createToken(String username) {
-        Map<String, Object> claims = new HashMap<>();
-        claims.put("sub", username);
-        claims.put("created", new Date());
-
+    public String createToken(Long userId, String username, Collection<? extends GrantedAuthority> authorities) {
         Date now = new Date();
         Date validity = new Date(now.getTime() + validityInMilliseconds);
 
         return Jwts.builder()
-                .claims(claims)
+                .subject(username)
+                .claim(CLAIM_USER_ID, userId)
+                .claim(CLAIM_ROLES, authorities.stream()
+                        .map(GrantedAuthority::getAuthority)
+                        .collect(Collectors.toList()))
                 .issuedAt(now)
                 .expiration(validity)
                 .signWith(key)
                 .compact();
     }
 
-    public Authentication getAuthentication(String token) {
-        try {
-            UserDetails userDetails = userDetailsService.loadUserByUsername(getUsername(token));
-            return new UsernamePasswordAuthenticationToken(userDetails, "", userDetails.getAuthorities());
-        } catch (Exception e) {
+    /**
+     * Проверяет токен и возвращает аутентификацию или null, если токен недействителен.
+     */
+    public Authentication authenticate(String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        String digest = digest(token);
+        VerifiedToken cached = verifiedTokens.getIfPresent(digest);
+        if (cached != null) {
+            if (cached.expiresAtMillis > System.currentTimeMillis()) {
+                return cached.authentication;
+            }
+            verifiedTokens.invalidate(digest);
             return null;
         }
-    }
 
-    public String getUsername(String token) {
+        Claims claims;
         try {
-            return Jwts.parser()
-                    .verifyWith(key)
-                    .build()
-                    .parseSignedClaims(token)
-                    .getPayload()
-                    .getSubject();
-        } catch (Exception e) {
+            claims = parser.parseSignedClaims(token).getPayload();
+        } catch (JwtException | IllegalArgumentException e) {
+            log.debug("Invalid JWT: {}", e.getMessage());
             return null;
         }
+
+        Authentication authentication = fromClaims(claims);
+        if (authentication != null && claims.getExpiration() != null) {
+            verifiedTokens.put(digest, new VerifiedToken(authentication, claims.getExpiration().getTime()));
+        }
+        return authentication;
     }
 
     public String resolveToken(HttpServletRequest req) {
@@ -83,15 +137,32 @@ public class JwtTokenProvider {
         return null;
     }
 
-    public boolean validateToken(String token) {
+    private Authentication fromClaims(Claims claims) {
+        Long userId = claims.get(CLAIM_USER_ID, Long.class);
+        if (userId == null) {
+            // Токены, выпущенные до появления uid, - пользователь загружается как раньше
+            try {
+                UserDetails userDetails = userDetailsService.loadUserByUsername(claims.getSubject());
+                return new UsernamePasswordAuthenticationToken(userDetails, "", userDetails.getAuthorities());
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        List<?> roles = claims.get(CLAIM_ROLES, List.class);
+        List<GrantedAuthority> authorities = roles == null ? List.of() : roles.stream()
+                .map(role -> new SimpleGrantedAuthority(String.valueOf(role)))
+                .collect(Collectors.toList());
+        CustomUserDetails principal = new CustomUserDetails(userId, claims.getSubject(), authorities);
+        return new UsernamePasswordAuthenticationToken(principal, "", authorities);
+    }
+
+    private static String digest(String token) {
         try {
-            Jwts.parser()
-                    .verifyWith(key)
-                    .build()
-                    .parseSignedClaims(token);
-            return true;
-        } catch (JwtException | IllegalArgumentException e) {
-            return false;
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
         }
     }
 }
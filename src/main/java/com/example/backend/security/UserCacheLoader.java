@@ -0,0 +1,29 @@
+package com.example.backend.security;
+
+import com.example.backend.config.CacheConfig;
+import com.example.backend.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Фоновое обновление кэша users: смена пароля видна через refreshAfterWrite,
+ * а не только после истечения записи. Удалённый пользователь пропадает из кэша.
+ */
+@Component
+@RequiredArgsConstructor
+public class UserCacheLoader implements CacheConfig.NamedCacheLoader {
+
+    private final UserRepository userRepository;
+
+    @Override
+    public String cacheName() {
+        return CacheConfig.USERS;
+    }
+
+    @Override
+    public Object load(Object username) {
+        return userRepository.findByUsername((String) username)
+                .map(CustomUserDetails::new)
+                .orElse(null);
+    }
+}
@@ -14,6 +14,8 @@ import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
+import java.util.List;
+
 @Service
 @RequiredArgsConstructor
 public class AuthService {
@@ -36,7 +38,7 @@ public class AuthService {
 
         User savedUser = userRepository.save(user);
 
-        String token = jwtTokenProvider.createToken(user.getUsername());
+        String token = jwtTokenProvider.createToken(savedUser.getId(), savedUser.getUsername(), List.of());
 
         return AuthResponse.builder()
                 .token(token)
@@ -55,7 +57,7 @@ public class AuthService {
             User user = userRepository.findByUsername(request.getUsername())
                     .orElseThrow(() -> new ApiException("User not found", HttpStatus.NOT_FOUND));
 
-            String token = jwtTokenProvider.createToken(user.getUsername());
+            String token = jwtTokenProvider.createToken(user.getId(), user.getUsername(), List.of());
             return AuthResponse.builder()
                     .token(token)
                     .username(user.getUsername())
@@ -0,0 +1,53 @@
+package com.example.backend.service;
+
+import com.example.backend.config.CacheConfig;
+import com.example.backend.exception.ResourceNotFoundException;
+import com.example.backend.repository.ChatRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Service;
+
+import java.util.Objects;
+
+/**
+ * Проверка владельца чата через кэш chatId -> userId. Запись удаляется при
+ * изменении, архивации и удалении чата.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ChatAccessService {
+
+    private final ChatRepository chatRepository;
+    private final CacheManager cacheManager;
+
+    public void checkOwner(Long chatId, Long userId) {
+        if (!Objects.equals(findOwnerId(chatId), userId)) {
+            log.error("Chat not found: chatId={}, userId={}", chatId, userId);
+            throw new ResourceNotFoundException("Chat not found");
+        }
+    }
+
+    public void evict(Long chatId) {
+        ownersCache().evict(chatId);
+    }
+
+    private Long findOwnerId(Long chatId) {
+        Cache cache = ownersCache();
+        Long ownerId = cache.get(chatId, Long.class);
+        if (ownerId == null) {
+            ownerId = chatRepository.findOwnerIdById(chatId).orElse(null);
+            // Отсутствующие чаты не кэшируем, чтобы не мешать только что созданным
+            if (ownerId != null) {
+                cache.put(chatId, ownerId);
+            }
+        }
+        return ownerId;
+    }
+
+    private Cache ownersCache() {
+        return cacheManager.getCache(CacheConfig.CHAT_OWNERS);
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.backend.service;
+
+import com.example.backend.config.CacheConfig;
+import com.example.backend.repository.ChatRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+@Component
+@RequiredArgsConstructor
+public class ChatOwnerCacheLoader implements CacheConfig.NamedCacheLoader {
+
+    private final ChatRepository chatRepository;
+
+    @Override
+    public String cacheName() {
+        return CacheConfig.CHAT_OWNERS;
+    }
+
+    @Override
+    public Object load(Object chatId) {
+        return chatRepository.findOwnerIdById((Long) chatId).orElse(null);
+    }
+}
@@ -2,6 +2,7 @@ package com.example.backend.service;
 
 import com.example.backend.exception.ResourceNotFoundException;
 import com.example.backend.model.dto.ChatDto;
+import com.example.backend.model.dto.CursorPage;
 import com.example.backend.model.dto.MessageDto;
 import com.example.backend.model.dto.SqlQueryRequest;
 import com.example.backend.model.entity.Chat;
@@ -10,15 +11,22 @@ import com.example.backend.model.entity.User;
 import com.example.backend.repository.ChatRepository;
 import com.example.backend.repository.MessageRepository;
 import com.example.backend.repository.UserRepository;
+import com.example.backend.util.PageCursor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 @Service
@@ -32,6 +40,19 @@ public class ChatService {
     private final DatabaseConnectionService databaseConnectionService;
     private final SimpMessagingTemplate messagingTemplate;
     private final SqlOptimizationService sqlOptimizationService;
+    private final ChatAccessService chatAccessService;
+    private final SimilarQueryIndex similarQueryIndex;
+    private final MeterRegistry meterRegistry;
+    private Timer sendMessageTimer;
+
+    @PostConstruct
+    void registerMetrics() {
+        // Время записи сообщения (UPDATE чата + INSERT) без оптимизации и рассылки
+        sendMessageTimer = Timer.builder("chat.message.persist")
+                .description("Time to persist a chat message and bump the chat timestamp")
+                .publishPercentiles(0.5, 0.9, 0.99)
+                .register(meterRegistry);
+    }
 
     public List<ChatDto> getUserChats(Long userId) {
         log.debug("Fetching chats for userId={}", userId);
@@ -41,13 +62,20 @@ public class ChatService {
                 .collect(Collectors.toList());
     }
 
+    public CursorPage<ChatDto> getUserChatsPage(Long userId, String cursor, Integer limit) {
+        PageCursor position = PageCursor.decode(cursor);
+        int pageSize = PageCursor.limit(limit);
+        List<Chat> chats = position == null
+                ? chatRepository.findPageByUserId(userId, PageCursor.pageable(pageSize))
+                : chatRepository.findPageByUserIdBefore(userId, position.getTimestamp(), position.getId(),
+                        PageCursor.pageable(pageSize));
+        return PageCursor.toPage(chats, pageSize, Chat::getUpdatedAt, Chat::getId, this::mapToDto);
+    }
+
     public ChatDto createChat(Long userId, ChatDto chatDto) {
         log.debug("Creating chat for userId={}, title={}", userId, chatDto.getTitle());
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> {
-                    log.error("User not found: userId={}", userId);
-                    return new ResourceNotFoundException("User not found");
-                });
+        // Пользователь уже аутентифицирован, загружать его не нужно
+        User user = userRepository.getReferenceById(userId);
 
         Chat chat = Chat.builder()
                 .user(user)
@@ -73,11 +101,7 @@ public class ChatService {
 
     public List<MessageDto> getChatMessages(Long chatId, Long userId) {
         log.debug("Fetching messages for chatId={}, userId={}", chatId, userId);
-        chatRepository.findByIdAndUserId(chatId, userId)
-                .orElseThrow(() -> {
-                    log.error("Chat not found: chatId={}, userId={}", chatId, userId);
-                    return new ResourceNotFoundException("Chat not found");
-                });
+        chatAccessService.checkOwner(chatId, userId);
 
         List<Message> messages = messageRepository.findByChatIdOrderByCreatedAtAsc(chatId);
         return messages.stream()
@@ -85,61 +109,66 @@ public class ChatService {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Сообщения от новых к старым; cursor из предыдущей страницы продолжает ленту в прошлое.
+     */
+    public CursorPage<MessageDto> getChatMessagesPage(Long chatId, Long userId, String cursor, Integer limit) {
+        chatAccessService.checkOwner(chatId, userId);
+
+        PageCursor position = PageCursor.decode(cursor);
+        int pageSize = PageCursor.limit(limit);
+        List<MessageRepository.MessageView> messages = position == null
+                ? messageRepository.findPageByChatId(chatId, PageCursor.pageable(pageSize))
+                : messageRepository.findPageByChatIdBefore(chatId, position.getTimestamp(), position.getId(),
+                        PageCursor.pageable(pageSize));
+
+        return PageCursor.toPage(messages, pageSize,
+                MessageRepository.MessageView::getCreatedAt,
+                MessageRepository.MessageView::getId,
+                message -> MessageDto.builder()
+                        .id(message.getId())
+                        .content(message.getContent())
+                        .fromUser(message.getFromUser())
+                        .createdAt(message.getCreatedAt())
+                        .chatId(chatId)
+                        .sqlQueryId(message.getSqlQueryId())
+                        .build());
+    }
+
     @Transactional
     public MessageDto sendMessage(Long chatId, Long userId, MessageDto messageDto) {
         log.info("Processing sendMessage: chatId={}, userId={}, content={}", chatId, userId, messageDto.getContent());
 
-        Chat chat = chatRepository.findById(chatId)
-                .orElseThrow(() -> new ResourceNotFoundException("Chat not found with id: " + chatId));
+        long start = System.nanoTime();
 
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new ResourceNotFoundException("User not found with id: " + userId));
-
-        log.debug("Found chat: id={}, title={}", chat.getId(), chat.getTitle());
+        // Один UPDATE обновляет время чата и проверяет владельца, сам чат не загружаем
+        LocalDateTime now = LocalDateTime.now();
+        if (chatRepository.touchOwnedChat(chatId, userId, now) == 0) {
+            throw new ResourceNotFoundException("Chat not found with id: " + chatId);
+        }
+        Chat chat = chatRepository.getReferenceById(chatId);
 
         Message message = new Message();
         message.setChat(chat);
         message.setContent(messageDto.getContent());
         message.setFromUser(messageDto.getFromUser());
-        message.setCreatedAt(LocalDateTime.now());
+        message.setCreatedAt(now);
 
         log.debug("Saving message: content={}, fromUser={}", message.getContent(), message.isFromUser());
         message = messageRepository.save(message);
         log.info("Message saved successfully: id={}", message.getId());
+        sendMessageTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
 
-        // Если это SQL-запрос, отправляем его на оптимизацию
+        // Если это SQL-запрос, отправляем его на оптимизацию после фиксации транзакции:
+        // до коммита сообщение пользователя не видно другим соединениям
         if (isSQLQuery(messageDto.getContent())) {
-            try {
-                SqlQueryRequest request = new SqlQueryRequest();
-                request.setChatId(chatId);
-                request.setQuery(messageDto.getContent());
-                request.setLlm("gpt-4");
-                request.setMPP(false);
-
-                sqlOptimizationService.optimizeQuery(userId, request)
-                    .subscribe(response -> {
-                        Message optimizedMessage = new Message();
-                        optimizedMessage.setChat(chat);
-                        optimizedMessage.setContent(response.getOptimizedQuery());
-                        optimizedMessage.setFromUser(false);
-                        optimizedMessage.setCreatedAt(LocalDateTime.now());
-                        messageRepository.save(optimizedMessage);
-
-                        String destination = "/topic/chat/" + chatId;
-                        messagingTemplate.convertAndSend(destination, mapToMessageDto(optimizedMessage));
-                    });
-            } catch (Exception e) {
-                log.error("Error optimizing SQL query: {}", e.getMessage());
-                Message errorMessage = new Message();
-                errorMessage.setChat(chat);
-                errorMessage.setContent("Произошла ошибка при оптимизации SQL-запроса: " + e.getMessage());
-                errorMessage.setFromUser(false);
-                errorMessage.setCreatedAt(LocalDateTime.now());
-                messageRepository.save(errorMessage);
-
-                String destination = "/topic/chat/" + chatId;
-                messagingTemplate.convertAndSend(destination, mapToMessageDto(errorMessage));
-            }
+            String query = messageDto.getContent();
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    startOptimization(chatId, userId, query);
+                }
+            });
         } else {
             // Отправляем сообщение через WebSocket только если это не SQL-запрос
             String destination = "/topic/chat/" + chatId;
@@ -148,14 +177,43 @@ public class ChatService {
             log.info("Successfully sent message to {}: id={}", destination, message.getId());
         }
 
-        // Обновляем время последнего обновления чата
-        chat.setUpdatedAt(LocalDateTime.now());
-        chatRepository.save(chat);
-        log.debug("Updated chat timestamp: id={}", chat.getId());
-
         return mapToMessageDto(message);
     }
 
+    private void startOptimization(Long chatId, Long userId, String query) {
+        try {
+            SqlQueryRequest request = new SqlQueryRequest();
+            request.setChatId(chatId);
+            request.setQuery(query);
+            request.setLlm("gpt-4");
+            request.setMPP(false);
+
+            // Ответное сообщение уже сохранено вместе с SqlQuery, рассылаем его без повторной записи
+            sqlOptimizationService.optimizeQuery(userId, request)
+                .subscribe(response -> messagingTemplate.convertAndSend("/topic/chat/" + chatId, response.getMessage()),
+                        e -> publishOptimizationError(chatId, e));
+        } catch (Exception e) {
+            publishOptimizationError(chatId, e);
+        }
+    }
+
+    // Ошибка оптимизации сохраняется в чат, чтобы пользователь не ждал ответа, которого не будет
+    private void publishOptimizationError(Long chatId, Throwable e) {
+        log.error("Error optimizing SQL query: {}", e.getMessage());
+        try {
+            Message errorMessage = new Message();
+            errorMessage.setChat(chatRepository.getReferenceById(chatId));
+            errorMessage.setContent("Произошла ошибка при оптимизации SQL-запроса: " + e.getMessage());
+            errorMessage.setFromUser(false);
+            errorMessage.setCreatedAt(LocalDateTime.now());
+            messageRepository.save(errorMessage);
+
+            messagingTemplate.convertAndSend("/topic/chat/" + chatId, mapToMessageDto(errorMessage));
+        } catch (Exception saveError) {
+            log.error("Failed to save optimization error for chatId={}: {}", chatId, saveError.getMessage());
+        }
+    }
+
     private boolean isSQLQuery(String content) {
         if (content == null || content.trim().isEmpty()) {
             return false;
@@ -181,6 +239,7 @@ public class ChatService {
 
         chat.setArchived(true);
         chatRepository.save(chat);
+        chatAccessService.evict(chatId);
 
         databaseConnectionService.deactivateConnectionsForChat(chatId);
         log.info("Archived chat: chatId={}", chatId);
@@ -199,6 +258,7 @@ public class ChatService {
         chat.setUpdatedAt(LocalDateTime.now());
 
         Chat updatedChat = chatRepository.save(chat);
+        chatAccessService.evict(chatId);
         log.info("Updated chat: chatId={}, title={}", chatId, updatedChat.getTitle());
         return mapToDto(updatedChat);
     }
@@ -214,6 +274,8 @@ public class ChatService {
 
         databaseConnectionService.deactivateConnectionsForChat(chatId);
         chatRepository.delete(chat);
+        chatAccessService.evict(chatId);
+        similarQueryIndex.removeChat(chatId);
         log.info("Deleted chat: chatId={}", chatId);
     }
 
@@ -233,6 +295,7 @@ public class ChatService {
                 .content(message.getContent())
                 .fromUser(message.isFromUser())
                 .createdAt(message.getCreatedAt())
+                .sqlQueryId(message.getSqlQuery() != null ? message.getSqlQuery().getId() : null)
                 .build();
     }
 }
@@ -0,0 +1,37 @@
+package com.example.backend.service;
+
+import com.example.backend.model.entity.ContentBlob;
+import com.example.backend.model.entity.SqlQuery;
+import com.example.backend.repository.ContentBlobRepository;
+import lombok.RequiredArgsConstructor;
+import org.hibernate.proxy.HibernateProxy;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Сохраняет планы и метаданные запроса в content_blobs перед записью SqlQuery.
+ * Уже существующее содержимое не перезаписывается (INSERT ... ON CONFLICT DO NOTHING).
+ */
+@Service
+@RequiredArgsConstructor
+public class ContentBlobStore {
+
+    private final ContentBlobRepository contentBlobRepository;
+
+    @Transactional
+    public void externalize(SqlQuery sqlQuery) {
+        sqlQuery.setOriginalPlanBlob(store(sqlQuery.getOriginalPlanBlob()));
+        sqlQuery.setOptimizedPlanBlob(store(sqlQuery.getOptimizedPlanBlob()));
+        sqlQuery.setTablesMetadataBlob(store(sqlQuery.getTablesMetadataBlob()));
+    }
+
+    private ContentBlob store(ContentBlob blob) {
+        // Загруженные из БД (в т.ч. ленивые прокси) уже сохранены
+        if (blob == null || blob instanceof HibernateProxy || blob.getCreatedAt() != null) {
+            return blob;
+        }
+        contentBlobRepository.insertIfAbsent(blob.getHash(), blob.getKind(), blob.getEncoding(),
+                blob.getData(), blob.getRawSize());
+        return contentBlobRepository.getReferenceById(blob.getHash());
+    }
+}
@@ -1,7 +1,9 @@
 package com.example.backend.service;
 
 import com.example.backend.exception.DatabaseConnectionException;
+import com.example.backend.config.CacheConfig;
 import com.example.backend.exception.ResourceNotFoundException;
+import com.example.backend.model.ConnectionDescriptor;
 import com.example.backend.model.dto.DatabaseConnectionDto;
 import com.example.backend.model.entity.Chat;
 import com.example.backend.model.entity.DatabaseConnection;
@@ -12,6 +14,8 @@ import com.example.backend.repository.UserRepository;
 import com.example.sqlopt.service.ASTService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -32,6 +36,8 @@ public class DatabaseConnectionService {
     private final UserRepository userRepository;
     private final ChatRepository chatRepository;
     private final ASTService astService;
+    private final CacheManager cacheManager;
+    private final ChatAccessService chatAccessService;
 
     // Cache for active connections
     private final Map<Long, Connection> activeConnections = new HashMap<>();
@@ -44,11 +50,10 @@ public class DatabaseConnectionService {
     }
 
     public DatabaseConnectionDto createConnection(Long userId, DatabaseConnectionDto connectionDto) {
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new ResourceNotFoundException("User not found"));
-
-        Chat chat = chatRepository.findById(connectionDto.getChatId())
-                .orElseThrow(() -> new ResourceNotFoundException("Chat not found"));
+        // Пользователь аутентифицирован, чат проверяется по кэшу владельцев
+        chatAccessService.checkOwner(connectionDto.getChatId(), userId);
+        User user = userRepository.getReferenceById(userId);
+        Chat chat = chatRepository.getReferenceById(connectionDto.getChatId());
 
         // Test connection before saving
         testConnection(connectionDto);
@@ -87,8 +92,13 @@ public class DatabaseConnectionService {
         if (activeConnections.containsKey(connectionId)) {
             try {
                 Connection connection = activeConnections.get(connectionId);
-                if (connection != null && !connection.isClosed() && connection.isValid(1)) {
-                    return connection;
+                // Проверка ждёт транзакцию RollbackSandbox на этом соединении, а не вклинивается в неё
+                if (connection != null) {
+                    synchronized (connection) {
+                        if (!connection.isClosed() && connection.isValid(1)) {
+                            return connection;
+                        }
+                    }
                 }
             } catch (SQLException e) {
                 // Connection is invalid, remove from cache
@@ -96,31 +106,29 @@ public class DatabaseConnectionService {
             }
         }
 
-        // Get connection details from database
-        DatabaseConnection dbConnection = databaseConnectionRepository.findById(connectionId)
-                .orElseThrow(() -> new ResourceNotFoundException("Database connection not found"));
+        // Параметры подключения берём из кэша, БД приложения читается только при промахе
+        ConnectionDescriptor descriptor = getConnectionDescriptor(connectionId);
 
-        if (!dbConnection.isActive()) {
+        if (!descriptor.isActive()) {
             throw new DatabaseConnectionException("Connection is not active");
         }
 
         // Create new connection
-        String url = buildJdbcUrl(dbConnection);
+        String url = buildJdbcUrl(descriptor);
 
         try {
             Connection connection = DriverManager.getConnection(
-                    url, dbConnection.getUsername(), dbConnection.getPassword());
+                    url, descriptor.getUsername(), descriptor.getPassword());
 
             // Update last connected timestamp
-            dbConnection.setLastConnectedAt(LocalDateTime.now());
-            databaseConnectionRepository.save(dbConnection);
+            databaseConnectionRepository.updateLastConnectedAt(connectionId, LocalDateTime.now());
+
+            // Собираем метаинформацию о таблицах до того, как соединение станет общим
+            collectTableMetadata(connection);
 
             // Cache the connection
             activeConnections.put(connectionId, connection);
 
-            // Собираем метаинформацию о таблицах
-            collectTableMetadata(connection);
-
             return connection;
         } catch (SQLException e) {
             log.error("Failed to connect to database: {}", e.getMessage());
@@ -128,6 +136,28 @@ public class DatabaseConnectionService {
         }
     }
 
+    private ConnectionDescriptor getConnectionDescriptor(Long connectionId) {
+        Cache cache = cacheManager.getCache(CacheConfig.CONNECTION_DESCRIPTORS);
+        ConnectionDescriptor descriptor = cache.get(connectionId, ConnectionDescriptor.class);
+        if (descriptor == null) {
+            DatabaseConnection dbConnection = databaseConnectionRepository.findById(connectionId)
+                    .orElseThrow(() -> new ResourceNotFoundException("Database connection not found"));
+            descriptor = ConnectionDescriptor.builder()
+                    .id(dbConnection.getId())
+                    .chatId(dbConnection.getChat().getId())
+                    .dbType(dbConnection.getDbType())
+                    .host(dbConnection.getHost())
+                    .port(dbConnection.getPort())
+                    .databaseName(dbConnection.getDatabaseName())
+                    .username(dbConnection.getUsername())
+                    .password(dbConnection.getPassword())
+                    .active(dbConnection.isActive())
+                    .build();
+            cache.put(connectionId, descriptor);
+        }
+        return descriptor;
+    }
+
     public void closeConnection(Long connectionId) {
         Connection connection = activeConnections.remove(connectionId);
         if (connection != null) {
@@ -146,6 +176,7 @@ public class DatabaseConnectionService {
         for (DatabaseConnection connection : connections) {
             connection.setActive(false);
             closeConnection(connection.getId());
+            cacheManager.getCache(CacheConfig.CONNECTION_DESCRIPTORS).evict(connection.getId());
         }
 
         databaseConnectionRepository.saveAll(connections);
@@ -161,7 +192,7 @@ public class DatabaseConnectionService {
         throw new DatabaseConnectionException("Unsupported database type: " + connection.getDbType());
     }
 
-    private String buildJdbcUrl(DatabaseConnection connection) {
+    private String buildJdbcUrl(ConnectionDescriptor connection) {
         if ("postgresql".equalsIgnoreCase(connection.getDbType()) ||
                 "greenplum".equalsIgnoreCase(connection.getDbType())) {
             return String.format("jdbc:postgresql://%s:%d/%s",
@@ -0,0 +1,369 @@
+package com.example.backend.service;
+
+import com.example.backend.exception.ApiException;
+import com.example.backend.exception.ResourceNotFoundException;
+import com.example.backend.model.dto.DistributionKeyProposalDto;
+import com.example.backend.model.entity.DatabaseConnection;
+import com.example.backend.repository.DatabaseConnectionRepository;
+import com.example.backend.repository.SqlQueryRepository;
+import com.example.backend.util.ContentCodec;
+import com.example.backend.util.JoinGraphCollector;
+import com.example.backend.util.JoinGraphCollector.JoinEdge;
+import com.example.backend.util.QueryPlanAnalyzer;
+import com.example.backend.util.QueryPlanAnalyzer.MotionInfo;
+import com.example.backend.util.RollbackSandbox;
+import com.example.sqlopt.ast.OperationType;
+import com.example.sqlopt.ast.QueryPlanResult;
+import com.fasterxml.jackson.core.type.TypeReference;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import net.sf.jsqlparser.expression.Alias;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.schema.Table;
+import net.sf.jsqlparser.util.TablesNamesFinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class DistributionKeyAdvisorService {
+
+    private static final Pattern IDENTIFIER_PATTERN = Pattern.compile("[a-zA-Z_][a-zA-Z0-9_$]*");
+    private static final TypeReference<QueryPlanResult> PLAN_TYPE = new TypeReference<>() { };
+
+    private final SqlQueryRepository sqlQueryRepository;
+    private final DatabaseConnectionRepository databaseConnectionRepository;
+    private final DatabaseConnectionService databaseConnectionService;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${mpp.advisor.sample-rows:10000}")
+    private int sampleRows;
+
+    @Value("${mpp.advisor.max-proposals:10}")
+    private int maxProposals;
+
+    // Сколько последних запросов подключения анализируется
+    @Value("${mpp.advisor.history-limit:500}")
+    private int historyLimit;
+
+    @Value("${analysis.sandbox.statement-timeout-ms:30000}")
+    private long sandboxStatementTimeoutMs;
+
+    @Value("${analysis.sandbox.lock-timeout-ms:2000}")
+    private long sandboxLockTimeoutMs;
+
+    private TransactionTemplate readOnlyTransaction;
+
+    @PostConstruct
+    void init() {
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+    }
+
+    // Исходный запрос и текст его плана, план разжимается один раз
+    private static class PlanSample {
+        private final Long id;
+        private final String originalQuery;
+        private final String planText;
+
+        PlanSample(Long id, String originalQuery, String planText) {
+            this.id = id;
+            this.originalQuery = originalQuery;
+            this.planText = planText;
+        }
+    }
+
+    // Кандидат на смену ключа распределения, накапливаемый по всем запросам подключения
+    private static class Candidate {
+        private final String table;
+        private final String column;
+        private final Set<Long> queryIds = new HashSet<>();
+        private final Set<String> partners = new TreeSet<>();
+        private long bytes;
+        private int motions;
+        private String representativeQuery;
+        private long representativeBytes;
+
+        Candidate(String table, String column) {
+            this.table = table;
+            this.column = column;
+        }
+
+        void add(PlanSample query, MotionInfo motion, String partner) {
+            long motionBytes = motion.getEstimatedBytes();
+            bytes += motionBytes;
+            motions++;
+            queryIds.add(query.id);
+            partners.add(partner);
+            if (representativeQuery == null || motionBytes > representativeBytes) {
+                representativeQuery = query.originalQuery;
+                representativeBytes = motionBytes;
+            }
+        }
+    }
+
+    public List<DistributionKeyProposalDto> adviseDistributionKeys(Long userId, Long connectionId, boolean validate) {
+        log.info("Building distribution key advice: userId={}, connectionId={}, validate={}", userId, connectionId, validate);
+
+        DatabaseConnection dbConnection = databaseConnectionRepository.findById(connectionId)
+                .filter(connection -> connection.getUser().getId().equals(userId))
+                .orElseThrow(() -> new ResourceNotFoundException("Database connection not found"));
+
+        if (!"greenplum".equalsIgnoreCase(dbConnection.getDbType())) {
+            throw new ApiException("Distribution key advice is only available for Greenplum connections",
+                    HttpStatus.BAD_REQUEST);
+        }
+
+        Map<String, Candidate> candidates = new LinkedHashMap<>();
+        for (PlanSample query : loadPlanSamples(connectionId)) {
+            List<MotionInfo> motions = QueryPlanAnalyzer.extractMotions(query.planText);
+            if (motions.isEmpty()) {
+                continue;
+            }
+            List<JoinEdge> edges = JoinGraphCollector.collectJoinEdges(query.originalQuery);
+            Map<String, String> aliases = JoinGraphCollector.collectAliases(query.originalQuery);
+
+            for (MotionInfo motion : motions) {
+                attributeMotion(query, motion, edges, aliases, candidates);
+            }
+        }
+        log.debug("Collected {} distribution key candidates for connectionId={}", candidates.size(), connectionId);
+
+        Connection connection = openTargetConnection(connectionId);
+        Map<String, String> currentPolicies = new HashMap<>();
+        List<DistributionKeyProposalDto> proposals = new ArrayList<>();
+        List<Candidate> ranked = candidates.values().stream()
+                .sorted(Comparator.comparingLong((Candidate c) -> c.bytes).reversed())
+                .collect(Collectors.toList());
+
+        for (Candidate candidate : ranked) {
+            if (proposals.size() >= maxProposals) {
+                break;
+            }
+            String currentPolicy = connection != null
+                    ? currentPolicies.computeIfAbsent(candidate.table, table -> loadDistributionPolicy(connection, table))
+                    : null;
+            // Таблица уже распределена по предлагаемой колонке - перемещения вызваны партнером
+            if (currentPolicy != null && currentPolicy.equalsIgnoreCase("DISTRIBUTED BY (" + candidate.column + ")")) {
+                continue;
+            }
+
+            DistributionKeyProposalDto proposal = DistributionKeyProposalDto.builder()
+                    .tableName(candidate.table)
+                    .currentDistribution(currentPolicy)
+                    .proposedKey(List.of(candidate.column))
+                    .estimatedBytesEliminated(candidate.bytes)
+                    .motionsEliminated(candidate.motions)
+                    .affectedQueries(candidate.queryIds.size())
+                    .joinPartners(new ArrayList<>(candidate.partners))
+                    .build();
+
+            if (validate && connection != null) {
+                validateProposal(connection, proposal, candidate.representativeQuery, currentPolicy);
+            }
+            proposals.add(proposal);
+        }
+
+        log.info("Distribution key advice ready: connectionId={}, proposals={}", connectionId, proposals.size());
+        return proposals;
+    }
+
+    private List<PlanSample> loadPlanSamples(Long connectionId) {
+        return readOnlyTransaction.execute(status -> {
+            List<PlanSample> samples = new ArrayList<>();
+            for (SqlQueryRepository.PlanHistoryView view
+                    : sqlQueryRepository.findLatestPlans(connectionId, PageRequest.ofSize(historyLimit))) {
+                QueryPlanResult plan = ContentCodec.decode(view.getPlanBlob(), PLAN_TYPE);
+                if (plan != null && plan.getPlanText() != null) {
+                    samples.add(new PlanSample(view.getId(), view.getOriginalQuery(), plan.getPlanText()));
+                }
+            }
+            return samples;
+        });
+    }
+
+    private Connection openTargetConnection(Long connectionId) {
+        try {
+            return databaseConnectionService.getConnection(connectionId);
+        } catch (Exception e) {
+            log.warn("Target database is unavailable, advice will not include current policies: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void attributeMotion(PlanSample query, MotionInfo motion, List<JoinEdge> edges,
+                                 Map<String, String> aliases, Map<String, Candidate> candidates) {
+        if (motion.getType() == OperationType.BROADCAST_MOTION) {
+            // Broadcast исчезнет, если транслируемая таблица будет распределена по колонке соединения
+            String table = normalizeRelation(motion.getSourceRelation());
+            if (table == null) {
+                return;
+            }
+            for (JoinEdge edge : edges) {
+                if (edge.getLeftTable().equals(table)) {
+                    candidate(candidates, table, edge.getLeftColumn())
+                            .add(query, motion, edge.getRightTable() + "." + edge.getRightColumn());
+                } else if (edge.getRightTable().equals(table)) {
+                    candidate(candidates, table, edge.getRightColumn())
+                            .add(query, motion, edge.getLeftTable() + "." + edge.getLeftColumn());
+                }
+            }
+            return;
+        }
+
+        // Redistribute: перераспределяемая сторона уже хешируется по ключу соединения,
+        // значит этот ключ и должен стать ключом распределения таблицы
+        for (String hashKey : motion.getHashKeys()) {
+            String column = hashKey.toLowerCase();
+            String table = null;
+            int dot = column.lastIndexOf('.');
+            if (dot > 0) {
+                table = aliases.getOrDefault(column.substring(0, dot), column.substring(0, dot));
+                column = column.substring(dot + 1);
+            }
+            for (JoinEdge edge : edges) {
+                if (table != null && !edge.touches(table, column)) {
+                    continue;
+                }
+                if (edge.getLeftColumn().equals(column) && (table == null || edge.getLeftTable().equals(table))) {
+                    candidate(candidates, edge.getLeftTable(), column)
+                            .add(query, motion, edge.getRightTable() + "." + edge.getRightColumn());
+                } else if (edge.getRightColumn().equals(column) && (table == null || edge.getRightTable().equals(table))) {
+                    candidate(candidates, edge.getRightTable(), column)
+                            .add(query, motion, edge.getLeftTable() + "." + edge.getLeftColumn());
+                }
+            }
+        }
+    }
+
+    private Candidate candidate(Map<String, Candidate> candidates, String table, String column) {
+        return candidates.computeIfAbsent(table + "(" + column + ")", key -> new Candidate(table, column));
+    }
+
+    private String normalizeRelation(String relation) {
+        if (relation == null) {
+            return null;
+        }
+        String table = relation.toLowerCase();
+        return table.contains(".") ? table.substring(table.lastIndexOf('.') + 1) : table;
+    }
+
+    private String loadDistributionPolicy(Connection connection, String table) {
+        try {
+            return RollbackSandbox.execute(connection, sandboxStatementTimeoutMs, sandboxLockTimeoutMs, sandbox -> {
+                try (PreparedStatement stmt = sandbox.prepareStatement(
+                        "SELECT pg_get_table_distributedby(c.oid) FROM pg_class c WHERE c.relname = ?")) {
+                    stmt.setString(1, table);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        return rs.next() ? rs.getString(1) : null;
+                    }
+                }
+            });
+        } catch (SQLException e) {
+            log.warn("Failed to load distribution policy for table {}: {}", table, e.getMessage());
+            return null;
+        }
+    }
+
+    private void validateProposal(Connection connection, DistributionKeyProposalDto proposal,
+                                  String query, String currentPolicy) {
+        String table = proposal.getTableName();
+        String column = proposal.getProposedKey().get(0);
+        if (!IDENTIFIER_PATTERN.matcher(table).matches() || !IDENTIFIER_PATTERN.matcher(column).matches()) {
+            proposal.setValidated(false);
+            proposal.setValidationMessage("Unsupported identifier, validation skipped");
+            return;
+        }
+
+        String baselineTable = "dk_base_" + table;
+        String candidateTable = "dk_cand_" + table;
+        String basePolicy = currentPolicy != null && !currentPolicy.isBlank() ? currentPolicy : "DISTRIBUTED RANDOMLY";
+
+        try {
+            String baselineQuery = replaceTable(query, table, baselineTable);
+            String candidateQuery = replaceTable(query, table, candidateTable);
+            // Все временные копии живут только в транзакции песочницы и исчезают при откате
+            long[] motionBytes = RollbackSandbox.execute(connection, sandboxStatementTimeoutMs, sandboxLockTimeoutMs, sandbox -> {
+                try (Statement stmt = sandbox.createStatement()) {
+                    stmt.execute(String.format("CREATE TEMP TABLE %s AS SELECT * FROM \"%s\" LIMIT %d %s",
+                            baselineTable, table, sampleRows, basePolicy));
+                    stmt.execute(String.format("CREATE TEMP TABLE %s AS SELECT * FROM \"%s\" LIMIT %d DISTRIBUTED BY (\"%s\")",
+                            candidateTable, table, sampleRows, column));
+                    stmt.execute("ANALYZE " + baselineTable);
+                    stmt.execute("ANALYZE " + candidateTable);
+                }
+                return new long[]{
+                        explainMotionBytes(sandbox, baselineQuery),
+                        explainMotionBytes(sandbox, candidateQuery)
+                };
+            });
+            long before = motionBytes[0];
+            long after = motionBytes[1];
+
+            proposal.setSampleMotionBytesBefore(before);
+            proposal.setSampleMotionBytesAfter(after);
+            proposal.setValidated(after < before);
+            proposal.setValidationMessage(String.format("Sample of %d rows: motion bytes %d -> %d", sampleRows, before, after));
+        } catch (Exception e) {
+            log.warn("Failed to validate distribution key proposal for {}: {}", table, e.getMessage());
+            proposal.setValidated(false);
+            proposal.setValidationMessage("Validation failed: " + e.getMessage());
+        }
+    }
+
+    private long explainMotionBytes(Connection connection, String query) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("EXPLAIN " + query)) {
+            StringBuilder plan = new StringBuilder();
+            while (rs.next()) {
+                plan.append(rs.getString(1)).append("\n");
+            }
+            return QueryPlanAnalyzer.extractMotions(plan.toString()).stream()
+                    .mapToLong(MotionInfo::getEstimatedBytes)
+                    .sum();
+        }
+    }
+
+    private String replaceTable(String query, String table, String replacement) throws Exception {
+        net.sf.jsqlparser.statement.Statement statement = CCJSqlParserUtil.parse(query);
+        TablesNamesFinder replacer = new TablesNamesFinder() {
+            @Override
+            public void visit(Table tableName) {
+                super.visit(tableName);
+                if (table.equalsIgnoreCase(tableName.getName())) {
+                    // Сохраняем исходное имя как алиас, чтобы квалифицированные колонки остались валидными
+                    if (tableName.getAlias() == null) {
+                        tableName.setAlias(new Alias(tableName.getName(), false));
+                    }
+                    tableName.setSchemaName(null);
+                    tableName.setName(replacement);
+                }
+            }
+        };
+        replacer.getTableList(statement);
+        return statement.toString();
+    }
+}
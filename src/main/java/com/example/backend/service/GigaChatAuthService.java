@@ -1,34 +1,55 @@
 package com.example.backend.service;
 
+import com.example.backend.config.LLMConfig;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.channel.ChannelOption;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
 import reactor.core.publisher.Mono;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 import reactor.util.retry.Retry;
 
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Base64;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 @Slf4j
 @Service
+@RequiredArgsConstructor
 public class GigaChatAuthService {
 
     private static final int MAX_RETRY_ATTEMPTS = 3;
     private static final int RETRY_DELAY_MS = 1000;
+    // Фоновое обновление за 5 минут до истечения, на горячем пути токен считается годным до последних 30 секунд
+    private static final long PROACTIVE_REFRESH_SECONDS = 300;
+    private static final long HARD_EXPIRY_MARGIN_SECONDS = 30;
+    // Фоновые повторы после ошибок: 30 с, 60 с, ... до 30 минут; после серии неудач ждём запроса, которому нужен токен
+    private static final long REFRESH_FAILURE_BACKOFF_SECONDS = 30;
+    private static final long REFRESH_FAILURE_MAX_BACKOFF_SECONDS = 1800;
+    private static final int MAX_BACKGROUND_REFRESH_FAILURES = 8;
+
+    private final LLMConfig llmConfig;
 
     @Value("${gigachat.client-id}")
     private String clientId;
@@ -42,30 +63,58 @@ public class GigaChatAuthService {
     @Value("${gigachat.scope}")
     private String scope;
 
-    @Value("${llm.api-url}")
-    private String apiUrl;
-
     @Value("${gigachat.ssl.trust-all:false}")
     private boolean trustAllCertificates;
 
+    @Value("${gigachat.pool.max-connections:50}")
+    private int maxConnections;
+
+    @Value("${gigachat.pool.pending-acquire-max-count:200}")
+    private int pendingAcquireMaxCount;
+
+    @Value("${gigachat.pool.pending-acquire-timeout-ms:10000}")
+    private long pendingAcquireTimeoutMs;
+
+    @Value("${gigachat.pool.max-idle-time-ms:30000}")
+    private long maxIdleTimeMs;
+
     private final AtomicReference<String> tokenRef = new AtomicReference<>();
     private final AtomicReference<Instant> tokenExpiryRef = new AtomicReference<>();
+    private final AtomicReference<Mono<String>> refreshInFlight = new AtomicReference<>();
+    private final AtomicReference<Disposable> scheduledRefresh = new AtomicReference<>();
+    private final AtomicInteger refreshFailures = new AtomicInteger();
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     private WebClient authWebClient;
-    private WebClient.Builder apiWebClientBuilder;
+    private WebClient apiWebClient;
 
     @PostConstruct
     public void init() throws Exception {
         validateConfiguration();
         configureWebClients();
+        // Получаем токен заранее, чтобы первый запрос не ждал авторизации
+        refreshTokenShared().subscribe(
+                token -> log.debug("Initial GigaChat token acquired"),
+                e -> log.warn("Initial GigaChat token refresh failed: {}", e.getMessage()));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        cancelScheduledRefresh();
+    }
+
+    private void cancelScheduledRefresh() {
+        Disposable pending = scheduledRefresh.getAndSet(null);
+        if (pending != null) {
+            pending.dispose();
+        }
     }
 
     private void validateConfiguration() {
         if (authUrl == null || authUrl.isBlank()) {
             throw new IllegalStateException("GigaChat authUrl is not configured");
         }
-        if (apiUrl == null || apiUrl.isBlank()) {
+        if (llmConfig.getApiUrl() == null || llmConfig.getApiUrl().isBlank()) {
             throw new IllegalStateException("GigaChat apiUrl is not configured");
         }
         if (clientId == null || clientId.isBlank()) {
@@ -81,25 +130,39 @@ public class GigaChatAuthService {
 
     private void configureWebClients() throws Exception {
         log.info("Initializing GigaChat auth client with URL: {}", authUrl);
-        log.info("Initializing GigaChat API client with URL: {}", apiUrl);
-
-        HttpClient httpClient = createHttpClient();
+        log.info("Initializing GigaChat API client with URL: {}", llmConfig.getApiUrl());
 
         this.authWebClient = WebClient.builder()
                 .baseUrl(authUrl)
-                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .clientConnector(new ReactorClientHttpConnector(createHttpClient(HttpClient.create())))
                 .defaultHeader("Content-Type", "application/x-www-form-urlencoded")
                 .defaultHeader("Accept", "application/json")
                 .defaultHeader("RqUID", UUID.randomUUID().toString())
                 .build();
 
-        this.apiWebClientBuilder = WebClient.builder()
-                .baseUrl(apiUrl)
-                .clientConnector(new ReactorClientHttpConnector(httpClient));
+        ConnectionProvider connectionProvider = ConnectionProvider.builder("gigachat-api")
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .pendingAcquireTimeout(Duration.ofMillis(pendingAcquireTimeoutMs))
+                .maxIdleTime(Duration.ofMillis(maxIdleTimeMs))
+                .evictInBackground(Duration.ofMillis(maxIdleTimeMs))
+                .metrics(true)
+                .build();
+
+        HttpClient apiHttpClient = createHttpClient(HttpClient.create(connectionProvider))
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, llmConfig.getConnectTimeout())
+                .responseTimeout(Duration.ofMillis(llmConfig.getReadTimeout()));
+
+        this.apiWebClient = WebClient.builder()
+                .baseUrl(llmConfig.getApiUrl())
+                .clientConnector(new ReactorClientHttpConnector(apiHttpClient))
+                .defaultHeader("Accept", "application/json")
+                .filter(bearerTokenFilter())
+                .build();
     }
 
-    private HttpClient createHttpClient() throws Exception {
-        HttpClient httpClient = HttpClient.create().keepAlive(true);
+    private HttpClient createHttpClient(HttpClient baseClient) throws Exception {
+        HttpClient httpClient = baseClient.keepAlive(true);
 
         if (trustAllCertificates) {
             log.warn("Using insecure SSL configuration - trustAllCertificates is enabled");
@@ -114,20 +177,102 @@ public class GigaChatAuthService {
 
     public Mono<String> getToken() {
         String currentToken = tokenRef.get();
-        if (currentToken == null || isTokenExpired()) {
-            return refreshToken()
-                    .doOnNext(token -> tokenRef.set(token))
-                    .retryWhen(Retry.backoff(MAX_RETRY_ATTEMPTS, java.time.Duration.ofMillis(RETRY_DELAY_MS))
+        if (currentToken == null || isTokenExpired(HARD_EXPIRY_MARGIN_SECONDS)) {
+            return refreshTokenShared();
+        }
+        return Mono.just(currentToken);
+    }
+
+    private boolean isTokenExpired(long marginSeconds) {
+        Instant expiry = tokenExpiryRef.get();
+        return expiry == null || Instant.now().isAfter(expiry.minusSeconds(marginSeconds));
+    }
+
+    /**
+     * Одновременные запросы на обновление получают один и тот же Mono,
+     * поэтому к серверу авторизации уходит только один запрос.
+     */
+    private Mono<String> refreshTokenShared() {
+        while (true) {
+            Mono<String> inFlight = refreshInFlight.get();
+            if (inFlight != null) {
+                return inFlight;
+            }
+            Mono<String> refresh = Mono.defer(this::refreshToken)
+                    .retryWhen(Retry.backoff(MAX_RETRY_ATTEMPTS, Duration.ofMillis(RETRY_DELAY_MS))
                             .doBeforeRetry(signal -> log.warn("Retrying token refresh, attempt: {}", signal.totalRetries() + 1))
                             .onRetryExhaustedThrow((retryBackoffSpec, retrySignal) ->
-                                new RuntimeException("Failed to refresh token after " + MAX_RETRY_ATTEMPTS + " attempts")));
+                                new RuntimeException("Failed to refresh token after " + MAX_RETRY_ATTEMPTS + " attempts")))
+                    .doOnNext(token -> {
+                        tokenRef.set(token);
+                        refreshFailures.set(0);
+                        scheduleProactiveRefresh();
+                    })
+                    .doOnError(e -> scheduleRetryAfterFailure())
+                    .doFinally(signal -> refreshInFlight.set(null))
+                    .cache();
+            if (refreshInFlight.compareAndSet(null, refresh)) {
+                return refresh;
+            }
         }
-        return Mono.just(currentToken);
     }
 
-    private boolean isTokenExpired() {
+    // Планирует фоновое обновление за PROACTIVE_REFRESH_SECONDS до истечения токена
+    private void scheduleProactiveRefresh() {
+        Duration delay = Duration.ofSeconds(REFRESH_FAILURE_BACKOFF_SECONDS);
         Instant expiry = tokenExpiryRef.get();
-        return expiry == null || Instant.now().isAfter(expiry.minusSeconds(300)); // Обновление за 5 минут до истечения
+        if (expiry != null) {
+            Duration untilRefresh = Duration.between(Instant.now(), expiry.minusSeconds(PROACTIVE_REFRESH_SECONDS));
+            delay = untilRefresh.isNegative() ? Duration.ZERO : untilRefresh;
+        }
+        scheduleRefresh(delay);
+    }
+
+    // При неверных учётных данных не стучимся в сервер авторизации бесконечно: пауза растёт,
+    // а после серии неудач фоновые попытки прекращаются до следующего вызова getToken
+    private void scheduleRetryAfterFailure() {
+        int failures = refreshFailures.incrementAndGet();
+        if (failures >= MAX_BACKGROUND_REFRESH_FAILURES) {
+            log.warn("GigaChat token refresh failed {} times in a row, background refresh paused", failures);
+            cancelScheduledRefresh();
+            return;
+        }
+        long backoffSeconds = Math.min(REFRESH_FAILURE_BACKOFF_SECONDS << (failures - 1), REFRESH_FAILURE_MAX_BACKOFF_SECONDS);
+        scheduleRefresh(Duration.ofSeconds(backoffSeconds));
+    }
+
+    private void scheduleRefresh(Duration delay) {
+        Disposable next = Mono.delay(delay)
+                .flatMap(tick -> refreshTokenShared())
+                .subscribe(
+                        token -> log.debug("GigaChat token refreshed in background"),
+                        e -> log.warn("Background GigaChat token refresh failed: {}", e.getMessage()));
+        Disposable previous = scheduledRefresh.getAndSet(next);
+        if (previous != null && previous != next) {
+            previous.dispose();
+        }
+    }
+
+    // Подставляет текущий токен; при 401 один раз обновляет токен и повторяет запрос
+    private ExchangeFilterFunction bearerTokenFilter() {
+        return (request, next) -> getToken()
+                .flatMap(token -> next.exchange(withToken(request, token)))
+                .flatMap(response -> {
+                    if (response.statusCode().value() != HttpStatus.UNAUTHORIZED.value()) {
+                        return Mono.just(response);
+                    }
+                    log.warn("GigaChat API returned 401, refreshing token");
+                    tokenExpiryRef.set(null);
+                    return response.releaseBody()
+                            .then(refreshTokenShared())
+                            .flatMap(token -> next.exchange(withToken(request, token)));
+                });
+    }
+
+    private ClientRequest withToken(ClientRequest request, String token) {
+        return ClientRequest.from(request)
+                .headers(headers -> headers.setBearerAuth(token))
+                .build();
     }
 
     private Mono<String> refreshToken() {
@@ -189,11 +334,6 @@ public class GigaChatAuthService {
     }
 
     public Mono<WebClient> getWebClient() {
-        return getToken().map(token -> apiWebClientBuilder
-                .build()
-                .mutate()
-                .defaultHeader("Authorization", "Bearer " + token)
-                .defaultHeader("Accept", "application/json")
-                .build());
+        return Mono.just(apiWebClient);
     }
 }
@@ -0,0 +1,311 @@
+package com.example.backend.service;
+
+import com.example.backend.exception.ApiException;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Выгрузка истории оптимизаций всех чатов пользователя в NDJSON или CSV.
+ * Строки читаются курсором PostgreSQL (fetch size в read-only транзакции) и сразу
+ * пишутся в поток ответа, поэтому память не растёт с числом строк.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class HistoryExportService {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    // Сбрасываем буфер каждые N строк, чтобы клиент получал данные по ходу выгрузки
+    private static final int FLUSH_EVERY_ROWS = 1000;
+
+    // Имя колонки выгрузки -> выражение SQL
+    private static final Map<String, String> COLUMNS = new LinkedHashMap<>();
+
+    static {
+        COLUMNS.put("id", "sq.id");
+        COLUMNS.put("chat_id", "sq.chat_id");
+        COLUMNS.put("chat_title", "c.title");
+        COLUMNS.put("created_at", "sq.created_at");
+        COLUMNS.put("original_query", "sq.original_query");
+        COLUMNS.put("optimized_query", "sq.optimized_query");
+        COLUMNS.put("execution_time_ms", "sq.execution_time_ms");
+        COLUMNS.put("optimization_rationale", "sq.optimization_rationale");
+        COLUMNS.put("performance_impact", "sq.performance_impact");
+        COLUMNS.put("potential_risks", "sq.potential_risks");
+    }
+
+    private static final List<String> DEFAULT_COLUMNS = List.of("id", "chat_id", "chat_title", "created_at",
+            "original_query", "optimized_query", "execution_time_ms");
+
+    public enum Format {
+        NDJSON("application/x-ndjson", "ndjson"),
+        CSV("text/csv", "csv");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        public static Format fromName(String name) {
+            try {
+                return Format.valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException | NullPointerException e) {
+                throw new ApiException("Unknown export format: " + name, HttpStatus.BAD_REQUEST);
+            }
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${export.fetch-size:500}")
+    private int fetchSize;
+
+    // Выгрузка держит соединение пула всё время, пока клиент читает ответ
+    @Value("${export.max-concurrent:2}")
+    private int maxConcurrent;
+
+    private TransactionTemplate readOnlyTransaction;
+    private Semaphore slots;
+
+    @PostConstruct
+    void init() {
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+        slots = new Semaphore(maxConcurrent);
+    }
+
+    /**
+     * Место для выгрузки; освобождается при close. Без ожидания: медленные клиенты
+     * не должны занимать остальные соединения пула.
+     */
+    public ExportSlot acquireSlot() {
+        if (!slots.tryAcquire()) {
+            throw new ApiException("Too many concurrent exports, try again later", HttpStatus.TOO_MANY_REQUESTS);
+        }
+        return new ExportSlot();
+    }
+
+    public class ExportSlot implements AutoCloseable {
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                slots.release();
+            }
+        }
+    }
+
+    public List<String> resolveColumns(String columns) {
+        if (columns == null || columns.isBlank()) {
+            return DEFAULT_COLUMNS;
+        }
+        List<String> resolved = new ArrayList<>();
+        for (String column : columns.split(",")) {
+            String name = column.trim().toLowerCase(Locale.ROOT);
+            if (!COLUMNS.containsKey(name)) {
+                throw new ApiException("Unknown export column: " + column.trim(), HttpStatus.BAD_REQUEST);
+            }
+            if (!resolved.contains(name)) {
+                resolved.add(name);
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Пишет выгрузку в out и возвращает число строк. Колонки должны быть получены из resolveColumns,
+     * в SQL попадают только выражения из белого списка.
+     */
+    public long export(Long userId, Format format, List<String> columns, boolean gzip, OutputStream out) throws IOException {
+        OutputStream target = gzip ? new GZIPOutputStream(out, 8192, true) : out;
+        RowWriter writer = format == Format.CSV ? new CsvRowWriter(target, columns) : new NdjsonRowWriter(target, columns);
+
+        String sql = "SELECT " + String.join(", ", columns.stream().map(COLUMNS::get).toList())
+                + " FROM sql_queries sq JOIN chats c ON c.id = sq.chat_id"
+                // Порядок совпадает с idx_sql_queries_chat_created при обратном проходе - без сортировки всей истории
+                + " WHERE c.user_id = ? ORDER BY sq.chat_id DESC, sq.created_at, sq.id";
+
+        long start = System.nanoTime();
+        long[] rows = {0};
+        try {
+            writer.begin();
+            // Курсор в PostgreSQL работает только внутри транзакции (autocommit=false)
+            readOnlyTransaction.executeWithoutResult(status -> jdbcTemplate.query(connection -> {
+                PreparedStatement statement = connection.prepareStatement(sql,
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                statement.setFetchSize(fetchSize);
+                statement.setLong(1, userId);
+                return statement;
+            }, (RowCallbackHandler) resultSet -> {
+                try {
+                    writer.write(resultSet);
+                    if (++rows[0] % FLUSH_EVERY_ROWS == 1) {
+                        writer.flush();
+                    }
+                } catch (IOException e) {
+                    // Клиент закрыл соединение - прерываем чтение курсора
+                    throw new UncheckedIOException(e);
+                }
+            }));
+            writer.finish();
+            if (gzip) {
+                ((GZIPOutputStream) target).finish();
+            }
+            target.flush();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        log.info("Exported {} history rows for userId={} as {} in {} ms", rows[0], userId, format,
+                (System.nanoTime() - start) / 1_000_000);
+        return rows[0];
+    }
+
+    private interface RowWriter {
+        void begin() throws IOException;
+
+        void write(ResultSet resultSet) throws SQLException, IOException;
+
+        void flush() throws IOException;
+
+        void finish() throws IOException;
+    }
+
+    private static class NdjsonRowWriter implements RowWriter {
+        private final JsonGenerator generator;
+        private final List<String> columns;
+
+        NdjsonRowWriter(OutputStream out, List<String> columns) throws IOException {
+            this.generator = JSON_FACTORY.createGenerator(out);
+            this.generator.setRootValueSeparator(null);
+            this.columns = columns;
+        }
+
+        @Override
+        public void begin() {
+        }
+
+        @Override
+        public void write(ResultSet resultSet) throws SQLException, IOException {
+            generator.writeStartObject();
+            for (int i = 0; i < columns.size(); i++) {
+                Object value = resultSet.getObject(i + 1);
+                generator.writeFieldName(columns.get(i));
+                if (value == null) {
+                    generator.writeNull();
+                } else if (value instanceof Number) {
+                    generator.writeNumber(((Number) value).longValue());
+                } else if (value instanceof Timestamp) {
+                    generator.writeString(((Timestamp) value).toLocalDateTime().toString());
+                } else {
+                    generator.writeString(value.toString());
+                }
+            }
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        public void flush() throws IOException {
+            generator.flush();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            generator.flush();
+        }
+    }
+
+    private static class CsvRowWriter implements RowWriter {
+        private final Writer writer;
+        private final List<String> columns;
+
+        CsvRowWriter(OutputStream out, List<String> columns) {
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            this.columns = columns;
+        }
+
+        @Override
+        public void begin() throws IOException {
+            writer.write(String.join(",", columns));
+            writer.write("\r\n");
+            writer.flush();
+        }
+
+        @Override
+        public void write(ResultSet resultSet) throws SQLException, IOException {
+            for (int i = 0; i < columns.size(); i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                Object value = resultSet.getObject(i + 1);
+                if (value instanceof Timestamp) {
+                    writer.write(((Timestamp) value).toLocalDateTime().toString());
+                } else if (value != null) {
+                    writer.write(escape(value.toString()));
+                }
+            }
+            writer.write("\r\n");
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writer.flush();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            writer.flush();
+        }
+
+        // RFC 4180: поля с разделителем, кавычкой или переводом строки берутся в кавычки
+        private static String escape(String value) {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+                return value;
+            }
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+    }
+}
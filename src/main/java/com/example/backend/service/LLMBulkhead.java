@@ -0,0 +1,114 @@
+package com.example.backend.service;
+
+import com.example.backend.exception.ProviderUnavailableException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ограничивает число одновременных вызовов провайдера. Вызовы сверх лимита
+ * ждут в очереди ограниченной длины не дольше maxWait, остальные отклоняются
+ * сразу. Ожидание неблокирующее: разрешение передаётся ожидающему при release().
+ */
+public class LLMBulkhead {
+
+    private static final int WAITING = 0;
+    private static final int GRANTED = 1;
+    private static final int ABANDONED = 2;
+
+    private final String name;
+    private final int maxConcurrent;
+    private final int queueCapacity;
+    private final Duration maxWait;
+    private final Semaphore permits;
+    private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private static class Waiter {
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private final AtomicBoolean consumed = new AtomicBoolean(false);
+        private final Sinks.One<Boolean> sink = Sinks.one();
+    }
+
+    public LLMBulkhead(String name, int maxConcurrent, int queueCapacity, Duration maxWait) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.queueCapacity = queueCapacity;
+        this.maxWait = maxWait;
+        this.permits = new Semaphore(maxConcurrent);
+    }
+
+    public <T> Flux<T> wrap(Flux<T> source) {
+        return acquire().thenMany(Flux.defer(() -> source)
+                .doFinally(signal -> release()));
+    }
+
+    public int getActiveCalls() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    public int getWaitingCalls() {
+        return waiting.get();
+    }
+
+    private Mono<Void> acquire() {
+        return Mono.defer(() -> {
+            if (permits.tryAcquire()) {
+                return Mono.empty();
+            }
+            if (waiting.incrementAndGet() > queueCapacity) {
+                waiting.decrementAndGet();
+                return Mono.error(new ProviderUnavailableException(
+                        "LLM provider " + name + " is at capacity, try again later"));
+            }
+
+            Waiter waiter = new Waiter();
+            waiters.add(waiter);
+            // Разрешение могло освободиться между tryAcquire и постановкой в очередь
+            if (permits.tryAcquire()) {
+                release();
+            }
+
+            return waiter.sink.asMono()
+                    .timeout(maxWait)
+                    .doOnNext(granted -> waiter.consumed.set(true))
+                    .doOnCancel(() -> abandon(waiter))
+                    .onErrorMap(TimeoutException.class, e -> {
+                        abandon(waiter);
+                        return new ProviderUnavailableException(
+                                "Timed out waiting for LLM provider " + name);
+                    })
+                    .then();
+        });
+    }
+
+    private void abandon(Waiter waiter) {
+        if (waiter.state.compareAndSet(WAITING, ABANDONED)) {
+            waiters.remove(waiter);
+            waiting.decrementAndGet();
+        } else if (waiter.state.get() == GRANTED && waiter.consumed.compareAndSet(false, true)) {
+            // Разрешение уже передано, но ожидающий ушёл - возвращаем его следующему
+            release();
+        }
+    }
+
+    private void release() {
+        Waiter waiter;
+        while ((waiter = waiters.poll()) != null) {
+            if (waiter.state.compareAndSet(WAITING, GRANTED)) {
+                waiting.decrementAndGet();
+                waiter.sink.tryEmitValue(Boolean.TRUE);
+                return;
+            }
+        }
+        permits.release();
+    }
+}
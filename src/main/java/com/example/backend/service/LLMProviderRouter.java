@@ -0,0 +1,206 @@
+package com.example.backend.service;
+
+import com.example.backend.config.LLMConfig;
+import com.example.backend.exception.ApiException;
+import com.example.backend.exception.ProviderUnavailableException;
+import com.example.backend.model.LLMProvider;
+import com.example.backend.model.LLMRequest;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Отправляет запрос выбранному провайдеру и, если он не ответил за наблюдаемый
+ * p90 (или упал), дублирует запрос альтернативному. Побеждает первый ответ,
+ * проигравший запрос отменяется. Каждый провайдер закрыт circuit breaker'ом
+ * (llm-local / llm-gigachat) и bulkhead'ом, поэтому при открытом breaker'е
+ * или переполненной очереди вызов сразу уходит альтернативному провайдеру.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class LLMProviderRouter {
+
+    static final String MODE_COMPLETE = "complete";
+    static final String MODE_FIRST_TOKEN = "first_token";
+
+    private final LLMConfig llmConfig;
+    private final MeterRegistry meterRegistry;
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+    private final Map<String, Timer> latencyTimers = new ConcurrentHashMap<>();
+    private final Map<LLMProvider, LLMBulkhead> bulkheads = new ConcurrentHashMap<>();
+
+    public <T> Mono<T> route(LLMRequest request, Function<LLMRequest, Mono<T>> call) {
+        return hedge(request, r -> call.apply(r).flux(), MODE_COMPLETE).next();
+    }
+
+    public <T> Flux<T> routeStream(LLMRequest request, Function<LLMRequest, Flux<T>> call) {
+        return hedge(request, call, MODE_FIRST_TOKEN);
+    }
+
+    public boolean isAvailable(LLMProvider provider) {
+        boolean configured = provider == LLMProvider.LOCAL
+                ? llmConfig.isLocalEnabled()
+                : StringUtils.hasText(llmConfig.getApiUrl()) && StringUtils.hasText(llmConfig.getModel());
+        return configured && circuitBreaker(provider).getState() != CircuitBreaker.State.OPEN;
+    }
+
+    /**
+     * Задержка перед хеджированием: p90 задержки провайдера в пределах
+     * [llm.hedge-min-delay-ms, llm.latency-slo-ms]; пока замеров мало -
+     * llm.hedge-default-delay-ms.
+     */
+    public Duration hedgeDelay(LLMProvider provider, String mode) {
+        Timer timer = latencyTimer(provider, mode);
+        long delayMs = llmConfig.getHedgeDefaultDelayMs();
+        if (timer.count() >= llmConfig.getHedgeMinSamples()) {
+            for (ValueAtPercentile value : timer.takeSnapshot().percentileValues()) {
+                if (value.percentile() == llmConfig.getHedgePercentile()) {
+                    delayMs = (long) value.value(TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+        delayMs = Math.max(delayMs, llmConfig.getHedgeMinDelayMs());
+        delayMs = Math.min(delayMs, llmConfig.getLatencySloMs());
+        return Duration.ofMillis(delayMs);
+    }
+
+    private <T> Flux<T> hedge(LLMRequest request, Function<LLMRequest, Flux<T>> call, String mode) {
+        LLMProvider primary = LLMProvider.fromName(request.getProvider());
+        LLMProvider alternate = primary.alternate();
+        Flux<T> primaryFlux = guarded(call, request, primary, mode);
+
+        if (!llmConfig.isHedgingEnabled() || !isAvailable(alternate)) {
+            return primaryFlux;
+        }
+
+        return Flux.defer(() -> {
+            Duration delay = hedgeDelay(primary, mode);
+            Sinks.Empty<Void> primaryDone = Sinks.empty();
+
+            Flux<T> first = primaryFlux
+                    .doOnError(e -> log.warn("LLM provider {} failed, falling back to {}: {}",
+                            primary.getName(), alternate.getName(), e.getMessage()))
+                    .doOnTerminate(() -> primaryDone.tryEmitEmpty());
+
+            LLMRequest alternateRequest = request.toBuilder().provider(alternate.getName()).build();
+            Flux<T> second = Flux.defer(() -> {
+                        log.info("Hedging LLM request to {} after {} ms", alternate.getName(), delay.toMillis());
+                        hedgeCounter("llm.hedge.requests", alternate).increment();
+                        AtomicBoolean won = new AtomicBoolean(false);
+                        return guarded(call, alternateRequest, alternate, mode)
+                                .doOnNext(value -> {
+                                    if (won.compareAndSet(false, true)) {
+                                        hedgeCounter("llm.hedge.wins", alternate).increment();
+                                    }
+                                });
+                    })
+                    .delaySubscription(Mono.firstWithSignal(Mono.delay(delay).then(), primaryDone.asMono()));
+
+            return Flux.firstWithValue(first, second)
+                    .onErrorMap(NoSuchElementException.class, this::unwrapAllFailed);
+        });
+    }
+
+    private <T> Flux<T> guarded(Function<LLMRequest, Flux<T>> call, LLMRequest request,
+                                LLMProvider provider, String mode) {
+        // Breaker внутри bulkhead: ожидание в очереди не входит в длительность вызова
+        // и не делает вызов "медленным" для breaker'а
+        return bulkhead(provider).wrap(timed(call, request, provider, mode)
+                        .transformDeferred(CircuitBreakerOperator.of(circuitBreaker(provider))))
+                .onErrorMap(CallNotPermittedException.class, e -> new ProviderUnavailableException(
+                        "LLM provider " + provider.getName() + " is temporarily unavailable"));
+    }
+
+    private CircuitBreaker circuitBreaker(LLMProvider provider) {
+        return circuitBreakerRegistry.circuitBreaker("llm-" + provider.name().toLowerCase());
+    }
+
+    private LLMBulkhead bulkhead(LLMProvider provider) {
+        return bulkheads.computeIfAbsent(provider, key -> {
+            int maxConcurrent = key == LLMProvider.LOCAL
+                    ? llmConfig.getLocalMaxConcurrentCalls()
+                    : llmConfig.getCloudMaxConcurrentCalls();
+            LLMBulkhead bulkhead = new LLMBulkhead(key.getName(), maxConcurrent,
+                    llmConfig.getBulkheadQueueCapacity(), Duration.ofMillis(llmConfig.getBulkheadMaxWaitMs()));
+            Gauge.builder("llm.bulkhead.active", bulkhead, LLMBulkhead::getActiveCalls)
+                    .tag("provider", key.getName())
+                    .register(meterRegistry);
+            Gauge.builder("llm.bulkhead.waiting", bulkhead, LLMBulkhead::getWaitingCalls)
+                    .tag("provider", key.getName())
+                    .register(meterRegistry);
+            return bulkhead;
+        });
+    }
+
+    // Время до первого значения: для потоков - до первого токена, для Mono - до полного ответа.
+    // Ошибка или отмена без значения (проигравший хедж) тоже записываются - прошедшее время
+    // служит нижней оценкой, иначе самые медленные вызовы выпадают из p90 и занижают hedgeDelay
+    private <T> Flux<T> timed(Function<LLMRequest, Flux<T>> call, LLMRequest request,
+                              LLMProvider provider, String mode) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicBoolean recorded = new AtomicBoolean(false);
+            Runnable record = () -> {
+                if (recorded.compareAndSet(false, true)) {
+                    latencyTimer(provider, mode).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+            };
+            return call.apply(request)
+                    .doOnNext(value -> record.run())
+                    .doFinally(signal -> record.run());
+        });
+    }
+
+    private Throwable unwrapAllFailed(NoSuchElementException e) {
+        Throwable cause = e.getCause();
+        if (cause != null) {
+            for (Throwable failure : Exceptions.unwrapMultiple(cause)) {
+                if (failure instanceof ApiException) {
+                    return failure;
+                }
+            }
+        }
+        return new ApiException("All LLM providers failed", HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    private Timer latencyTimer(LLMProvider provider, String mode) {
+        return latencyTimers.computeIfAbsent(provider.getName() + ":" + mode, key -> Timer.builder("llm.request.latency")
+                .description("LLM latency per provider")
+                .tag("provider", provider.getName())
+                .tag("mode", mode)
+                .publishPercentiles(llmConfig.getHedgePercentile())
+                .serviceLevelObjectives(Duration.ofMillis(llmConfig.getLatencySloMs()))
+                .distributionStatisticExpiry(Duration.ofMinutes(10))
+                .register(meterRegistry));
+    }
+
+    private Counter hedgeCounter(String name, LLMProvider provider) {
+        return Counter.builder(name)
+                .tag("provider", provider.getName())
+                .register(meterRegistry);
+    }
+}
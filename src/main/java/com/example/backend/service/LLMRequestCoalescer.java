@@ -0,0 +1,102 @@
+package com.example.backend.service;
+
+import com.example.backend.model.LLMRequest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Объединяет одинаковые запросы к LLM, пока первый из них ещё выполняется:
+ * все подписчики получают результат одного вызова. Вызов отменяется только
+ * когда отписались все (refCount), а по завершении ключ удаляется.
+ */
+@Component
+@RequiredArgsConstructor
+public class LLMRequestCoalescer {
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Mono<?>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, Flux<?>> inFlightStreams = new ConcurrentHashMap<>();
+
+    public static String keyOf(LLMRequest request, String model) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Object part : new Object[]{request.getProvider(), model, request.getSystemPrompt(),
+                    request.getUserPrompt(), request.getMaxTokens()}) {
+                digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> Mono<T> coalesce(String key, Supplier<Mono<T>> call) {
+        return Mono.defer(() -> {
+            AtomicBoolean created = new AtomicBoolean(false);
+            Mono<T> shared = (Mono<T>) inFlight.computeIfAbsent(key, k -> {
+                created.set(true);
+                AtomicReference<Mono<T>> self = new AtomicReference<>();
+                Mono<T> mono = Mono.defer(call)
+                        .doFinally(signal -> inFlight.remove(k, self.get()))
+                        .flux()
+                        .publish()
+                        .refCount(1)
+                        .singleOrEmpty();
+                self.set(mono);
+                return mono;
+            });
+            if (!created.get()) {
+                coalescedCounter("complete").increment();
+            }
+            return shared;
+        });
+    }
+
+    /**
+     * Для потоков поздний подписчик сначала получает уже пришедшие элементы (replay),
+     * чтобы собрать полный текст ответа.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Flux<T> coalesceStream(String key, Supplier<Flux<T>> call) {
+        return Flux.defer(() -> {
+            AtomicBoolean created = new AtomicBoolean(false);
+            Flux<T> shared = (Flux<T>) inFlightStreams.computeIfAbsent(key, k -> {
+                created.set(true);
+                AtomicReference<Flux<T>> self = new AtomicReference<>();
+                Flux<T> flux = Flux.defer(call)
+                        .doFinally(signal -> inFlightStreams.remove(k, self.get()))
+                        .replay()
+                        .refCount(1);
+                self.set(flux);
+                return flux;
+            });
+            if (!created.get()) {
+                coalescedCounter("stream").increment();
+            }
+            return shared;
+        });
+    }
+
+    private Counter coalescedCounter(String mode) {
+        return Counter.builder("llm.requests.coalesced")
+                .description("LLM requests served by an identical in-flight call")
+                .tag("mode", mode)
+                .register(meterRegistry);
+    }
+}
@@ -2,15 +2,22 @@ package com.example.backend.service;
 
 import com.example.backend.config.LLMConfig;
 import com.example.backend.exception.ApiException;
+import com.example.backend.model.LLMProvider;
+import com.example.backend.model.LLMRequest;
+import com.example.backend.util.LLMResponseParser;
+import com.example.backend.util.StructuredResponseParser;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.util.retry.Retry;
 
@@ -19,6 +26,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 @Service
 @RequiredArgsConstructor
@@ -27,123 +37,296 @@ public class LLMService {
 
     private static final int MAX_RETRY_ATTEMPTS = 3;
     private static final int RETRY_DELAY_MS = 1000;
+    private static final String STREAM_DONE_MARKER = "[DONE]";
+    private static final String LOCAL_COMPLETIONS_PATH = "/v1/chat/completions";
+    private static final String STRUCTURED_OUTPUT_INSTRUCTION = "\n\nВместо разделов шаблона верни ровно один JSON-объект "
+            + "без markdown и пояснений вокруг него. Поля (в этом порядке): "
+            + "\"" + StructuredResponseParser.FIELD_OPTIMIZED_SQL + "\" - оптимизированный SQL-запрос, "
+            + "\"" + StructuredResponseParser.FIELD_RATIONALE + "\" - обоснование оптимизации, "
+            + "\"" + StructuredResponseParser.FIELD_PERFORMANCE_IMPACT + "\" - оценка улучшения, "
+            + "\"" + StructuredResponseParser.FIELD_RISKS + "\" - потенциальные риски, "
+            + "\"" + StructuredResponseParser.FIELD_CANDIDATE_INDEXES + "\" - массив команд CREATE INDEX (может быть пустым).";
+    private static final Map<String, Object> STRUCTURED_OUTPUT_SCHEMA = Map.of(
+            "type", "object",
+            "properties", Map.of(
+                    StructuredResponseParser.FIELD_OPTIMIZED_SQL, Map.of("type", "string"),
+                    StructuredResponseParser.FIELD_RATIONALE, Map.of("type", "string"),
+                    StructuredResponseParser.FIELD_PERFORMANCE_IMPACT, Map.of("type", "string"),
+                    StructuredResponseParser.FIELD_RISKS, Map.of("type", "string"),
+                    StructuredResponseParser.FIELD_CANDIDATE_INDEXES, Map.of(
+                            "type", "array",
+                            "items", Map.of("type", "string"))),
+            "required", List.of(
+                    StructuredResponseParser.FIELD_OPTIMIZED_SQL,
+                    StructuredResponseParser.FIELD_RATIONALE,
+                    StructuredResponseParser.FIELD_PERFORMANCE_IMPACT,
+                    StructuredResponseParser.FIELD_RISKS,
+                    StructuredResponseParser.FIELD_CANDIDATE_INDEXES),
+            "additionalProperties", false);
+    private static final ParameterizedTypeReference<ServerSentEvent<String>> SSE_TYPE =
+            new ParameterizedTypeReference<>() {};
 
     private final LLMConfig llmConfig;
     private final GigaChatAuthService gigaChatAuthService;
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final RestTemplate restTemplate;
-    private final RestTemplate localRestTemplate;
+    private final WebClient localWebClient;
+    private final LLMProviderRouter providerRouter;
+    private final LLMRequestCoalescer requestCoalescer;
+
+    // Фрагмент потокового ответа вместе с провайдером, который его прислал
+    private static class StreamDelta {
+        private final LLMProvider provider;
+        private final String text;
+
+        StreamDelta(LLMProvider provider, String text) {
+            this.provider = provider;
+            this.text = text;
+        }
+    }
 
     public Mono<String> optimizeSqlQuery(String query, String llmProvider, String promptTemplate) {
-        log.debug("Optimizing SQL query with provider: {}", llmProvider);
-        if ("Local".equals(llmProvider)) {
-            return optimizeWithLocalLLM(query, promptTemplate);
+        return optimizeSqlQuery(LLMRequest.builder()
+                .provider(llmProvider)
+                .systemPrompt(promptTemplate)
+                .userPrompt(query)
+                .build());
+    }
+
+    public Mono<String> optimizeSqlQuery(LLMRequest request) {
+        log.debug("Optimizing SQL query with provider: {}", request.getProvider());
+        return requestCoalescer.coalesce(LLMRequestCoalescer.keyOf(request, llmConfig.getModel()),
+                () -> providerRouter.route(request, this::optimizeWithProvider));
+    }
+
+    private Mono<String> optimizeWithProvider(LLMRequest request) {
+        if (LLMProvider.fromName(request.getProvider()) == LLMProvider.LOCAL) {
+            return optimizeWithLocalLLM(request);
         } else {
-            return optimizeWithCloudLLM(query, promptTemplate);
+            return optimizeWithCloudLLM(request);
         }
     }
 
-    private Mono<String> optimizeWithLocalLLM(String query, String promptTemplate) {
-        log.debug("Attempting to optimize with local LLM. Local LLM enabled: {}", llmConfig.isLocalEnabled());
+    private Flux<String> streamFromProvider(LLMRequest request) {
+        if (LLMProvider.fromName(request.getProvider()) == LLMProvider.LOCAL) {
+            return streamFromLocalLLM(request);
+        } else {
+            return streamFromCloudLLM(request);
+        }
+    }
+
+    /**
+     * Потоковый вариант optimizeSqlQuery: куски ответа отдаются в partialConsumer
+     * по мере поступления (склеенными пачками), а результирующий Mono содержит
+     * полный текст, как и в непотоковом варианте.
+     */
+    public Mono<String> streamSqlQuery(LLMRequest request, Consumer<String> partialConsumer) {
+        if (!llmConfig.isStreamingEnabled()) {
+            return optimizeSqlQuery(request);
+        }
+
+        log.debug("Streaming SQL query optimization with provider: {}", request.getProvider());
+
+        return Mono.defer(() -> {
+            StringBuilder assembled = new StringBuilder();
+            // При хеджировании ответ может прийти от альтернативного провайдера
+            AtomicReference<LLMProvider> servedBy = new AtomicReference<>();
+            Flux<StreamDelta> deltas = requestCoalescer.coalesceStream(
+                    LLMRequestCoalescer.keyOf(request, llmConfig.getModel()),
+                    () -> providerRouter.routeStream(request, r -> streamFromProvider(r)
+                            .map(text -> new StreamDelta(LLMProvider.fromName(r.getProvider()), text))));
+
+            return deltas
+                    .doOnNext(delta -> servedBy.compareAndSet(null, delta.provider))
+                    .map(delta -> delta.text)
+                    .bufferTimeout(llmConfig.getStreamCoalesceMaxChunks(),
+                            Duration.ofMillis(llmConfig.getStreamCoalesceMs()))
+                    .map(chunks -> String.join("", chunks))
+                    .filter(StringUtils::hasLength)
+                    .doOnNext(chunk -> {
+                        assembled.append(chunk);
+                        try {
+                            partialConsumer.accept(chunk);
+                        } catch (Exception e) {
+                            log.warn("Failed to forward streamed chunk: {}", e.getMessage());
+                        }
+                    })
+                    .then(Mono.fromCallable(() -> {
+                        if (assembled.length() == 0) {
+                            throw new ApiException("Empty response from LLM", HttpStatus.INTERNAL_SERVER_ERROR);
+                        }
+                        String content = assembled.toString();
+                        // Локальная модель форматируется так же, как и в непотоковом режиме
+                        return servedBy.get() == LLMProvider.LOCAL ? formatLLMResponse(content) : content;
+                    }));
+        });
+    }
+
+    private Flux<String> streamFromLocalLLM(LLMRequest request) {
         if (!llmConfig.isLocalEnabled()) {
             log.error("Local LLM is not enabled");
-            return Mono.error(new ApiException("Local LLM is not enabled", HttpStatus.SERVICE_UNAVAILABLE));
+            return Flux.error(new ApiException("Local LLM is not enabled", HttpStatus.SERVICE_UNAVAILABLE));
         }
 
-        try {
-            Map<String, Object> requestBody = prepareRequestBody(query, promptTemplate);
-            log.debug("Prepared request body for local LLM: {}", requestBody);
+        return Flux.defer(() -> {
+            Map<String, Object> requestBody = prepareRequestBody(request);
+            requestBody.put("stream", true);
+            log.debug("Opening stream to local LLM at URL: {}", llmConfig.getLocalApiUrl());
+
+            return withStreamRetry(localWebClient.post()
+                    .uri(LOCAL_COMPLETIONS_PATH)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .accept(MediaType.TEXT_EVENT_STREAM)
+                    .bodyValue(requestBody)
+                    .retrieve()
+                    .onStatus(status -> status.is4xxClientError(), this::handleClientError)
+                    .onStatus(status -> status.is5xxServerError(), this::handleServerError)
+                    .bodyToFlux(SSE_TYPE));
+        });
+    }
 
-            return Mono.fromCallable(() -> {
-                try {
-                    log.debug("Sending request to local LLM at URL: {}", llmConfig.getLocalApiUrl());
-                    String response = localRestTemplate.postForObject(
-                            llmConfig.getLocalApiUrl() + "/v1/chat/completions",
-                            requestBody,
-                            String.class);
-
-                    if (response == null) {
-                        log.error("Empty response from local LLM");
-                        throw new ApiException("Empty response from local LLM", HttpStatus.INTERNAL_SERVER_ERROR);
-                    }
+    private Flux<String> streamFromCloudLLM(LLMRequest request) {
+        if (!StringUtils.hasText(request.getUserPrompt())) {
+            return Flux.error(new ApiException("SQL query cannot be empty", HttpStatus.BAD_REQUEST));
+        }
 
-                    log.debug("Received response from local LLM: {}", response);
-                    JsonNode rootNode = objectMapper.readTree(response);
-                    JsonNode choicesNode = rootNode.path("choices");
+        return Flux.defer(() -> {
+            validateConfiguration();
+            Map<String, Object> requestBody = prepareRequestBody(request);
+            requestBody.put("stream", true);
+            log.debug("Opening stream to LLM API: URL={}", llmConfig.getApiUrl() + "/chat/completions");
 
-                    if (choicesNode.isArray() && choicesNode.size() > 0) {
-                        JsonNode firstChoice = choicesNode.get(0);
-                        JsonNode messageNode = firstChoice.path("message");
-                        String content = messageNode.path("content").asText();
+            return withStreamRetry(gigaChatAuthService.getWebClient()
+                    .flatMapMany(client -> client.post()
+                            .uri("/chat/completions")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .accept(MediaType.TEXT_EVENT_STREAM)
+                            .bodyValue(requestBody)
+                            .retrieve()
+                            .onStatus(status -> status.is4xxClientError(), this::handleClientError)
+                            .onStatus(status -> status.is5xxServerError(), this::handleServerError)
+                            .bodyToFlux(SSE_TYPE)));
+        });
+    }
 
-                        // Форматируем ответ в соответствии с шаблоном
-                        return formatLLMResponse(content);
+    /**
+     * Разбирает SSE-события до маркера [DONE] и повторяет запрос только пока
+     * клиенту ещё ничего не было отдано - иначе текст задублировался бы.
+     */
+    private Flux<String> withStreamRetry(Flux<ServerSentEvent<String>> events) {
+        AtomicBoolean started = new AtomicBoolean(false);
+        return events
+                .map(ServerSentEvent::data)
+                .filter(StringUtils::hasText)
+                .takeWhile(data -> !STREAM_DONE_MARKER.equals(data.trim()))
+                .concatMap(this::extractDeltaContent)
+                .doOnNext(delta -> started.set(true))
+                .retryWhen(Retry.backoff(MAX_RETRY_ATTEMPTS, Duration.ofMillis(RETRY_DELAY_MS))
+                        .filter(e -> !started.get() && !(e instanceof ApiException
+                                && ((ApiException) e).getStatus() == HttpStatus.BAD_REQUEST))
+                        .doBeforeRetry(signal -> log.warn("Retrying LLM stream, attempt: {}",
+                                signal.totalRetries() + 1))
+                        .onRetryExhaustedThrow((spec, signal) -> signal.failure()))
+                .onErrorMap(e -> {
+                    if (e instanceof ApiException) {
+                        return e;
                     }
-
-                    log.error("Invalid response format from local LLM: {}", response);
-                    throw new ApiException("Invalid response format from local LLM", HttpStatus.INTERNAL_SERVER_ERROR);
-                } catch (Exception e) {
-                    log.error("Error calling local LLM: {}", e.getMessage(), e);
-                    throw new ApiException("Error calling local LLM: " + e.getMessage(),
+                    log.error("Error streaming from LLM: {}", e.getMessage(), e);
+                    return new ApiException("Error streaming from LLM: " + e.getMessage(),
                             HttpStatus.SERVICE_UNAVAILABLE);
-                }
-            }).retryWhen(Retry.backoff(MAX_RETRY_ATTEMPTS, Duration.ofMillis(RETRY_DELAY_MS))
-                    .filter(e -> e instanceof ApiException &&
-                            ((ApiException) e).getStatus() == HttpStatus.SERVICE_UNAVAILABLE));
+                });
+    }
+
+    private Mono<String> extractDeltaContent(String data) {
+        try {
+            JsonNode choicesNode = objectMapper.readTree(data).path("choices");
+            if (!choicesNode.isArray() || choicesNode.size() == 0) {
+                return Mono.empty();
+            }
+            JsonNode contentNode = choicesNode.get(0).path("delta").path("content");
+            if (contentNode.isMissingNode() || contentNode.isNull()) {
+                return Mono.empty();
+            }
+            return Mono.just(contentNode.asText());
         } catch (Exception e) {
-            log.error("Failed to prepare request for local LLM: {}", e.getMessage(), e);
-            return Mono.error(new ApiException("Failed to prepare request for local LLM: " + e.getMessage(),
+            log.error("Failed to parse LLM stream chunk: {}", data);
+            return Mono.error(new ApiException("Failed to parse LLM stream chunk: " + e.getMessage(),
                     HttpStatus.INTERNAL_SERVER_ERROR));
         }
     }
 
+    private Mono<String> optimizeWithLocalLLM(LLMRequest request) {
+        log.debug("Attempting to optimize with local LLM. Local LLM enabled: {}", llmConfig.isLocalEnabled());
+        if (!llmConfig.isLocalEnabled()) {
+            log.error("Local LLM is not enabled");
+            return Mono.error(new ApiException("Local LLM is not enabled", HttpStatus.SERVICE_UNAVAILABLE));
+        }
+
+        return Mono.defer(() -> {
+                    Map<String, Object> requestBody = prepareRequestBody(request);
+                    log.debug("Sending request to local LLM at URL: {}", llmConfig.getLocalApiUrl());
+
+                    return localWebClient.post()
+                            .uri(LOCAL_COMPLETIONS_PATH)
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .bodyValue(requestBody)
+                            .retrieve()
+                            .onStatus(status -> status.is4xxClientError(), this::handleClientError)
+                            .onStatus(status -> status.is5xxServerError(), this::handleServerError)
+                            .bodyToMono(String.class)
+                            .switchIfEmpty(Mono.error(new ApiException("Empty response from local LLM",
+                                    HttpStatus.SERVICE_UNAVAILABLE)))
+                            .doOnNext(response -> log.debug("Received response from local LLM: {}", response))
+                            .flatMap(this::parseResponse)
+                            // Форматируем ответ в соответствии с шаблоном
+                            .map(this::formatLLMResponse);
+                })
+                .onErrorMap(e -> !(e instanceof ApiException), e -> {
+                    log.error("Error calling local LLM: {}", e.getMessage(), e);
+                    return new ApiException("Error calling local LLM: " + e.getMessage(),
+                            HttpStatus.SERVICE_UNAVAILABLE);
+                })
+                .retryWhen(Retry.backoff(MAX_RETRY_ATTEMPTS, Duration.ofMillis(RETRY_DELAY_MS))
+                        .filter(e -> e instanceof ApiException &&
+                                ((ApiException) e).getStatus() == HttpStatus.SERVICE_UNAVAILABLE)
+                        .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+    }
+
+    public boolean isStructuredOutputEnabled() {
+        return llmConfig.isStructuredOutputEnabled();
+    }
+
     private String formatLLMResponse(String content) {
+        // JSON-ответ разбирается отдельно и в markdown не оборачивается
+        if (llmConfig.isStructuredOutputEnabled()) {
+            return content;
+        }
+
+        LLMResponseParser parser = new LLMResponseParser();
+        parser.feed(content);
+        parser.finish();
+
         // Если ответ уже содержит нужный формат, возвращаем его как есть
-        if (content.contains("Оптимизированный SQL-запрос") &&
-                (content.contains("Обоснование оптимизации") || content.contains("Обоснование изменений")) &&
-                content.contains("Оценка улучшения") &&
-                content.contains("Потенциальные риски")) {
+        if (parser.isComplete()) {
             return content;
         }
 
         // Иначе форматируем ответ
+        String sql = parser.getResult().getOptimizedSql() != null
+                ? parser.getResult().getOptimizedSql()
+                : content.trim();
         StringBuilder formattedResponse = new StringBuilder();
 
         // Добавляем SQL запрос
         formattedResponse.append("## Информация о запросе\n\n");
         formattedResponse.append("### Сравнение запросов\n\n");
-        
+
         // Исходный запрос
         formattedResponse.append("#### Исходный запрос\n");
-        if (content.contains("```sql")) {
-            int start = content.indexOf("```sql") + 6;
-            int end = content.indexOf("```", start);
-            if (end > start) {
-                formattedResponse.append("```sql\n");
-                formattedResponse.append(content.substring(start, end).trim());
-                formattedResponse.append("\n```\n\n");
-            }
-        } else {
-            formattedResponse.append("```sql\n");
-            formattedResponse.append(content.trim());
-            formattedResponse.append("\n```\n\n");
-        }
+        formattedResponse.append("```sql\n").append(sql).append("\n```\n\n");
 
         // Оптимизированный запрос
         formattedResponse.append("#### Оптимизированный запрос\n");
-        if (content.contains("```sql")) {
-            int start = content.indexOf("```sql") + 6;
-            int end = content.indexOf("```", start);
-            if (end > start) {
-                formattedResponse.append("```sql\n");
-                formattedResponse.append(content.substring(start, end).trim());
-                formattedResponse.append("\n```\n\n");
-            }
-        } else {
-            formattedResponse.append("```sql\n");
-            formattedResponse.append(content.trim());
-            formattedResponse.append("\n```\n\n");
-        }
+        formattedResponse.append("```sql\n").append(sql).append("\n```\n\n");
 
         // Добавляем обоснование оптимизации
         formattedResponse.append("## Обоснование оптимизации\n\n");
@@ -169,14 +352,14 @@ public class LLMService {
         return formattedResponse.toString();
     }
 
-    private Mono<String> optimizeWithCloudLLM(String query, String promptTemplate) {
-        if (!StringUtils.hasText(query)) {
+    private Mono<String> optimizeWithCloudLLM(LLMRequest request) {
+        if (!StringUtils.hasText(request.getUserPrompt())) {
             return Mono.error(new ApiException("SQL query cannot be empty", HttpStatus.BAD_REQUEST));
         }
 
         return Mono.defer(() -> {
             validateConfiguration();
-            Map<String, Object> requestBody = prepareRequestBody(query, promptTemplate);
+            Map<String, Object> requestBody = prepareRequestBody(request);
 
             log.debug("Making request to LLM API: URL={}, Body={}",
                     llmConfig.getApiUrl() + "/chat/completions",
@@ -195,6 +378,9 @@ public class LLMService {
                             .bodyToMono(String.class))
                     .flatMap(this::parseResponse)
                     .retryWhen(Retry.backoff(MAX_RETRY_ATTEMPTS, Duration.ofMillis(RETRY_DELAY_MS))
+                            // Ошибки запроса повторять бессмысленно
+                            .filter(e -> !(e instanceof ApiException
+                                    && ((ApiException) e).getStatus() == HttpStatus.BAD_REQUEST))
                             .doBeforeRetry(
                                     signal -> log.warn("Retrying LLM API call, attempt: {}", signal.totalRetries() + 1))
                             .onRetryExhaustedThrow((retryBackoffSpec, retrySignal) -> new ApiException(
@@ -223,17 +409,35 @@ public class LLMService {
         }
     }
 
-    private Map<String, Object> prepareRequestBody(String query, String promptTemplate) {
+    private Map<String, Object> prepareRequestBody(LLMRequest request) {
         Map<String, Object> requestBody = new HashMap<>();
         requestBody.put("model", llmConfig.getModel());
 
+        String systemPrompt = request.getSystemPrompt();
+        if (llmConfig.isStructuredOutputEnabled()) {
+            systemPrompt = systemPrompt + STRUCTURED_OUTPUT_INSTRUCTION;
+            // GigaChat не поддерживает response_format, там остаётся только инструкция
+            if (LLMProvider.fromName(request.getProvider()) == LLMProvider.LOCAL) {
+                requestBody.put("response_format", Map.of(
+                        "type", "json_schema",
+                        "json_schema", Map.of(
+                                "name", "sql_optimization",
+                                "strict", true,
+                                "schema", STRUCTURED_OUTPUT_SCHEMA)));
+            }
+        }
+
         List<Map<String, String>> messages = new ArrayList<>();
-        messages.add(Map.of("role", "system", "content", promptTemplate));
-        messages.add(Map.of("role", "user", "content", query));
+        messages.add(Map.of("role", "system", "content", systemPrompt));
+        messages.add(Map.of("role", "user", "content", request.getUserPrompt()));
 
         requestBody.put("messages", messages);
         requestBody.put("temperature", llmConfig.getTemperature());
-        requestBody.put("max_tokens", llmConfig.getMaxTokens());
+        // Лимит ответа, рассчитанный по длине запроса, не превышает настроенный максимум
+        int maxTokens = request.getMaxTokens() != null
+                ? Math.min(request.getMaxTokens(), llmConfig.getMaxTokens())
+                : llmConfig.getMaxTokens();
+        requestBody.put("max_tokens", maxTokens);
 
         return requestBody;
     }
@@ -0,0 +1,216 @@
+package com.example.backend.service;
+
+import com.example.backend.exception.ApiException;
+import com.example.backend.model.entity.SqlQuery;
+import com.example.sqlopt.ast.QueryPlanResult;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Отрисовка результата оптимизации в Markdown по данным sql_queries.
+ * В сообщении чата хранится только краткая сводка со ссылкой на SqlQuery,
+ * планы, запросы и метаданные рендерятся по запросу отдельными секциями.
+ */
+@Component
+public class OptimizationMessageRenderer {
+
+    public enum Section {
+        SUMMARY,
+        PLANS,
+        QUERIES,
+        METADATA,
+        RATIONALE,
+        IMPACT,
+        RISKS,
+        FULL;
+
+        public static Section fromName(String name) {
+            try {
+                return Section.valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException | NullPointerException e) {
+                throw new ApiException("Unknown section: " + name, HttpStatus.BAD_REQUEST);
+            }
+        }
+    }
+
+    public String render(SqlQuery sqlQuery, Section section) {
+        switch (section) {
+            case SUMMARY:
+                return renderSummary(sqlQuery);
+            case PLANS:
+                return renderPlans(sqlQuery);
+            case QUERIES:
+                return renderQueries(sqlQuery);
+            case METADATA:
+                return renderMetadata(sqlQuery);
+            case RATIONALE:
+                return renderText("Обоснование оптимизации", sqlQuery.getOptimizationRationale());
+            case IMPACT:
+                return renderText("Оценка улучшения", sqlQuery.getPerformanceImpact());
+            case RISKS:
+                return renderText("Потенциальные риски", sqlQuery.getPotentialRisks());
+            default:
+                return renderFull(sqlQuery);
+        }
+    }
+
+    /**
+     * Содержимое сообщения чата: заголовок, прирост и оптимизированный запрос.
+     */
+    public String renderSummary(SqlQuery sqlQuery) {
+        StringBuilder response = new StringBuilder();
+        response.append("# Оптимизация SQL-запроса\n\n");
+        Double improvement = improvementPercent(sqlQuery);
+        if (improvement != null) {
+            response.append(String.format("**Улучшение производительности: %.2f%%**\n\n", improvement));
+        }
+        if (sqlQuery.getOptimizedQuery() != null) {
+            response.append("```sql\n").append(sqlQuery.getOptimizedQuery()).append("\n```\n");
+        }
+        return response.toString();
+    }
+
+    private String renderFull(SqlQuery sqlQuery) {
+        return renderSummary(sqlQuery) + "\n"
+                + renderPlans(sqlQuery)
+                + renderQueries(sqlQuery)
+                + renderMetadata(sqlQuery)
+                + render(sqlQuery, Section.RATIONALE)
+                + render(sqlQuery, Section.IMPACT)
+                + render(sqlQuery, Section.RISKS);
+    }
+
+    private String renderPlans(SqlQuery sqlQuery) {
+        QueryPlanResult originalPlan = sqlQuery.getOriginalPlan();
+        QueryPlanResult optimizedPlan = sqlQuery.getOptimizedPlan();
+        StringBuilder response = new StringBuilder();
+
+        // Сравнение планов выполнения
+        if (originalPlan != null && originalPlan.getExecutionTime() != null) {
+            response.append("## Сравнение планов выполнения\n\n");
+            response.append("| Метрика | Исходный запрос | Оптимизированный запрос | Изменение |\n");
+            response.append("|---------|-----------------|-------------------------|-----------|\n");
+            response.append("| Время выполнения | ").append(formatMs(originalPlan.getExecutionTime())).append(" | ");
+            Double improvement = improvementPercent(sqlQuery);
+            if (optimizedPlan != null && optimizedPlan.getExecutionTime() != null) {
+                response.append(formatMs(optimizedPlan.getExecutionTime())).append(" | ")
+                        .append(improvement != null ? String.format("%.2f%%", improvement) : "Нет данных")
+                        .append(" |\n\n");
+            } else {
+                response.append("Нет данных | Нет данных |\n\n");
+            }
+        }
+
+        // Детальные планы выполнения
+        response.append("## Детальные планы выполнения\n\n");
+        response.append("### Исходный план\n\n");
+        appendPlan(response, originalPlan);
+        response.append("### Оптимизированный план\n\n");
+        appendPlan(response, optimizedPlan);
+        return response.toString();
+    }
+
+    private String renderQueries(SqlQuery sqlQuery) {
+        StringBuilder response = new StringBuilder();
+        response.append("## Сравнение SQL-запросов\n\n");
+        response.append("### Исходный запрос\n");
+        response.append("```sql\n").append(sqlQuery.getOriginalQuery()).append("\n```\n\n");
+        response.append("### Оптимизированный запрос\n");
+        response.append("```sql\n").append(sqlQuery.getOptimizedQuery()).append("\n```\n\n");
+        return response.toString();
+    }
+
+    private String renderMetadata(SqlQuery sqlQuery) {
+        Map<String, Map<String, Object>> tablesMetadata = sqlQuery.getTablesMetadata();
+        if (tablesMetadata == null || tablesMetadata.isEmpty()) {
+            return "";
+        }
+
+        StringBuilder response = new StringBuilder();
+        response.append("## Метаданные таблиц\n\n");
+        for (Map.Entry<String, Map<String, Object>> entry : tablesMetadata.entrySet()) {
+            String tableName = entry.getKey();
+            Map<String, Object> metadata = entry.getValue();
+
+            response.append("### Таблица: ").append(tableName).append("\n\n");
+
+            // Колонки
+            @SuppressWarnings("unchecked")
+            List<Map<String, Object>> columns = (List<Map<String, Object>>) metadata.get("columns");
+            if (columns != null && !columns.isEmpty()) {
+                response.append("**Колонки:**\n\n");
+                response.append("| Имя | Тип | Nullable | Default | Комментарий |\n");
+                response.append("|-----|-----|----------|---------|-------------|\n");
+                for (Map<String, Object> column : columns) {
+                    response.append("| ").append(column.get("name"))
+                          .append(" | ").append(column.get("type"))
+                          .append(" | ").append(column.get("nullable"))
+                          .append(" | ").append(column.get("default"))
+                          .append(" | ").append(column.get("comment"))
+                          .append(" |\n");
+                }
+                response.append("\n");
+            }
+
+            // Индексы
+            @SuppressWarnings("unchecked")
+            List<Map<String, Object>> indexes = (List<Map<String, Object>>) metadata.get("indexes");
+            if (indexes != null && !indexes.isEmpty()) {
+                response.append("**Индексы:**\n\n");
+                response.append("| Имя | Колонки | Уникальный |\n");
+                response.append("|-----|---------|------------|\n");
+                for (Map<String, Object> index : indexes) {
+                    response.append("| ").append(index.get("name"))
+                          .append(" | ").append(index.get("columns"))
+                          .append(" | ").append(index.get("unique"))
+                          .append(" |\n");
+                }
+                response.append("\n");
+            }
+
+            // Статистика
+            @SuppressWarnings("unchecked")
+            Map<String, Object> statistics = (Map<String, Object>) metadata.get("statistics");
+            if (statistics != null && !statistics.isEmpty()) {
+                response.append("**Статистика:**\n\n");
+                response.append("- Оценочное количество строк: ").append(statistics.get("estimated_rows")).append("\n");
+                response.append("- Размер таблицы: ").append(statistics.get("total_size")).append("\n");
+                response.append("- Количество страниц: ").append(statistics.get("pages")).append("\n\n");
+            }
+        }
+        return response.toString();
+    }
+
+    private static String renderText(String title, String text) {
+        return "## " + title + "\n\n" + (text != null ? text : "Нет данных") + "\n\n";
+    }
+
+    private static void appendPlan(StringBuilder response, QueryPlanResult plan) {
+        response.append("```sql\n");
+        if (plan != null && plan.getPlanText() != null && !plan.getPlanText().isEmpty()) {
+            response.append(plan.getPlanText());
+        } else {
+            response.append("Нет данных о плане выполнения");
+        }
+        response.append("\n```\n\n");
+    }
+
+    private static Double improvementPercent(SqlQuery sqlQuery) {
+        QueryPlanResult originalPlan = sqlQuery.getOriginalPlan();
+        QueryPlanResult optimizedPlan = sqlQuery.getOptimizedPlan();
+        if (originalPlan == null || optimizedPlan == null
+                || originalPlan.getExecutionTime() == null || optimizedPlan.getExecutionTime() == null
+                || originalPlan.getExecutionTime() <= 0) {
+            return null;
+        }
+        return (originalPlan.getExecutionTime() - optimizedPlan.getExecutionTime()) / originalPlan.getExecutionTime() * 100;
+    }
+
+    private static String formatMs(Double value) {
+        return String.format("%.2f мс", value);
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.backend.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Обслуживание секций messages и sql_queries (V8): заранее создаёт месячные секции
+ * живых строк и переносит историю давно архивированных чатов в архивные секции.
+ * Перенос - это UPDATE is_archived, PostgreSQL сам перемещает строку между секциями.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PartitionMaintenanceService {
+
+    private static final List<String> PARTITIONED_TABLES = List.of("messages", "sql_queries");
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${partitions.months-ahead:3}")
+    private int monthsAhead;
+
+    @Value("${partitions.archive-after:90d}")
+    private Duration archiveAfter;
+
+    @Value("${partitions.archive-batch-size:5000}")
+    private int archiveBatchSize;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        // Приложение могло простоять смену месяца, секции нужны до первых записей
+        try {
+            ensurePartitions();
+        } catch (DataAccessException e) {
+            // Строки без месячной секции попадут в default, запуск из-за этого не прерываем
+            log.warn("Failed to ensure partitions on startup: {}", e.getMessage());
+        }
+    }
+
+    @Scheduled(cron = "${partitions.maintenance-cron:0 30 3 * * *}")
+    public void maintain() {
+        try {
+            ensurePartitions();
+            archiveChatHistory();
+        } catch (DataAccessException e) {
+            log.error("Partition maintenance failed: {}", e.getMessage());
+        }
+    }
+
+    public void ensurePartitions() {
+        for (String table : PARTITIONED_TABLES) {
+            Integer created = jdbcTemplate.queryForObject("SELECT ensure_month_partitions(?, ?)",
+                    Integer.class, table + "_live", monthsAhead);
+            if (created != null && created > 0) {
+                log.info("Created {} monthly partitions for {}", created, table);
+            }
+        }
+    }
+
+    public void archiveChatHistory() {
+        Timestamp cutoff = Timestamp.valueOf(LocalDateTime.now().minus(archiveAfter));
+        for (String table : PARTITIONED_TABLES) {
+            long archived = moveInBatches(table, true, cutoff);
+            // Чат могли разархивировать - его история возвращается в живые секции
+            long restored = moveInBatches(table, false, cutoff);
+            if (archived > 0 || restored > 0) {
+                log.info("Partition maintenance for {}: archived={}, restored={}", table, archived, restored);
+            }
+        }
+    }
+
+    // Пачками, чтобы не держать долгую транзакцию и блокировки на больших чатах
+    private long moveInBatches(String table, boolean toArchive, Timestamp cutoff) {
+        String chatCondition = toArchive
+                ? "c.is_archived AND c.updated_at < ?"
+                : "NOT c.is_archived";
+        String sql = "UPDATE " + table + " SET is_archived = " + toArchive
+                + " WHERE (id, is_archived, created_at) IN ("
+                + "SELECT t.id, t.is_archived, t.created_at FROM " + table + " t JOIN chats c ON c.id = t.chat_id"
+                + " WHERE t.is_archived = " + !toArchive + " AND " + chatCondition + " LIMIT " + archiveBatchSize + ")";
+
+        long total = 0;
+        int moved;
+        do {
+            moved = toArchive ? jdbcTemplate.update(sql, cutoff) : jdbcTemplate.update(sql);
+            total += moved;
+        } while (moved == archiveBatchSize);
+        return total;
+    }
+}
@@ -0,0 +1,332 @@
+package com.example.backend.service;
+
+import com.example.backend.config.LLMConfig;
+import com.example.backend.model.LLMRequest;
+import com.example.backend.model.dto.SimilarQueryDto;
+import com.example.backend.util.QueryPlanAnalyzer;
+import com.example.sqlopt.ast.Operation;
+import com.example.sqlopt.ast.QueryPlanResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Собирает пользовательскую часть промпта: только колонки, на которые ссылается
+ * запрос, индексы по ним, самые дорогие узлы плана и похожие ранее оптимизированные
+ * запросы. Всё, что не помещается в llm.prompt-token-budget, отбрасывается в порядке приоритета.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class PromptBuilder {
+
+    private static final Pattern IDENTIFIER_PATTERN = Pattern.compile("[A-Za-z_][A-Za-z0-9_$]*");
+    private static final Pattern SELECT_STAR_PATTERN = Pattern.compile("(?i)select\\s+(distinct\\s+)?(\\w+\\.)?\\*");
+
+    // Чем меньше значение, тем позже элемент будет отброшен
+    private static final int PRIORITY_REFERENCED_COLUMN = 0;
+    private static final int PRIORITY_COVERING_INDEX = 1;
+    private static final int PRIORITY_HOT_NODE = 2;
+    private static final int PRIORITY_EXAMPLE = 3;
+    private static final int PRIORITY_OPERATIONS = 4;
+    private static final int PRIORITY_STAR_COLUMN = 5;
+
+    private static final String KIND_COLUMN = "column";
+    private static final String KIND_INDEX = "index";
+    private static final String KIND_PLAN = "plan";
+    private static final String KIND_EXAMPLE = "example";
+
+    private final LLMConfig llmConfig;
+    private final MeterRegistry meterRegistry;
+
+    private static class PromptItem {
+        private final int priority;
+        private final int order;
+        private final String kind;
+        private final String table;
+        private final String text;
+        private final int tokens;
+
+        PromptItem(int priority, int order, String kind, String table, String text, int tokens) {
+            this.priority = priority;
+            this.order = order;
+            this.kind = kind;
+            this.table = table;
+            this.text = text;
+            this.tokens = tokens;
+        }
+    }
+
+    public LLMRequest build(String provider, String systemPrompt, String query,
+                            QueryPlanResult planResult, Map<String, Map<String, Object>> tablesMetadata,
+                            List<SimilarQueryDto> examples) {
+        Set<String> identifiers = collectIdentifiers(query);
+        boolean selectStar = SELECT_STAR_PATTERN.matcher(query).find();
+
+        String header = "SQL-запрос для оптимизации:\n```sql\n" + query + "\n```\n";
+        int fixedTokens = estimateTokens(systemPrompt) + estimateTokens(header);
+
+        List<PromptItem> items = new ArrayList<>();
+        collectPlanItems(planResult, items);
+        collectMetadataItems(tablesMetadata, identifiers, selectStar, items);
+        collectExampleItems(examples, items);
+
+        // Заполняем бюджет по приоритету, затем восстанавливаем исходный порядок
+        List<PromptItem> byPriority = new ArrayList<>(items);
+        byPriority.sort(Comparator.comparingInt((PromptItem item) -> item.priority)
+                .thenComparingInt(item -> item.order));
+
+        int remaining = llmConfig.getPromptTokenBudget() - fixedTokens;
+        Set<PromptItem> kept = new HashSet<>();
+        Map<String, Integer> trimmed = new LinkedHashMap<>();
+        for (PromptItem item : byPriority) {
+            if (item.tokens <= remaining) {
+                kept.add(item);
+                remaining -= item.tokens;
+            } else {
+                trimmed.merge(item.kind, 1, Integer::sum);
+            }
+        }
+
+        String userPrompt = render(header, items, kept);
+        int promptTokens = estimateTokens(systemPrompt) + estimateTokens(userPrompt);
+        int maxTokens = responseTokensFor(query);
+
+        recordMetrics(provider, promptTokens, maxTokens, trimmed);
+        log.debug("Built LLM prompt: ~{} tokens, max_tokens={}, trimmed={}", promptTokens, maxTokens, trimmed);
+
+        return LLMRequest.builder()
+                .provider(provider)
+                .systemPrompt(systemPrompt)
+                .userPrompt(userPrompt)
+                .maxTokens(maxTokens)
+                .estimatedPromptTokens(promptTokens)
+                .build();
+    }
+
+    public int getFewShotExamples() {
+        return llmConfig.getPromptFewShotExamples();
+    }
+
+    public int estimateTokens(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        return (int) Math.ceil(text.length() / llmConfig.getPromptCharsPerToken());
+    }
+
+    // Ответ содержит переписанный запрос и пояснения, поэтому лимит растёт с длиной запроса
+    private int responseTokensFor(String query) {
+        int base = llmConfig.getResponseBaseTokens();
+        int sized = base + (int) Math.ceil(estimateTokens(query) * llmConfig.getResponseTokensPerQueryToken());
+        return Math.min(sized, llmConfig.getMaxTokens());
+    }
+
+    private void collectPlanItems(QueryPlanResult planResult, List<PromptItem> items) {
+        if (planResult == null) {
+            return;
+        }
+
+        List<String> hotNodes = QueryPlanAnalyzer.extractHotNodes(planResult.getPlanText(),
+                llmConfig.getPromptHotPlanNodes());
+        for (String node : hotNodes) {
+            addItem(items, PRIORITY_HOT_NODE, KIND_PLAN, null, "- " + node + "\n");
+        }
+
+        // Плоский список операций нужен только если текста плана нет
+        if (hotNodes.isEmpty() && planResult.getOperations() != null) {
+            Set<String> operations = new LinkedHashSet<>();
+            for (Operation operation : planResult.getOperations()) {
+                if (operation.getType() != null) {
+                    operations.add(operation.getType().toString()
+                            + (operation.getTableName() != null ? " по таблице " + operation.getTableName() : ""));
+                }
+            }
+            for (String operation : operations) {
+                addItem(items, PRIORITY_OPERATIONS, KIND_PLAN, null, "- " + operation + "\n");
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void collectMetadataItems(Map<String, Map<String, Object>> tablesMetadata, Set<String> identifiers,
+                                      boolean selectStar, List<PromptItem> items) {
+        if (tablesMetadata == null) {
+            return;
+        }
+
+        for (Map.Entry<String, Map<String, Object>> entry : tablesMetadata.entrySet()) {
+            String table = entry.getKey();
+            Map<String, Object> metadata = entry.getValue();
+
+            List<Map<String, Object>> columns = (List<Map<String, Object>>) metadata.get("columns");
+            if (columns != null) {
+                for (Map<String, Object> column : columns) {
+                    String name = String.valueOf(column.get("name"));
+                    boolean referenced = identifiers.contains(name.toLowerCase(Locale.ROOT));
+                    if (!referenced && !selectStar) {
+                        continue;
+                    }
+                    StringBuilder text = new StringBuilder("- ").append(name)
+                            .append(" (").append(column.get("type")).append(")");
+                    if (column.get("nullable") != null) {
+                        text.append(column.get("nullable").equals(true) ? " NULL" : " NOT NULL");
+                    }
+                    addItem(items, referenced ? PRIORITY_REFERENCED_COLUMN : PRIORITY_STAR_COLUMN,
+                            KIND_COLUMN, table, text.append("\n").toString());
+                }
+            }
+
+            List<Map<String, Object>> indexes = (List<Map<String, Object>>) metadata.get("indexes");
+            if (indexes != null) {
+                for (Map.Entry<String, IndexInfo> index : groupIndexes(indexes).entrySet()) {
+                    IndexInfo info = index.getValue();
+                    boolean covering = info.columns.stream()
+                            .anyMatch(column -> identifiers.contains(column.toLowerCase(Locale.ROOT)));
+                    if (!covering) {
+                        continue;
+                    }
+                    String text = "- " + index.getKey() + " (" + String.join(", ", info.columns) + ")"
+                            + (info.unique ? " UNIQUE" : "") + "\n";
+                    addItem(items, PRIORITY_COVERING_INDEX, KIND_INDEX, table, text);
+                }
+            }
+        }
+    }
+
+    private static class IndexInfo {
+        private final List<String> columns = new ArrayList<>();
+        private boolean unique;
+    }
+
+    // DatabaseMetaData.getIndexInfo отдаёт по строке на каждую колонку индекса
+    private Map<String, IndexInfo> groupIndexes(List<Map<String, Object>> indexes) {
+        Map<String, IndexInfo> grouped = new LinkedHashMap<>();
+        for (Map<String, Object> index : indexes) {
+            if (index.get("name") == null) {
+                continue;
+            }
+            IndexInfo info = grouped.computeIfAbsent(String.valueOf(index.get("name")), name -> new IndexInfo());
+            if (index.get("column") != null) {
+                info.columns.add(String.valueOf(index.get("column")));
+            } else if (index.get("columns") != null) {
+                info.columns.add(String.valueOf(index.get("columns")));
+            }
+            info.unique = Boolean.TRUE.equals(index.get("unique"));
+        }
+        return grouped;
+    }
+
+    // Самый похожий пример идёт первым и отбрасывается последним
+    private void collectExampleItems(List<SimilarQueryDto> examples, List<PromptItem> items) {
+        if (examples == null) {
+            return;
+        }
+        for (SimilarQueryDto example : examples) {
+            addItem(items, PRIORITY_EXAMPLE, KIND_EXAMPLE, null,
+                    String.format(Locale.ROOT, "\nСходство %.0f%%. Было:\n```sql\n%s\n```\nСтало:\n```sql\n%s\n```\n",
+                            example.getSimilarity() * 100, example.getOriginalQuery().trim(),
+                            example.getOptimizedQuery().trim()));
+        }
+    }
+
+    private void addItem(List<PromptItem> items, int priority, String kind, String table, String text) {
+        items.add(new PromptItem(priority, items.size(), kind, table, text, estimateTokens(text)));
+    }
+
+    private String render(String header, List<PromptItem> items, Set<PromptItem> kept) {
+        StringBuilder prompt = new StringBuilder(header);
+
+        boolean planHeader = false;
+        for (PromptItem item : items) {
+            if (kept.contains(item) && KIND_PLAN.equals(item.kind)) {
+                if (!planHeader) {
+                    prompt.append("\nКлючевые узлы плана выполнения:\n");
+                    planHeader = true;
+                }
+                prompt.append(item.text);
+            }
+        }
+
+        boolean exampleHeader = false;
+        for (PromptItem item : items) {
+            if (kept.contains(item) && KIND_EXAMPLE.equals(item.kind)) {
+                if (!exampleHeader) {
+                    prompt.append("\nПохожие запросы этого пользователя, уже оптимизированные ранее "
+                            + "(используй как ориентир, если изменения применимы):\n");
+                    exampleHeader = true;
+                }
+                prompt.append(item.text);
+            }
+        }
+
+        Map<String, StringBuilder[]> tables = new LinkedHashMap<>();
+        for (PromptItem item : items) {
+            if (!kept.contains(item) || item.table == null) {
+                continue;
+            }
+            StringBuilder[] sections = tables.computeIfAbsent(item.table,
+                    table -> new StringBuilder[]{new StringBuilder(), new StringBuilder()});
+            sections[KIND_COLUMN.equals(item.kind) ? 0 : 1].append(item.text);
+        }
+        if (!tables.isEmpty()) {
+            prompt.append("\nМетаданные таблиц (только используемые колонки):\n");
+            for (Map.Entry<String, StringBuilder[]> entry : tables.entrySet()) {
+                prompt.append("\nТаблица: ").append(entry.getKey()).append("\n");
+                if (entry.getValue()[0].length() > 0) {
+                    prompt.append("Колонки:\n").append(entry.getValue()[0]);
+                }
+                if (entry.getValue()[1].length() > 0) {
+                    prompt.append("Индексы:\n").append(entry.getValue()[1]);
+                }
+            }
+        }
+
+        return prompt.toString();
+    }
+
+    private Set<String> collectIdentifiers(String query) {
+        Set<String> identifiers = new HashSet<>();
+        Matcher matcher = IDENTIFIER_PATTERN.matcher(query);
+        while (matcher.find()) {
+            identifiers.add(matcher.group().toLowerCase(Locale.ROOT));
+        }
+        return identifiers;
+    }
+
+    private void recordMetrics(String provider, int promptTokens, int maxTokens, Map<String, Integer> trimmed) {
+        String providerTag = provider != null ? provider : "unknown";
+        DistributionSummary.builder("llm.prompt.tokens")
+                .description("Estimated prompt size sent to the LLM")
+                .tag("provider", providerTag)
+                .register(meterRegistry)
+                .record(promptTokens);
+        DistributionSummary.builder("llm.prompt.max_tokens")
+                .description("Response token limit requested from the LLM")
+                .tag("provider", providerTag)
+                .register(meterRegistry)
+                .record(maxTokens);
+        for (String kind : List.of(KIND_COLUMN, KIND_INDEX, KIND_PLAN, KIND_EXAMPLE)) {
+            Counter.builder("llm.prompt.trimmed.items")
+                    .description("Prompt items dropped to fit the token budget")
+                    .tag("kind", kind)
+                    .register(meterRegistry)
+                    .increment(trimmed.getOrDefault(kind, 0));
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.example.backend.service;
+
+import com.example.backend.model.dto.SimilarQueryDto;
+import com.example.backend.repository.SqlQueryRepository;
+import com.example.backend.util.SqlShingler;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Индекс похожих запросов в памяти: MinHash-сигнатуры по шинглам нормализованного
+ * SQL и LSH-корзины по полосам сигнатуры. Кандидаты берутся только из корзин, поэтому
+ * поиск не зависит от размера истории. Ключ корзины включает пользователя, чтобы
+ * примеры одного пользователя никогда не попадали другому.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class SimilarQueryIndex {
+
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    private final SqlQueryRepository sqlQueryRepository;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${similarity.shingle-size:2}")
+    private int shingleSize;
+
+    @Value("${similarity.bands:32}")
+    private int bands;
+
+    @Value("${similarity.rows-per-band:4}")
+    private int rowsPerBand;
+
+    @Value("${similarity.min-similarity:0.4}")
+    private double minSimilarity;
+
+    private long[] seeds;
+    private Timer lookupTimer;
+
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Long>> buckets = new ConcurrentHashMap<>();
+
+    private static class Entry {
+        private final long id;
+        private final long userId;
+        private final Long chatId;
+        private final String originalQuery;
+        private final String optimizedQuery;
+        private final int[] signature;
+
+        Entry(long id, long userId, Long chatId, String originalQuery, String optimizedQuery, int[] signature) {
+            this.id = id;
+            this.userId = userId;
+            this.chatId = chatId;
+            this.originalQuery = originalQuery;
+            this.optimizedQuery = optimizedQuery;
+            this.signature = signature;
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        // Фиксированные seed'ы: сигнатуры сопоставимы между перезапусками и тестами
+        seeds = new long[bands * rowsPerBand];
+        long seed = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < seeds.length; i++) {
+            seed = mix(seed + i);
+            seeds[i] = seed;
+        }
+        lookupTimer = Timer.builder("sql.similar.lookup")
+                .description("Time to find similar previously optimized queries")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        Gauge.builder("sql.similar.entries", entries, Map::size)
+                .description("Optimized queries held in the similarity index")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        // Загрузка истории не задерживает старт; до её окончания поиск просто находит меньше
+        Schedulers.boundedElastic().schedule(this::loadAll);
+    }
+
+    void loadAll() {
+        long start = System.nanoTime();
+        long afterId = 0;
+        try {
+            List<SqlQueryRepository.SimilarityIndexView> batch;
+            do {
+                batch = sqlQueryRepository.findSimilarityIndexBatch(afterId, PageRequest.ofSize(LOAD_BATCH_SIZE));
+                for (SqlQueryRepository.SimilarityIndexView row : batch) {
+                    add(row.getId(), row.getUserId(), row.getChatId(), row.getOriginalQuery(), row.getOptimizedQuery());
+                    afterId = row.getId();
+                }
+            } while (batch.size() == LOAD_BATCH_SIZE);
+            log.info("Similarity index loaded: {} queries in {} ms", entries.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (Exception e) {
+            log.error("Failed to load similarity index after id {}: {}", afterId, e.getMessage());
+        }
+    }
+
+    /**
+     * Добавляет успешную оптимизацию; запросы, которые LLM вернула без изменений, не индексируются.
+     */
+    public void add(Long id, Long userId, Long chatId, String originalQuery, String optimizedQuery) {
+        if (id == null || userId == null || optimizedQuery == null || optimizedQuery.isBlank()
+                || optimizedQuery.equals(originalQuery) || entries.containsKey(id)) {
+            return;
+        }
+        int[] signature = signature(originalQuery);
+        if (signature == null) {
+            return;
+        }
+        entries.put(id, new Entry(id, userId, chatId, originalQuery, optimizedQuery, signature));
+        for (int band = 0; band < bands; band++) {
+            buckets.computeIfAbsent(bucketKey(userId, signature, band), key -> ConcurrentHashMap.newKeySet()).add(id);
+        }
+    }
+
+    public void removeChat(Long chatId) {
+        List<Entry> removed = entries.values().stream()
+                .filter(entry -> chatId.equals(entry.chatId))
+                .collect(Collectors.toList());
+        for (Entry entry : removed) {
+            entries.remove(entry.id);
+            for (int band = 0; band < bands; band++) {
+                Set<Long> bucket = buckets.get(bucketKey(entry.userId, entry.signature, band));
+                if (bucket != null) {
+                    bucket.remove(entry.id);
+                }
+            }
+        }
+    }
+
+    public List<SimilarQueryDto> findSimilar(Long userId, String query, int limit) {
+        if (userId == null || limit <= 0) {
+            return List.of();
+        }
+        return lookupTimer.record(() -> {
+            int[] signature = signature(query);
+            if (signature == null) {
+                return List.<SimilarQueryDto>of();
+            }
+            Set<Long> candidates = new HashSet<>();
+            for (int band = 0; band < bands; band++) {
+                Set<Long> bucket = buckets.get(bucketKey(userId, signature, band));
+                if (bucket != null) {
+                    candidates.addAll(bucket);
+                }
+            }
+
+            List<SimilarQueryDto> matches = new ArrayList<>();
+            for (Long candidateId : candidates) {
+                Entry entry = entries.get(candidateId);
+                if (entry == null || entry.userId != userId) {
+                    continue;
+                }
+                double similarity = estimateSimilarity(signature, entry.signature);
+                if (similarity >= minSimilarity) {
+                    matches.add(SimilarQueryDto.builder()
+                            .queryId(entry.id)
+                            .chatId(entry.chatId)
+                            .originalQuery(entry.originalQuery)
+                            .optimizedQuery(entry.optimizedQuery)
+                            .similarity(similarity)
+                            .build());
+                }
+            }
+            matches.sort(Comparator.comparingDouble(SimilarQueryDto::getSimilarity).reversed()
+                    .thenComparing(SimilarQueryDto::getQueryId, Comparator.reverseOrder()));
+            return matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+        });
+    }
+
+    private int[] signature(String sql) {
+        Set<Long> shingles = SqlShingler.shingles(sql, shingleSize);
+        if (shingles.isEmpty()) {
+            return null;
+        }
+        int[] signature = new int[seeds.length];
+        for (int i = 0; i < seeds.length; i++) {
+            long min = Long.MAX_VALUE;
+            for (long shingle : shingles) {
+                long hash = mix(shingle ^ seeds[i]);
+                if (hash < min) {
+                    min = hash;
+                }
+            }
+            signature[i] = (int) (min ^ (min >>> 32));
+        }
+        return signature;
+    }
+
+    private long bucketKey(long userId, int[] signature, int band) {
+        long key = mix(userId * 31 + band);
+        int from = band * rowsPerBand;
+        for (int i = from; i < from + rowsPerBand; i++) {
+            key = mix(key ^ signature[i]);
+        }
+        return key;
+    }
+
+    private static double estimateSimilarity(int[] left, int[] right) {
+        int equal = 0;
+        for (int i = 0; i < left.length; i++) {
+            if (left[i] == right[i]) {
+                equal++;
+            }
+        }
+        return (double) equal / left.length;
+    }
+
+    // Финализатор MurmurHash3: дешёвое хорошее перемешивание 64-битных значений
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -8,6 +8,7 @@ import java.sql.Statement;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -20,20 +21,33 @@ import java.util.Set;
 import java.util.HashSet;
 
 import com.example.backend.model.ExecutionResult;
+import com.example.backend.model.LLMRequest;
+import com.example.backend.model.LLMResponse;
+import com.example.backend.util.LLMResponseParser;
+import com.example.backend.util.PageCursor;
+import com.example.backend.util.ResponseSectionParser;
+import com.example.backend.util.StructuredResponseParser;
 import com.example.backend.util.QueryPlanAnalyzer;
+import com.example.backend.util.RollbackSandbox;
 import com.example.sqlopt.ast.TableCollector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.example.backend.exception.ApiException;
 import com.example.backend.exception.ResourceNotFoundException;
+import com.example.backend.model.dto.CursorPage;
+import com.example.backend.model.dto.MessageChunkDto;
 import com.example.backend.model.dto.MessageDto;
 import com.example.backend.model.dto.SqlQueryRequest;
 import com.example.backend.model.dto.SqlQueryResponse;
+import com.example.backend.model.dto.SqlSearchResultDto;
+import com.example.backend.model.dto.SimilarQueryDto;
 import com.example.backend.model.entity.Chat;
 import com.example.backend.model.entity.DatabaseConnection;
 import com.example.backend.model.entity.Message;
@@ -58,6 +72,7 @@ import net.sf.jsqlparser.statement.select.SelectBody;
 import net.sf.jsqlparser.statement.select.SetOperationList;
 import net.sf.jsqlparser.statement.select.SubJoin;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 @Service
 @RequiredArgsConstructor
@@ -69,108 +84,22 @@ public class SqlOptimizationService {
     private final ChatRepository chatRepository;
     private final DatabaseConnectionRepository databaseConnectionRepository;
     private final LLMService llmService;
+    private final PromptBuilder promptBuilder;
+    private final OptimizationMessageRenderer messageRenderer;
+    private final ContentBlobStore contentBlobStore;
+    private final ChatAccessService chatAccessService;
     private final DatabaseConnectionService databaseConnectionService;
     private final SimpMessagingTemplate messagingTemplate;
     private final ASTService astService;
+    private final TransactionTemplate transactionTemplate;
+    private final SimilarQueryIndex similarQueryIndex;
 
-    private static class LLMResponse {
-        private String optimizedSql;
-        private String optimizationRationale;
-        private String performanceImpact;
-        private String potentialRisks;
+    // Ограничения для EXPLAIN ANALYZE в откатываемой транзакции (RollbackSandbox)
+    @Value("${analysis.sandbox.statement-timeout-ms:30000}")
+    private long sandboxStatementTimeoutMs;
 
-        public String getOptimizedSql() {
-            return optimizedSql;
-        }
-
-        public void setOptimizedSql(String optimizedSql) {
-            this.optimizedSql = optimizedSql;
-        }
-
-        public String getOptimizationRationale() {
-            return optimizationRationale;
-        }
-
-        public void setOptimizationRationale(String optimizationRationale) {
-            this.optimizationRationale = optimizationRationale;
-        }
-
-        public String getPerformanceImpact() {
-            return performanceImpact;
-        }
-
-        public void setPerformanceImpact(String performanceImpact) {
-            this.performanceImpact = performanceImpact;
-        }
-
-        public String getPotentialRisks() {
-            return potentialRisks;
-        }
-
-        public void setPotentialRisks(String potentialRisks) {
-            this.potentialRisks = potentialRisks;
-        }
-    }
-
-    private String formatPrompt(String promptTemplate, String query, QueryPlanResult planResult, Map<String, Map<String, Object>> tablesMetadata) {
-        StringBuilder prompt = new StringBuilder(promptTemplate);
-
-        // Добавляем SQL-запрос
-        prompt.append("\n\nSQL-запрос для оптимизации:\n```sql\n").append(query).append("\n```\n");
-
-        // Если есть план выполнения, добавляем его
-        if (planResult != null && !planResult.getOperations().isEmpty()) {
-            prompt.append("\nПлан выполнения запроса:\n");
-            for (com.example.sqlopt.ast.Operation operation : planResult.getOperations()) {
-                prompt.append("- ").append(operation.getType());
-                if (operation.getTableName() != null) {
-                    prompt.append(" по таблице ").append(operation.getTableName());
-                }
-                prompt.append("\n");
-            }
-        }
-
-        // Если есть метаданные таблиц, добавляем их
-        if (tablesMetadata != null && !tablesMetadata.isEmpty()) {
-            prompt.append("\nМетаданные таблиц:\n");
-            for (Map.Entry<String, Map<String, Object>> entry : tablesMetadata.entrySet()) {
-                prompt.append("\nТаблица: ").append(entry.getKey()).append("\n");
-                Map<String, Object> metadata = entry.getValue();
-
-                // Колонки
-                @SuppressWarnings("unchecked")
-                List<Map<String, Object>> columns = (List<Map<String, Object>>) metadata.get("columns");
-                if (columns != null && !columns.isEmpty()) {
-                    prompt.append("Колонки:\n");
-                    for (Map<String, Object> column : columns) {
-                        prompt.append("- ").append(column.get("name"))
-                              .append(" (").append(column.get("type")).append(")");
-                        if (column.get("nullable") != null) {
-                            prompt.append(column.get("nullable").equals(true) ? " NULL" : " NOT NULL");
-                        }
-                        prompt.append("\n");
-                    }
-                }
-
-                // Индексы
-                @SuppressWarnings("unchecked")
-                List<Map<String, Object>> indexes = (List<Map<String, Object>>) metadata.get("indexes");
-                if (indexes != null && !indexes.isEmpty()) {
-                    prompt.append("Индексы:\n");
-                    for (Map<String, Object> index : indexes) {
-                        prompt.append("- ").append(index.get("name"))
-                              .append(" (").append(index.get("columns")).append(")");
-                        if (index.get("unique") != null) {
-                            prompt.append(index.get("unique").equals(true) ? " UNIQUE" : "");
-                        }
-                        prompt.append("\n");
-                    }
-                }
-            }
-        }
-
-        return prompt.toString();
-    }
+    @Value("${analysis.sandbox.lock-timeout-ms:2000}")
+    private long sandboxLockTimeoutMs;
 
     private com.example.sqlopt.ast.QueryPlanResult convertToAstQueryPlanResult(QueryPlanResult result) {
         com.example.sqlopt.ast.QueryPlanResult astResult = new com.example.sqlopt.ast.QueryPlanResult();
@@ -190,195 +119,6 @@ public class SqlOptimizationService {
         return result;
     }
 
-    private ExecutionResult executeExplainAnalyze(Connection connection, String query) throws SQLException {
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery("EXPLAIN ANALYZE " + query)) {
-            StringBuilder output = new StringBuilder();
-            while (rs.next()) {
-                output.append(rs.getString(1)).append("\n");
-            }
-            String explainOutput = output.toString();
-
-            // Извлекаем время выполнения
-            Pattern pattern = Pattern.compile("Execution Time: (\\d+\\.\\d+) ms");
-            Matcher matcher = pattern.matcher(explainOutput);
-            if (matcher.find()) {
-                long executionTime = (long) Double.parseDouble(matcher.group(1));
-                return new ExecutionResult(executionTime, explainOutput);
-            }
-            return new ExecutionResult(-1, explainOutput);
-        }
-    }
-
-    private String formatOptimizationResponse(
-            String optimizedQuery,
-            com.example.sqlopt.ast.QueryPlanResult planResult,
-            Map<String, Map<String, Object>> tablesMetadata,
-            String optimizationRationale,
-            String performanceImpact,
-            String potentialRisks,
-            com.example.backend.model.ExecutionResult originalExecution,
-            com.example.backend.model.ExecutionResult optimizedExecution,
-            String originalQuery) {
-
-        StringBuilder response = new StringBuilder();
-
-        // Краткая шапка с основным выводом
-        response.append("# Оптимизация SQL-запроса\n\n");
-        if (optimizedExecution != null && originalExecution != null) {
-            double timeImprovement = ((double) (originalExecution.getExecutionTime() - optimizedExecution.getExecutionTime()) / originalExecution.getExecutionTime()) * 100;
-            response.append(String.format("**Улучшение производительности: %.2f%%**\n\n", timeImprovement));
-        }
-
-        // Информация о запросе
-        response.append("## Информация о запросе\n\n");
-        response.append("<details>\n<summary>Детали запроса</summary>\n\n");
-
-        // Сравнение планов выполнения
-        if (originalExecution != null && originalExecution.getExplainOutput() != null) {
-            response.append("### Сравнение планов выполнения\n\n");
-            response.append("<div class='plan-comparison'>\n");
-            response.append("<table class='plan-table'>\n");
-            response.append("<tr><th>Метрика</th><th>Исходный запрос</th><th>Оптимизированный запрос</th><th>Изменение</th></tr>\n");
-
-            // Время выполнения
-            response.append("<tr>\n");
-            response.append("<td>Время выполнения</td>\n");
-            response.append("<td>").append(originalExecution.getExecutionTime()).append(" мс</td>\n");
-            if (optimizedExecution != null) {
-                response.append("<td>").append(optimizedExecution.getExecutionTime()).append(" мс</td>\n");
-                double timeImprovement = ((double) (originalExecution.getExecutionTime() - optimizedExecution.getExecutionTime()) / originalExecution.getExecutionTime()) * 100;
-                response.append("<td class='").append(timeImprovement > 0 ? "improvement" : "degradation").append("'>")
-                       .append(String.format("%.2f", timeImprovement)).append("%</td>\n");
-            } else {
-                response.append("<td>Нет данных</td>\n");
-                response.append("<td>Нет данных</td>\n");
-            }
-            response.append("</tr>\n");
-            response.append("</table>\n");
-            response.append("</div>\n\n");
-        }
-
-        // Детальные планы выполнения
-        response.append("### Детальные планы выполнения\n\n");
-        
-        // Исходный план
-        response.append("#### Исходный план\n\n");
-        response.append("```sql\n");
-        if (originalExecution != null && originalExecution.getExplainOutput() != null) {
-            response.append(originalExecution.getExplainOutput());
-        } else {
-            response.append("Нет данных о плане выполнения");
-        }
-        response.append("\n```\n\n");
-
-        // Оптимизированный план
-        response.append("#### Оптимизированный план\n\n");
-        response.append("```sql\n");
-        if (optimizedExecution != null && optimizedExecution.getExplainOutput() != null) {
-            response.append(optimizedExecution.getExplainOutput());
-        } else {
-            response.append("Нет данных о плане выполнения");
-        }
-        response.append("\n```\n\n");
-
-        // Сравнение SQL-запросов
-        response.append("### Сравнение SQL-запросов\n\n");
-        response.append("<details>\n<summary>Показать запросы</summary>\n\n");
-        response.append("#### Исходный запрос\n");
-        response.append("```sql\n");
-        response.append(originalQuery);
-        response.append("\n```\n\n");
-
-        response.append("#### Оптимизированный запрос\n");
-        response.append("```sql\n");
-        response.append(optimizedQuery);
-        response.append("\n```\n");
-        response.append("</details>\n\n");
-
-        // Метаданные таблиц
-        if (tablesMetadata != null && !tablesMetadata.isEmpty()) {
-            response.append("### Метаданные таблиц\n\n");
-            response.append("<details>\n<summary>Показать метаданные</summary>\n\n");
-            for (Map.Entry<String, Map<String, Object>> entry : tablesMetadata.entrySet()) {
-                String tableName = entry.getKey();
-                Map<String, Object> metadata = entry.getValue();
-
-                response.append("#### Таблица: ").append(tableName).append("\n\n");
-
-                // Колонки
-                @SuppressWarnings("unchecked")
-                List<Map<String, Object>> columns = (List<Map<String, Object>>) metadata.get("columns");
-                if (columns != null && !columns.isEmpty()) {
-                    response.append("**Колонки:**\n\n");
-                    response.append("| Имя | Тип | Nullable | Default | Комментарий |\n");
-                    response.append("|-----|-----|----------|---------|-------------|\n");
-                    for (Map<String, Object> column : columns) {
-                        response.append("| ").append(column.get("name"))
-                              .append(" | ").append(column.get("type"))
-                              .append(" | ").append(column.get("nullable"))
-                              .append(" | ").append(column.get("default"))
-                              .append(" | ").append(column.get("comment"))
-                              .append(" |\n");
-                    }
-                    response.append("\n");
-                }
-
-                // Индексы
-                @SuppressWarnings("unchecked")
-                List<Map<String, Object>> indexes = (List<Map<String, Object>>) metadata.get("indexes");
-                if (indexes != null && !indexes.isEmpty()) {
-                    response.append("**Индексы:**\n\n");
-                    response.append("| Имя | Колонки | Уникальный |\n");
-                    response.append("|-----|---------|------------|\n");
-                    for (Map<String, Object> index : indexes) {
-                        response.append("| ").append(index.get("name"))
-                              .append(" | ").append(index.get("columns"))
-                              .append(" | ").append(index.get("unique"))
-                              .append(" |\n");
-                    }
-                    response.append("\n");
-                }
-
-                // Статистика
-                @SuppressWarnings("unchecked")
-                Map<String, Object> statistics = (Map<String, Object>) metadata.get("statistics");
-                if (statistics != null && !statistics.isEmpty()) {
-                    response.append("**Статистика:**\n\n");
-                    response.append("- Оценочное количество строк: ").append(statistics.get("estimated_rows")).append("\n");
-                    response.append("- Размер таблицы: ").append(statistics.get("total_size")).append("\n");
-                    response.append("- Количество страниц: ").append(statistics.get("pages")).append("\n\n");
-                }
-            }
-            response.append("</details>\n\n");
-        }
-
-        response.append("</details>\n\n");
-
-        // Обоснование оптимизации
-        response.append("## Обоснование оптимизации\n\n");
-        response.append("<details>\n<summary>Показать обоснование</summary>\n\n");
-        response.append(optimizationRationale);
-        response.append("\n\n");
-        response.append("</details>\n\n");
-
-        // Оценка улучшения
-        response.append("## Оценка улучшения\n\n");
-        response.append("<details>\n<summary>Показать оценку</summary>\n\n");
-        response.append(performanceImpact);
-        response.append("\n\n");
-        response.append("</details>\n\n");
-
-        // Потенциальные риски
-        response.append("## Потенциальные риски\n\n");
-        response.append("<details>\n<summary>Показать риски</summary>\n\n");
-        response.append(potentialRisks);
-        response.append("\n\n");
-        response.append("</details>\n");
-
-        return response.toString();
-    }
-
     private Map<String, Map<String, Object>> extractTablesMetadata(Connection connection, String query) throws SQLException {
         Map<String, Map<String, Object>> metadata = new HashMap<>();
         try {
@@ -454,7 +194,11 @@ public class SqlOptimizationService {
         return tables;
     }
 
-    @Transactional
+    /**
+     * Транзакции БД приложения короткие и не охватывают вызов LLM: чтение перед
+     * анализом и одна запись результата в конце, обе на boundedElastic.
+     * Возвращённый ответ уже содержит сохранённое сообщение для рассылки в чат.
+     */
     public Mono<SqlQueryResponse> optimizeQuery(Long userId, SqlQueryRequest request) {
         log.info("Starting query optimization for userId={}, chatId={}, query={}, llm={}, isMPP={}",
                 userId, request.getChatId(), request.getQuery(), request.getLlm(), request.isMPP());
@@ -463,31 +207,34 @@ public class SqlOptimizationService {
         AtomicReference<QueryPlanAnalyzer.PlanMetrics> originalPlanMetricsRef = new AtomicReference<>(null);
         AtomicReference<QueryPlanAnalyzer.PlanMetrics> optimizedPlanMetricsRef = new AtomicReference<>(null);
 
-        return Mono.just(request)
-                .flatMap(req -> {
-                    // Получаем последнее сообщение из чата
-                    Optional<Message> messageOpt = messageRepository.findFirstByChatIdOrderByCreatedAtDesc(req.getChatId());
-                    if (messageOpt.isEmpty()) {
-                        return Mono.error(new ResourceNotFoundException("Chat not found with ID: " + req.getChatId()));
-                    }
-                    Message message = messageOpt.get();
+        // Проверяем владельца чата; ответное сообщение создаётся в saveResult.
+        // Анализ плана дальше тоже блокирующий и остаётся на boundedElastic
+        return Mono.fromCallable(() -> {
+                    chatAccessService.checkOwner(request.getChatId(), userId);
                     SqlQuery sqlQuery = new SqlQuery();
-                    sqlQuery.setOriginalQuery(req.getQuery());
-                    sqlQuery.setMessage(message);
-                    return Mono.just(sqlQuery);
+                    sqlQuery.setOriginalQuery(request.getQuery());
+                    sqlQuery.setChatId(request.getChatId());
+                    // По подключению советник по ключам распределения находит планы запросов
+                    if (request.getDatabaseConnectionId() != null) {
+                        sqlQuery.setDatabaseConnection(databaseConnectionRepository.getReferenceById(request.getDatabaseConnectionId()));
+                    }
+                    return sqlQuery;
                 })
+                .subscribeOn(Schedulers.boundedElastic())
                 .flatMap(sqlQuery -> {
                     // Анализируем исходный план выполнения
                     if (request.getDatabaseConnectionId() != null) {
                         try {
                             Connection connection = databaseConnectionService.getConnection(request.getDatabaseConnectionId());
                             // Получаем план выполнения исходного запроса
-                            ExecutionResult originalExecution = executeExplainAnalyze(connection, request.getQuery());
-                            originalPlanMetricsRef.set(QueryPlanAnalyzer.analyzePlan(connection, request.getQuery(), request.isMPP()));
+                            originalPlanMetricsRef.set(QueryPlanAnalyzer.analyzePlan(connection, request.getQuery(), request.isMPP(),
+                                    sandboxStatementTimeoutMs, sandboxLockTimeoutMs));
                             sqlQuery.setOriginalPlan(QueryPlanAnalyzer.toQueryPlanResult(originalPlanMetricsRef.get()));
 
                             // Получаем метаданные таблиц
-                            tablesMetadataRef.set(extractTablesMetadata(connection, request.getQuery()));
+                            tablesMetadataRef.set(RollbackSandbox.execute(connection, sandboxStatementTimeoutMs, sandboxLockTimeoutMs,
+                                    sandbox -> extractTablesMetadata(sandbox, request.getQuery())));
+                            sqlQuery.setTablesMetadata(tablesMetadataRef.get());
 
                             return Mono.just(sqlQuery);
                         } catch (SQLException e) {
@@ -501,31 +248,92 @@ public class SqlOptimizationService {
                     // Получаем шаблон промпта
                     String promptTemplate = getDefaultPromptTemplate(request.isMPP(), request.getDatabaseConnectionId() != null);
 
-                    // Форматируем промпт
-                    String formattedPrompt = formatPrompt(
+                    // Похожие запросы пользователя, уже оптимизированные ранее, идут в промпт примерами
+                    List<SimilarQueryDto> examples = similarQueryIndex.findSimilar(userId, request.getQuery(),
+                            promptBuilder.getFewShotExamples());
+
+                    // Собираем промпт в пределах бюджета токенов; шаблон уходит системным сообщением
+                    LLMRequest llmRequest = promptBuilder.build(
+                            request.getLlm(),
                             promptTemplate,
                             request.getQuery(),
                             sqlQuery.getOriginalPlan(),
-                            tablesMetadataRef.get()
+                            tablesMetadataRef.get(),
+                            examples
                     );
 
-                    // Отправляем запрос к LLM
-                    return llmService.optimizeSqlQuery(formattedPrompt, request.getLlm(), promptTemplate)
+                    // Разбираем поток по мере генерации: как только готов SQL, начинаем его проверку
+                    AtomicReference<SqlValidation> earlyValidationRef = new AtomicReference<>(null);
+                    boolean structured = llmService.isStructuredOutputEnabled();
+                    Consumer<LLMResponseParser.Section> sectionListener = section -> {
+                        if (section.getType() == LLMResponseParser.SectionType.OPTIMIZED_SQL) {
+                            SqlValidation validation = new SqlValidation(section.getContent(),
+                                    validateOptimizedSql(section.getContent(), request.getDatabaseConnectionId()));
+                            if (earlyValidationRef.compareAndSet(null, validation)) {
+                                validation.result.subscribe();
+                            }
+                        }
+                        // Сырой JSON в чат не отправляем - только готовые секции
+                        if (structured) {
+                            publishPartialResponse(request.getChatId(), renderSection(section));
+                        }
+                    };
+                    ResponseSectionParser streamParser = structured
+                            ? new StructuredResponseParser(sectionListener)
+                            : new LLMResponseParser(sectionListener);
+
+                    // Отправляем запрос к LLM, пересылая частичный ответ в чат по мере генерации
+                    return llmService.streamSqlQuery(llmRequest, chunk -> {
+                                if (!structured) {
+                                    publishPartialResponse(request.getChatId(), chunk);
+                                }
+                                streamParser.feed(chunk);
+                            })
                             .flatMap(llmResponse -> {
+                                // Досылаем секции, которые удалось получить только после починки JSON
+                                streamParser.finish();
+                                LLMResponse parsedResponse;
                                 try {
-                                    LLMResponse parsedResponse = parseLLMResponse(llmResponse);
+                                    parsedResponse = parseLLMResponse(llmResponse);
                                     sqlQuery.setOptimizedQuery(parsedResponse.getOptimizedSql());
                                     sqlQuery.setOptimizationRationale(parsedResponse.getOptimizationRationale());
                                     sqlQuery.setPerformanceImpact(parsedResponse.getPerformanceImpact());
                                     sqlQuery.setPotentialRisks(parsedResponse.getPotentialRisks());
+                                } catch (Exception e) {
+                                    log.error("Error parsing LLM response: {}", e.getMessage());
+                                    sqlQuery.setOptimizedQuery(request.getQuery());
+                                    sqlQuery.setOptimizationRationale("Не удалось получить оптимизированную версию запроса. Пожалуйста, попробуйте позже.");
+                                    sqlQuery.setPerformanceImpact("Нет данных");
+                                    sqlQuery.setPotentialRisks("Нет данных");
+                                    return Mono.just(sqlQuery);
+                                }
+
+                                // Используем проверку, начатую во время генерации, если SQL совпал
+                                SqlValidation earlyValidation = earlyValidationRef.get();
+                                Mono<Optional<String>> validation = earlyValidation != null
+                                        && earlyValidation.sql.equals(parsedResponse.getOptimizedSql())
+                                        ? earlyValidation.result
+                                        : validateOptimizedSql(parsedResponse.getOptimizedSql(), request.getDatabaseConnectionId());
+
+                                // Готовая проверка из кэша отдаёт результат в потоке, завершившем стрим LLM
+                                // (event loop); анализ плана блокирующий, поэтому переходим на boundedElastic
+                                return validation.publishOn(Schedulers.boundedElastic()).flatMap(validationError -> {
+                                    if (validationError.isPresent()) {
+                                        log.warn("Optimized query failed validation: {}", validationError.get());
+                                        sqlQuery.setOptimizationRationale(sqlQuery.getOptimizationRationale()
+                                                + "\n\nОптимизированный запрос не прошёл проверку: " + validationError.get());
+                                        return Mono.just(sqlQuery);
+                                    }
+
+                                    sqlQuery.setValidated(true);
 
                                     // Анализируем оптимизированный план выполнения
                                     if (request.getDatabaseConnectionId() != null) {
                                         try {
                                             Connection connection = databaseConnectionService.getConnection(request.getDatabaseConnectionId());
                                             // Получаем план выполнения оптимизированного запроса
-                                            ExecutionResult optimizedExecution = executeExplainAnalyze(connection, parsedResponse.getOptimizedSql());
-                                            optimizedPlanMetricsRef.set(QueryPlanAnalyzer.analyzePlan(connection, parsedResponse.getOptimizedSql(), request.isMPP()));
+                                            optimizedPlanMetricsRef.set(QueryPlanAnalyzer.analyzePlan(connection, parsedResponse.getOptimizedSql(),
+                                                    request.isMPP(), sandboxStatementTimeoutMs, sandboxLockTimeoutMs));
                                             sqlQuery.setOptimizedPlan(QueryPlanAnalyzer.toQueryPlanResult(optimizedPlanMetricsRef.get()));
 
                                             // Сравниваем планы выполнения
@@ -551,17 +359,11 @@ public class SqlOptimizationService {
                                     }
 
                                     return Mono.just(sqlQuery);
-                                } catch (Exception e) {
-                                    log.error("Error parsing LLM response: {}", e.getMessage());
-                                    sqlQuery.setOptimizedQuery(request.getQuery());
-                                    sqlQuery.setOptimizationRationale("Не удалось получить оптимизированную версию запроса. Пожалуйста, попробуйте позже.");
-                                    sqlQuery.setPerformanceImpact("Нет данных");
-                                    sqlQuery.setPotentialRisks("Нет данных");
-                                    return Mono.just(sqlQuery);
-                                }
+                                });
                             })
                             .onErrorResume(e -> {
                                 log.error("Error during LLM optimization: {}", e.getMessage());
+                                sqlQuery.setValidated(false);
                                 sqlQuery.setOptimizedQuery(request.getQuery());
                                 sqlQuery.setOptimizationRationale("Сервис оптимизации временно недоступен. Пожалуйста, попробуйте позже.");
                                 sqlQuery.setPerformanceImpact("Нет данных");
@@ -569,47 +371,54 @@ public class SqlOptimizationService {
                                 return Mono.just(sqlQuery);
                             });
                 })
-                .flatMap(sqlQuery -> {
-                    try {
-                        SqlQuery savedQuery = sqlQueryRepository.save((SqlQuery) sqlQuery);
+                .flatMap(sqlQuery -> Mono.fromCallable(() -> saveResult(userId, (SqlQuery) sqlQuery))
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .onErrorMap(e -> !(e instanceof ApiException), e -> {
+                            log.error("Error saving query: {}", e.getMessage());
+                            return new ApiException("Failed to save query", HttpStatus.INTERNAL_SERVER_ERROR);
+                        }));
+    }
 
-                        String formattedResponse = formatOptimizationResponse(
-                            savedQuery.getOptimizedQuery(),
-                            savedQuery.getOptimizedPlan(),
-                            tablesMetadataRef.get(),
-                            savedQuery.getOptimizationRationale(),
-                            savedQuery.getPerformanceImpact(),
-                            savedQuery.getPotentialRisks(),
-                            QueryPlanAnalyzer.toExecutionResult(originalPlanMetricsRef.get()),
-                            QueryPlanAnalyzer.toExecutionResult(optimizedPlanMetricsRef.get()),
-                            savedQuery.getOriginalQuery()
-                        );
-
-                        Message llmMessage = Message.builder()
-                            .chat(savedQuery.getMessage().getChat())
-                            .content(formattedResponse)
-                            .fromUser(false)
-                            .createdAt(LocalDateTime.now())
-                            .build();
-                        llmMessage = messageRepository.save(llmMessage);
-
-                        savedQuery.setMessage(llmMessage);
-                        savedQuery = sqlQueryRepository.save(savedQuery);
-
-                        return Mono.just(mapToResponse(savedQuery));
-                    } catch (Exception e) {
-                        log.error("Error saving query: {}", e.getMessage());
-                        return Mono.error(new ApiException("Failed to save query", HttpStatus.INTERNAL_SERVER_ERROR));
-                    }
-                });
+    /**
+     * Единственная запись результата: ответное сообщение и SqlQuery сохраняются одним
+     * persist (каскад Message.sqlQuery) вместе с блобами в одной короткой транзакции.
+     * Ответ собирается из объектов в памяти, без повторного чтения.
+     */
+    private SqlQueryResponse saveResult(Long userId, SqlQuery sqlQuery) {
+        // После externalize блобы заменяются ссылками, поэтому планы и сводку берём заранее
+        QueryPlanResult originalPlan = sqlQuery.getOriginalPlan();
+        QueryPlanResult optimizedPlan = sqlQuery.getOptimizedPlan();
+
+        // В сообщении только сводка, остальное рендерится по sql_queries при запросе
+        Message llmMessage = Message.builder()
+            .chat(chatRepository.getReferenceById(sqlQuery.getChatId()))
+            .content(messageRenderer.renderSummary(sqlQuery))
+            .fromUser(false)
+            .createdAt(LocalDateTime.now())
+            .sqlQuery(sqlQuery)
+            .build();
+        sqlQuery.setMessage(llmMessage);
+
+        transactionTemplate.executeWithoutResult(status -> {
+            contentBlobStore.externalize(sqlQuery);
+            messageRepository.save(llmMessage);
+        });
+
+        // Непрошедший проверку SQL или запасной ответ не должны попасть в примеры для промпта
+        if (sqlQuery.isValidated()) {
+            similarQueryIndex.add(sqlQuery.getId(), userId, sqlQuery.getChatId(),
+                    sqlQuery.getOriginalQuery(), sqlQuery.getOptimizedQuery());
+        }
+
+        // id и created_at проставлены при сбросе в коммите
+        return mapToResponse(sqlQuery, originalPlan, optimizedPlan);
     }
 
+    @Transactional(readOnly = true)
     public List<SqlQueryResponse> getQueryHistory(Long chatId, Long userId) {
         log.info("Fetching query history for userId={}, chatId={}", userId, chatId);
 
-        // Validate chat existence
-        chatRepository.findById(chatId)
-                .orElseThrow(() -> new ResourceNotFoundException("Chat not found with ID: " + chatId));
+        chatAccessService.checkOwner(chatId, userId);
 
         List<SqlQuery> queries = sqlQueryRepository.findByMessageChatIdOrderByCreatedAtDesc(chatId);
         return queries.stream()
@@ -617,6 +426,98 @@ public class SqlOptimizationService {
                 .collect(Collectors.toList());
     }
 
+    public CursorPage<SqlQueryResponse> getQueryHistoryPage(Long chatId, Long userId, String cursor, Integer limit) {
+        chatAccessService.checkOwner(chatId, userId);
+
+        PageCursor position = PageCursor.decode(cursor);
+        int pageSize = PageCursor.limit(limit);
+        List<SqlQueryRepository.HistoryView> rows = position == null
+                ? sqlQueryRepository.findHistoryPage(chatId, PageCursor.pageable(pageSize))
+                : sqlQueryRepository.findHistoryPageBefore(chatId, position.getTimestamp(), position.getId(),
+                        PageCursor.pageable(pageSize));
+
+        return PageCursor.toPage(rows, pageSize,
+                SqlQueryRepository.HistoryView::getCreatedAt,
+                SqlQueryRepository.HistoryView::getId,
+                row -> SqlQueryResponse.builder()
+                        .id(row.getId().toString())
+                        .originalQuery(row.getOriginalQuery())
+                        .optimizedQuery(row.getOptimizedQuery())
+                        .executionTimeMs(row.getExecutionTimeMs())
+                        .createdAt(row.getCreatedAt().toString())
+                        .message(MessageDto.builder().id(row.getMessageId()).chatId(chatId).build())
+                        .build());
+    }
+
+    public List<SimilarQueryDto> findSimilarQueries(Long userId, String query, Integer limit) {
+        if (query == null || query.isBlank()) {
+            throw new ApiException("Query must not be empty", HttpStatus.BAD_REQUEST);
+        }
+        return similarQueryIndex.findSimilar(userId, query, limit != null && limit > 0 ? Math.min(limit, 20) : 5);
+    }
+
+    /**
+     * Поиск по всем запросам пользователя, от наиболее релевантных. Ранг не даёт
+     * устойчивого keyset-ключа, поэтому курсор здесь - смещение следующей страницы.
+     */
+    public CursorPage<SqlSearchResultDto> searchHistory(Long userId, String query, String cursor, Integer limit) {
+        if (query == null || query.isBlank()) {
+            throw new ApiException("Search query must not be empty", HttpStatus.BAD_REQUEST);
+        }
+        int offset = decodeSearchOffset(cursor);
+        int pageSize = PageCursor.limit(limit);
+        List<SqlQueryRepository.SearchView> rows = sqlQueryRepository.search(userId, query.trim(), pageSize + 1, offset);
+
+        boolean hasMore = rows.size() > pageSize;
+        List<SqlQueryRepository.SearchView> pageRows = hasMore ? rows.subList(0, pageSize) : rows;
+        return CursorPage.<SqlSearchResultDto>builder()
+                .items(pageRows.stream()
+                        .map(row -> SqlSearchResultDto.builder()
+                                .queryId(row.getId())
+                                .chatId(row.getChatId())
+                                .chatTitle(row.getChatTitle())
+                                .originalQuery(row.getOriginalQuery())
+                                .optimizedQuery(row.getOptimizedQuery())
+                                .createdAt(row.getCreatedAt())
+                                .rank(row.getRank())
+                                .build())
+                        .collect(Collectors.toList()))
+                .nextCursor(hasMore ? String.valueOf(offset + pageSize) : null)
+                .hasMore(hasMore)
+                .build();
+    }
+
+    private static int decodeSearchOffset(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return 0;
+        }
+        try {
+            int offset = Integer.parseInt(cursor);
+            if (offset < 0) {
+                throw new NumberFormatException(cursor);
+            }
+            return offset;
+        } catch (NumberFormatException e) {
+            throw new ApiException("Invalid page cursor", HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @Transactional(readOnly = true)
+    public SqlQueryResponse getQuery(Long queryId, Long userId) {
+        return mapToResponse(findOwnedQuery(queryId, userId));
+    }
+
+    @Transactional(readOnly = true)
+    public String renderQuerySection(Long queryId, Long userId, String section) {
+        OptimizationMessageRenderer.Section parsed = OptimizationMessageRenderer.Section.fromName(section);
+        return messageRenderer.render(findOwnedQuery(queryId, userId), parsed);
+    }
+
+    private SqlQuery findOwnedQuery(Long queryId, Long userId) {
+        return sqlQueryRepository.findByIdAndMessageChatUserId(queryId, userId)
+                .orElseThrow(() -> new ResourceNotFoundException("SQL query not found with ID: " + queryId));
+    }
+
     private void validateSqlQuery(String query) {
         try {
             CCJSqlParserManager parserManager = new CCJSqlParserManager();
@@ -656,21 +557,21 @@ public class SqlOptimizationService {
     }
 
     private ExecutionResult measureQueryExecutionTime(Long connectionId, String query) throws SQLException {
-        if (!query.trim().toUpperCase().startsWith("SELECT")) {
-            log.info("Skipping execution time measurement for non-SELECT query: {}", query);
-            return new ExecutionResult(-1, null);
-        }
-
         Connection connection = databaseConnectionService.getConnection(connectionId);
         String explainQuery = "EXPLAIN ANALYZE " + query;
 
-        try (java.sql.Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(explainQuery)) {
-            StringBuilder output = new StringBuilder();
-            while (rs.next()) {
-                output.append(rs.getString(1)).append("\n");
-            }
-            String explainOutput = output.toString();
+        // UPDATE/DELETE/INSERT тоже измеряются: изменения отменяются откатом песочницы
+        try {
+            String explainOutput = RollbackSandbox.execute(connection, sandboxStatementTimeoutMs, sandboxLockTimeoutMs, sandbox -> {
+                try (Statement stmt = sandbox.createStatement();
+                     ResultSet rs = stmt.executeQuery(explainQuery)) {
+                    StringBuilder output = new StringBuilder();
+                    while (rs.next()) {
+                        output.append(rs.getString(1)).append("\n");
+                    }
+                    return output.toString();
+                }
+            });
             Pattern pattern = Pattern.compile("Execution Time: (\\d+\\.\\d+) ms");
             Matcher matcher = pattern.matcher(explainOutput);
             if (matcher.find()) {
@@ -686,7 +587,39 @@ public class SqlOptimizationService {
         }
     }
 
+    private void publishPartialResponse(Long chatId, String chunk) {
+        if (chatId == null) {
+            return;
+        }
+        messagingTemplate.convertAndSend("/topic/chat/" + chatId, MessageChunkDto.builder()
+                .chatId(chatId)
+                .content(chunk)
+                .partial(true)
+                .build());
+    }
+
+    private String renderSection(LLMResponseParser.Section section) {
+        switch (section.getType()) {
+            case OPTIMIZED_SQL:
+                return "## Оптимизированный SQL-запрос\n\n```sql\n" + section.getContent() + "\n```\n\n";
+            case RATIONALE:
+                return "## Обоснование оптимизации\n\n" + section.getContent() + "\n\n";
+            case IMPACT:
+                return "## Оценка улучшения\n\n" + section.getContent() + "\n\n";
+            case RISKS:
+                return "## Потенциальные риски\n\n" + section.getContent() + "\n\n";
+            case INDEXES:
+                return "## Рекомендуемые индексы\n\n```sql\n" + section.getContent() + "\n```\n\n";
+            default:
+                return section.getContent() + "\n\n";
+        }
+    }
+
     private SqlQueryResponse mapToResponse(SqlQuery sqlQuery) {
+        return mapToResponse(sqlQuery, sqlQuery.getOriginalPlan(), sqlQuery.getOptimizedPlan());
+    }
+
+    private SqlQueryResponse mapToResponse(SqlQuery sqlQuery, QueryPlanResult originalPlan, QueryPlanResult optimizedPlan) {
         SqlQueryResponse response = new SqlQueryResponse();
         response.setId(sqlQuery.getId().toString());
         response.setMessage(MessageDto.fromEntity(sqlQuery.getMessage()));
@@ -697,8 +630,8 @@ public class SqlOptimizationService {
         response.setPotentialRisks(sqlQuery.getPotentialRisks());
         response.setCreatedAt(sqlQuery.getCreatedAt().toString());
         response.setExecutionTimeMs(sqlQuery.getExecutionTimeMs());
-        response.setOriginalPlan(sqlQuery.getOriginalPlan());
-        response.setOptimizedPlan(sqlQuery.getOptimizedPlan());
+        response.setOriginalPlan(originalPlan);
+        response.setOptimizedPlan(optimizedPlan);
         return response;
     }
 
@@ -749,75 +682,70 @@ public class SqlOptimizationService {
     }
 
     private LLMResponse parseLLMResponse(String response) {
-        LLMResponse result = new LLMResponse();
-        
-        try {
-            // Разбиваем ответ на секции
-            String[] sections = response.split("##");
-            
-            for (String section : sections) {
-                if (section.contains("Оптимизированный SQL-запрос")) {
-                    // Извлекаем оптимизированный SQL
-                    int start = section.indexOf("```sql");
-                    if (start != -1) {
-                        start += 6;
-                        int end = section.indexOf("```", start);
-                        if (end != -1) {
-                            result.setOptimizedSql(section.substring(start, end).trim());
-                        }
-                    }
-                } else if (section.contains("Обоснование оптимизации") || section.contains("Обоснование изменений")) {
-                    // Извлекаем обоснование
-                    int start = section.indexOf("###");
-                    if (start != -1) {
-                        start = section.indexOf("\n", start);
-                        if (start != -1) {
-                            result.setOptimizationRationale(section.substring(start).trim());
-                        }
-                    }
-                } else if (section.contains("Оценка улучшения")) {
-                    // Извлекаем оценку улучшения
-                    int start = section.indexOf("###");
-                    if (start != -1) {
-                        start = section.indexOf("\n", start);
-                        if (start != -1) {
-                            result.setPerformanceImpact(section.substring(start).trim());
-                        }
+        LLMResponse result = llmService.isStructuredOutputEnabled()
+                ? StructuredResponseParser.parse(response)
+                : LLMResponseParser.parse(response);
+
+        // Если какие-то поля остались пустыми, устанавливаем значения по умолчанию
+        if (result.getOptimizedSql() == null || result.getOptimizedSql().isEmpty()) {
+            result.setOptimizedSql("Не удалось получить оптимизированную версию запроса");
+        }
+        if (result.getOptimizationRationale() == null || result.getOptimizationRationale().isEmpty()) {
+            result.setOptimizationRationale("Нет данных об обосновании оптимизации");
+        }
+        if (result.getPerformanceImpact() == null || result.getPerformanceImpact().isEmpty()) {
+            result.setPerformanceImpact("Нет данных об оценке улучшения");
+        }
+        if (result.getPotentialRisks() == null || result.getPotentialRisks().isEmpty()) {
+            result.setPotentialRisks("Нет данных о потенциальных рисках");
+        }
+        if (result.getCandidateIndexes() != null && !result.getCandidateIndexes().isEmpty()) {
+            result.setOptimizationRationale(result.getOptimizationRationale()
+                    + "\n\nРекомендуемые индексы:\n" + String.join("\n", result.getCandidateIndexes()));
+        }
+
+        return result;
+    }
+
+    private static class SqlValidation {
+        private final String sql;
+        private final Mono<Optional<String>> result;
+
+        SqlValidation(String sql, Mono<Optional<String>> result) {
+            this.sql = sql;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Проверяет синтаксис оптимизированного запроса и, если есть подключение,
+     * выполняет для него EXPLAIN без ANALYZE. Возвращает текст ошибки или пустое значение.
+     */
+    private Mono<Optional<String>> validateOptimizedSql(String sql, Long connectionId) {
+        return Mono.fromCallable(() -> {
+                    try {
+                        new CCJSqlParserManager().parse(new StringReader(sql));
+                    } catch (JSQLParserException e) {
+                        String reason = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+                        return Optional.of("синтаксическая ошибка: " + reason);
                     }
-                } else if (section.contains("Потенциальные риски")) {
-                    // Извлекаем потенциальные риски
-                    int start = section.indexOf("###");
-                    if (start != -1) {
-                        start = section.indexOf("\n", start);
-                        if (start != -1) {
-                            result.setPotentialRisks(section.substring(start).trim());
+                    if (connectionId != null) {
+                        // EXPLAIN идёт параллельно с генерацией на общем соединении: песочница
+                        // сериализует доступ к нему и ограничивает ожидание блокировок
+                        Connection connection = databaseConnectionService.getConnection(connectionId);
+                        try {
+                            RollbackSandbox.execute(connection, sandboxStatementTimeoutMs, sandboxLockTimeoutMs, sandbox -> {
+                                try (Statement statement = sandbox.createStatement()) {
+                                    return statement.execute("EXPLAIN " + sql);
+                                }
+                            });
+                        } catch (SQLException e) {
+                            return Optional.of(e.getMessage());
                         }
                     }
-                }
-            }
-            
-            // Если какие-то поля остались пустыми, устанавливаем значения по умолчанию
-            if (result.getOptimizedSql() == null || result.getOptimizedSql().isEmpty()) {
-                result.setOptimizedSql("Не удалось получить оптимизированную версию запроса");
-            }
-            if (result.getOptimizationRationale() == null || result.getOptimizationRationale().isEmpty()) {
-                result.setOptimizationRationale("Нет данных об обосновании оптимизации");
-            }
-            if (result.getPerformanceImpact() == null || result.getPerformanceImpact().isEmpty()) {
-                result.setPerformanceImpact("Нет данных об оценке улучшения");
-            }
-            if (result.getPotentialRisks() == null || result.getPotentialRisks().isEmpty()) {
-                result.setPotentialRisks("Нет данных о потенциальных рисках");
-            }
-            
-        } catch (Exception e) {
-            log.error("Error parsing LLM response: {}", e.getMessage());
-            result.setOptimizedSql("Ошибка при разборе ответа от LLM");
-            result.setOptimizationRationale("Не удалось разобрать ответ от LLM");
-            result.setPerformanceImpact("Нет данных");
-            result.setPotentialRisks("Нет данных");
-        }
-        
-        return result;
+                    return Optional.<String>empty();
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .cache();
     }
 }
\ No newline at end of file
@@ -0,0 +1,104 @@
+package com.example.backend.util;
+
+import com.example.backend.model.entity.ContentBlob;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Сериализация значений в ContentBlob: JSON, SHA-256 от JSON как ключ, gzip для хранения.
+ */
+public final class ContentCodec {
+
+    public static final String ENCODING_GZIP = "gzip";
+    // Данные, перенесённые миграцией из jsonb без сжатия; V11 перекодирует их в gzip
+    public static final String ENCODING_IDENTITY = "identity";
+
+    // Сортировка ключей делает JSON детерминированным, иначе одинаковые снимки получат разные хеши
+    private static final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true)
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private ContentCodec() {
+    }
+
+    public static ContentBlob encode(String kind, Object value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            byte[] json = canonicalJson(value);
+            ContentBlob blob = ContentBlob.builder()
+                    .hash(sha256(json))
+                    .kind(kind)
+                    .encoding(ENCODING_GZIP)
+                    .data(gzip(json))
+                    .rawSize(json.length)
+                    .build();
+            blob.setDecoded(value);
+            return blob;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode " + kind + " content", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> T decode(ContentBlob blob, TypeReference<T> type) {
+        if (blob == null) {
+            return null;
+        }
+        Object decoded = blob.getDecoded();
+        if (decoded != null) {
+            return (T) decoded;
+        }
+        try {
+            byte[] json = ENCODING_GZIP.equals(blob.getEncoding()) ? gunzip(blob.getData()) : blob.getData();
+            T value = objectMapper.readValue(json, type);
+            blob.setDecoded(value);
+            return value;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to decode content blob " + blob.getHash(), e);
+        }
+    }
+
+    /**
+     * JSON с ключами, отсортированными на всех уровнях, включая поля объектов: так же
+     * сериализует перенесённые блобы V11, и одинаковое содержимое получает один хеш.
+     */
+    private static byte[] canonicalJson(Object value) throws IOException {
+        return objectMapper.writeValueAsBytes(objectMapper.convertValue(value, Object.class));
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return gzip.readAllBytes();
+        }
+    }
+}
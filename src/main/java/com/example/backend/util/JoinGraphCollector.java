@@ -0,0 +1,199 @@
+package com.example.backend.util;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.ExpressionVisitorAdapter;
+import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
+import net.sf.jsqlparser.parser.CCJSqlParserManager;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.schema.Table;
+import net.sf.jsqlparser.statement.Statement;
+import net.sf.jsqlparser.statement.select.FromItem;
+import net.sf.jsqlparser.statement.select.Join;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.select.Select;
+import net.sf.jsqlparser.statement.select.SelectBody;
+import net.sf.jsqlparser.statement.select.SetOperationList;
+
+/**
+ * Собирает граф соединений запроса: пары колонок разных таблиц,
+ * связанные равенством в ON или WHERE.
+ */
+public class JoinGraphCollector {
+
+    public static class JoinEdge {
+        private final String leftTable;
+        private final String leftColumn;
+        private final String rightTable;
+        private final String rightColumn;
+
+        public JoinEdge(String leftTable, String leftColumn, String rightTable, String rightColumn) {
+            this.leftTable = leftTable;
+            this.leftColumn = leftColumn;
+            this.rightTable = rightTable;
+            this.rightColumn = rightColumn;
+        }
+
+        public String getLeftTable() { return leftTable; }
+        public String getLeftColumn() { return leftColumn; }
+        public String getRightTable() { return rightTable; }
+        public String getRightColumn() { return rightColumn; }
+
+        public boolean touches(String table, String column) {
+            return (leftTable.equals(table) && leftColumn.equals(column))
+                    || (rightTable.equals(table) && rightColumn.equals(column));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof JoinEdge)) return false;
+            JoinEdge other = (JoinEdge) o;
+            return leftTable.equals(other.leftTable) && leftColumn.equals(other.leftColumn)
+                    && rightTable.equals(other.rightTable) && rightColumn.equals(other.rightColumn);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(leftTable, leftColumn, rightTable, rightColumn);
+        }
+
+        @Override
+        public String toString() {
+            return leftTable + "." + leftColumn + " = " + rightTable + "." + rightColumn;
+        }
+    }
+
+    public static List<JoinEdge> collectJoinEdges(String sql) {
+        try {
+            CCJSqlParserManager parserManager = new CCJSqlParserManager();
+            Statement statement = parserManager.parse(new StringReader(sql));
+
+            Set<JoinEdge> edges = new LinkedHashSet<>();
+            if (statement instanceof Select) {
+                collectFromSelectBody(((Select) statement).getSelectBody(), edges);
+            }
+            return new ArrayList<>(edges);
+        } catch (JSQLParserException e) {
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Возвращает отображение алиас -> имя таблицы (в нижнем регистре, без схемы).
+     */
+    public static Map<String, String> collectAliases(String sql) {
+        Map<String, String> aliases = new HashMap<>();
+        try {
+            CCJSqlParserManager parserManager = new CCJSqlParserManager();
+            Statement statement = parserManager.parse(new StringReader(sql));
+            if (statement instanceof Select) {
+                collectAliasesFromSelectBody(((Select) statement).getSelectBody(), aliases);
+            }
+        } catch (JSQLParserException e) {
+            // Запрос не разбирается - алиасов нет
+        }
+        return aliases;
+    }
+
+    private static void collectFromSelectBody(SelectBody selectBody, Set<JoinEdge> edges) {
+        if (selectBody instanceof PlainSelect) {
+            PlainSelect plainSelect = (PlainSelect) selectBody;
+            Map<String, String> aliases = new HashMap<>();
+            collectAliasesFromSelectBody(plainSelect, aliases);
+
+            List<Expression> predicates = new ArrayList<>();
+            if (plainSelect.getJoins() != null) {
+                for (Join join : plainSelect.getJoins()) {
+                    if (join.getOnExpressions() != null) {
+                        predicates.addAll(join.getOnExpressions());
+                    }
+                }
+            }
+            if (plainSelect.getWhere() != null) {
+                predicates.add(plainSelect.getWhere());
+            }
+
+            for (Expression predicate : predicates) {
+                predicate.accept(new ExpressionVisitorAdapter() {
+                    @Override
+                    public void visit(EqualsTo equalsTo) {
+                        if (equalsTo.getLeftExpression() instanceof Column
+                                && equalsTo.getRightExpression() instanceof Column) {
+                            addEdge((Column) equalsTo.getLeftExpression(),
+                                    (Column) equalsTo.getRightExpression(), aliases, edges);
+                        }
+                        super.visit(equalsTo);
+                    }
+                });
+            }
+        } else if (selectBody instanceof SetOperationList) {
+            for (SelectBody select : ((SetOperationList) selectBody).getSelects()) {
+                collectFromSelectBody(select, edges);
+            }
+        }
+    }
+
+    private static void addEdge(Column left, Column right, Map<String, String> aliases, Set<JoinEdge> edges) {
+        String leftTable = resolveTable(left, aliases);
+        String rightTable = resolveTable(right, aliases);
+        if (leftTable == null || rightTable == null || leftTable.equals(rightTable)) {
+            return;
+        }
+
+        String leftColumn = left.getColumnName().toLowerCase();
+        String rightColumn = right.getColumnName().toLowerCase();
+
+        // Нормализуем порядок, чтобы a.x = b.y и b.y = a.x давали одно ребро
+        if (leftTable.compareTo(rightTable) <= 0) {
+            edges.add(new JoinEdge(leftTable, leftColumn, rightTable, rightColumn));
+        } else {
+            edges.add(new JoinEdge(rightTable, rightColumn, leftTable, leftColumn));
+        }
+    }
+
+    private static String resolveTable(Column column, Map<String, String> aliases) {
+        Table table = column.getTable();
+        if (table == null || table.getName() == null) {
+            return null;
+        }
+        String qualifier = table.getName().toLowerCase();
+        return aliases.getOrDefault(qualifier, qualifier);
+    }
+
+    private static void collectAliasesFromSelectBody(SelectBody selectBody, Map<String, String> aliases) {
+        if (selectBody instanceof PlainSelect) {
+            PlainSelect plainSelect = (PlainSelect) selectBody;
+            registerAlias(plainSelect.getFromItem(), aliases);
+            if (plainSelect.getJoins() != null) {
+                for (Join join : plainSelect.getJoins()) {
+                    registerAlias(join.getRightItem(), aliases);
+                }
+            }
+        } else if (selectBody instanceof SetOperationList) {
+            for (SelectBody select : ((SetOperationList) selectBody).getSelects()) {
+                collectAliasesFromSelectBody(select, aliases);
+            }
+        }
+    }
+
+    private static void registerAlias(FromItem fromItem, Map<String, String> aliases) {
+        if (fromItem instanceof Table) {
+            Table table = (Table) fromItem;
+            String name = table.getName().toLowerCase();
+            aliases.put(name, name);
+            if (table.getAlias() != null) {
+                aliases.put(table.getAlias().getName().toLowerCase(), name);
+            }
+        }
+    }
+}
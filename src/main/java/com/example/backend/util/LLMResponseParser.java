@@ -0,0 +1,256 @@
+package com.example.backend.util;
+
+import com.example.backend.model.LLMResponse;
+
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Однопроходный разбор ответа LLM на секции. Текст подаётся кусками (feed),
+ * каждая секция отдаётся слушателю сразу после завершения, поэтому SQL можно
+ * проверять, пока модель ещё пишет обоснование.
+ */
+public class LLMResponseParser implements ResponseSectionParser {
+
+    public enum SectionType {
+        OPTIMIZED_SQL,
+        RATIONALE,
+        IMPACT,
+        RISKS,
+        INDEXES,
+        OTHER
+    }
+
+    public static class Section {
+        private final SectionType type;
+        private final String content;
+
+        public Section(SectionType type, String content) {
+            this.type = type;
+            this.content = content;
+        }
+
+        public SectionType getType() { return type; }
+        public String getContent() { return content; }
+    }
+
+    private static final Pattern SQL_START_PATTERN =
+            Pattern.compile("(?is)^\\s*(select|with|insert|update|delete|merge|explain)\\b.*");
+
+    private final Consumer<Section> listener;
+    private final StringBuilder line = new StringBuilder();
+    private final StringBuilder sectionContent = new StringBuilder();
+    private final StringBuilder fenceContent = new StringBuilder();
+
+    private SectionType sectionType;
+    private int sectionLevel;
+    private boolean inFence;
+    private String fenceLanguage;
+    private String sectionSql;
+    private String lastSql;
+    private boolean sqlEmitted;
+    private boolean finished;
+
+    private String optimizedSql;
+    private String rationale;
+    private String impact;
+    private String risks;
+
+    public LLMResponseParser() {
+        this(section -> { });
+    }
+
+    public LLMResponseParser(Consumer<Section> listener) {
+        this.listener = listener;
+    }
+
+    public static LLMResponse parse(String text) {
+        LLMResponseParser parser = new LLMResponseParser();
+        parser.feed(text);
+        parser.finish();
+        return parser.getResult();
+    }
+
+    @Override
+    public void feed(CharSequence chunk) {
+        if (chunk == null || finished) {
+            return;
+        }
+        for (int i = 0; i < chunk.length(); i++) {
+            char c = chunk.charAt(i);
+            if (c == '\n') {
+                processLine(line.toString());
+                line.setLength(0);
+            } else if (c != '\r') {
+                line.append(c);
+            }
+        }
+    }
+
+    @Override
+    public void finish() {
+        if (finished) {
+            return;
+        }
+        if (line.length() > 0) {
+            processLine(line.toString());
+            line.setLength(0);
+        }
+        // Незакрытый блок кода считаем закрытым в конце ответа
+        if (inFence) {
+            closeFence();
+        }
+        closeSection();
+        // SQL без заголовка секции: берём последний блок кода, похожий на запрос
+        // (первым модели обычно повторяют исходный запрос)
+        if (optimizedSql == null && lastSql != null) {
+            optimizedSql = lastSql;
+            emitSql(lastSql);
+        }
+        finished = true;
+    }
+
+    @Override
+    public LLMResponse getResult() {
+        return LLMResponse.builder()
+                .optimizedSql(optimizedSql)
+                .optimizationRationale(rationale)
+                .performanceImpact(impact)
+                .potentialRisks(risks)
+                .build();
+    }
+
+    // Ответ уже содержит все секции шаблона
+    public boolean isComplete() {
+        return optimizedSql != null && rationale != null && impact != null && risks != null;
+    }
+
+    private void processLine(String text) {
+        String trimmed = text.trim();
+
+        if (inFence) {
+            if (trimmed.startsWith("```")) {
+                closeFence();
+            } else {
+                fenceContent.append(text).append('\n');
+            }
+            sectionContent.append(text).append('\n');
+            return;
+        }
+
+        if (trimmed.startsWith("```")) {
+            inFence = true;
+            fenceLanguage = trimmed.substring(3).trim().toLowerCase(Locale.ROOT);
+            fenceContent.setLength(0);
+            sectionContent.append(text).append('\n');
+            return;
+        }
+
+        if (trimmed.startsWith("#")) {
+            int level = 0;
+            while (level < trimmed.length() && trimmed.charAt(level) == '#') {
+                level++;
+            }
+            String title = trimmed.substring(level).trim();
+            SectionType type = classify(title);
+            // Подзаголовок внутри известной секции остаётся её частью
+            if (type == SectionType.OTHER && sectionType != null && sectionType != SectionType.OTHER
+                    && level > sectionLevel) {
+                sectionContent.append(text).append('\n');
+                return;
+            }
+            closeSection();
+            sectionType = type;
+            sectionLevel = level;
+            return;
+        }
+
+        sectionContent.append(text).append('\n');
+    }
+
+    private void closeFence() {
+        inFence = false;
+        String code = fenceContent.toString().trim();
+        boolean sqlFence = "sql".equals(fenceLanguage) || "postgresql".equals(fenceLanguage)
+                || (fenceLanguage.isEmpty() && SQL_START_PATTERN.matcher(code).matches());
+        if (!sqlFence || code.isEmpty()) {
+            return;
+        }
+        lastSql = code;
+        if (sectionType == SectionType.OPTIMIZED_SQL && sectionSql == null) {
+            sectionSql = code;
+            optimizedSql = code;
+            // SQL готов раньше, чем закончится секция - отдаём сразу
+            emitSql(code);
+        }
+    }
+
+    private void closeSection() {
+        if (sectionType == null) {
+            sectionContent.setLength(0);
+            return;
+        }
+        String content = sectionContent.toString().trim();
+        switch (sectionType) {
+            case OPTIMIZED_SQL:
+                if (sectionSql == null && !content.isEmpty() && SQL_START_PATTERN.matcher(content).matches()) {
+                    // SQL без блока кода
+                    optimizedSql = content;
+                    emitSql(content);
+                }
+                break;
+            case RATIONALE:
+                rationale = appendTo(rationale, content);
+                listener.accept(new Section(SectionType.RATIONALE, content));
+                break;
+            case IMPACT:
+                impact = appendTo(impact, content);
+                listener.accept(new Section(SectionType.IMPACT, content));
+                break;
+            case RISKS:
+                risks = appendTo(risks, content);
+                listener.accept(new Section(SectionType.RISKS, content));
+                break;
+            default:
+                listener.accept(new Section(SectionType.OTHER, content));
+                break;
+        }
+        sectionType = null;
+        sectionSql = null;
+        sectionContent.setLength(0);
+    }
+
+    private void emitSql(String sql) {
+        if (!sqlEmitted) {
+            sqlEmitted = true;
+            listener.accept(new Section(SectionType.OPTIMIZED_SQL, sql));
+        }
+    }
+
+    private static String appendTo(String existing, String content) {
+        if (content.isEmpty()) {
+            return existing;
+        }
+        return existing == null ? content : existing + "\n\n" + content;
+    }
+
+    private static SectionType classify(String title) {
+        String lower = title.toLowerCase(Locale.ROOT);
+        if ((lower.contains("оптимизированн") && (lower.contains("sql") || lower.contains("запрос")))
+                || lower.contains("optimized query") || lower.contains("optimized sql")) {
+            return SectionType.OPTIMIZED_SQL;
+        }
+        if (lower.contains("обоснование") || lower.contains("rationale")) {
+            return SectionType.RATIONALE;
+        }
+        if (lower.contains("оценка улучшения") || lower.contains("ожидаемое улучшение")
+                || lower.contains("performance impact")) {
+            return SectionType.IMPACT;
+        }
+        if (lower.contains("риск") || lower.contains("risk")) {
+            return SectionType.RISKS;
+        }
+        return SectionType.OTHER;
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.backend.util;
+
+import com.example.backend.exception.ApiException;
+import com.example.backend.model.dto.CursorPage;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpStatus;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Курсор keyset-пагинации: позиция последней строки страницы (время, id),
+ * закодированная в base64url. Следующая страница начинается строго после неё.
+ */
+public final class PageCursor {
+
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 200;
+
+    private final LocalDateTime timestamp;
+    private final Long id;
+
+    private PageCursor(LocalDateTime timestamp, Long id) {
+        this.timestamp = timestamp;
+        this.id = id;
+    }
+
+    public LocalDateTime getTimestamp() {
+        return timestamp;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public static PageCursor decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = value.lastIndexOf('|');
+            return new PageCursor(LocalDateTime.parse(value.substring(0, separator)),
+                    Long.parseLong(value.substring(separator + 1)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+            throw new ApiException("Invalid page cursor", HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    public static String encode(LocalDateTime timestamp, Long id) {
+        String value = timestamp + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Запрашиваем на одну строку больше, чтобы узнать, есть ли следующая страница
+    public static Pageable pageable(int limit) {
+        return PageRequest.ofSize(limit + 1);
+    }
+
+    public static int limit(Integer requested) {
+        if (requested == null || requested <= 0) {
+            return DEFAULT_LIMIT;
+        }
+        return Math.min(requested, MAX_LIMIT);
+    }
+
+    public static <T, R> CursorPage<R> toPage(List<T> rows, int limit,
+                                              Function<T, LocalDateTime> timestamp,
+                                              Function<T, Long> id,
+                                              Function<T, R> mapper) {
+        boolean hasMore = rows.size() > limit;
+        List<T> pageRows = hasMore ? rows.subList(0, limit) : rows;
+        String nextCursor = null;
+        if (hasMore) {
+            T last = pageRows.get(pageRows.size() - 1);
+            nextCursor = encode(timestamp.apply(last), id.apply(last));
+        }
+        return CursorPage.<R>builder()
+                .items(pageRows.stream().map(mapper).collect(Collectors.toList()))
+                .nextCursor(nextCursor)
+                .hasMore(hasMore)
+                .build();
+    }
+}
@@ -4,19 +4,31 @@ import com.example.sqlopt.ast.Operation;
 import com.example.sqlopt.ast.OperationType;
 import com.example.sqlopt.ast.QueryPlanResult;
 import com.example.backend.model.ExecutionResult;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.Statement;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class QueryPlanAnalyzer {
     private static final Logger logger = LoggerFactory.getLogger(QueryPlanAnalyzer.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final Pattern MOTION_PATTERN = Pattern.compile("(Redistribute|Broadcast) Motion");
+    private static final Pattern SEGMENTS_PATTERN = Pattern.compile("segments: (\\d+)");
+    private static final Pattern SENDERS_PATTERN = Pattern.compile("Motion (\\d+):(\\d+)");
+    private static final Pattern RELATION_PATTERN = Pattern.compile(" on (\\S+)");
+    private static final Pattern ACTUAL_TIME_PATTERN =
+            Pattern.compile("actual time=(\\d+\\.?\\d*)\\.\\.(\\d+\\.?\\d*) rows=\\d+ loops=(\\d+)");
+    private static final Pattern COST_RANGE_PATTERN = Pattern.compile("cost=(\\d+\\.?\\d*)\\.\\.(\\d+\\.?\\d*)");
 
     public static class PlanMetrics {
         private final double executionTime;
@@ -47,7 +59,44 @@ public class QueryPlanAnalyzer {
         public List<OperationType> getOperations() { return operations; }
     }
 
-    public static PlanMetrics analyzePlan(Connection conn, String query, boolean isMPP) {
+    public static class MotionInfo {
+        private final OperationType type;
+        private final long rows;
+        private final int width;
+        private final int segments;
+        private final List<String> hashKeys;
+        private final String sourceRelation;
+
+        public MotionInfo(OperationType type, long rows, int width, int segments,
+                          List<String> hashKeys, String sourceRelation) {
+            this.type = type;
+            this.rows = rows;
+            this.width = width;
+            this.segments = segments;
+            this.hashKeys = hashKeys;
+            this.sourceRelation = sourceRelation;
+        }
+
+        public OperationType getType() { return type; }
+        public long getRows() { return rows; }
+        public int getWidth() { return width; }
+        public int getSegments() { return segments; }
+        public List<String> getHashKeys() { return hashKeys; }
+        public String getSourceRelation() { return sourceRelation; }
+
+        // Объем пересылаемых данных: broadcast копирует строки на каждый сегмент
+        public long getEstimatedBytes() {
+            long bytes = rows * (long) Math.max(width, 1);
+            return type == OperationType.BROADCAST_MOTION ? bytes * Math.max(segments, 1) : bytes;
+        }
+    }
+
+    /**
+     * EXPLAIN ANALYZE выполняет запрос, поэтому анализ идёт в откатываемой транзакции
+     * с ограничениями по времени: DML даёт реальный план и время без изменения данных.
+     */
+    public static PlanMetrics analyzePlan(Connection conn, String query, boolean isMPP,
+                                          long statementTimeoutMs, long lockTimeoutMs) {
         if (conn == null) {
             logger.info("No database connection provided, skipping plan analysis");
             return null;
@@ -58,17 +107,18 @@ public class QueryPlanAnalyzer {
                 "EXPLAIN (ANALYZE, BUFFERS, FORMAT JSON) " + query :
                 "EXPLAIN (ANALYZE, BUFFERS) " + query;
 
-            try (Statement stmt = conn.createStatement();
-                 ResultSet rs = stmt.executeQuery(explainQuery)) {
+            String plan = RollbackSandbox.execute(conn, statementTimeoutMs, lockTimeoutMs, sandbox -> {
+                try (Statement stmt = sandbox.createStatement();
+                     ResultSet rs = stmt.executeQuery(explainQuery)) {
 
-                StringBuilder planText = new StringBuilder();
-                while (rs.next()) {
-                    planText.append(rs.getString(1)).append("\n");
+                    StringBuilder planText = new StringBuilder();
+                    while (rs.next()) {
+                        planText.append(rs.getString(1)).append("\n");
+                    }
+                    return planText.toString();
                 }
-
-                String plan = planText.toString();
-                return parsePlanMetrics(plan, isMPP);
-            }
+            });
+            return parsePlanMetrics(plan, isMPP);
         } catch (Exception e) {
             logger.warn("Failed to analyze query plan: {}", e.getMessage());
             return null;
@@ -221,4 +271,191 @@ public class QueryPlanAnalyzer {
             metrics.getPlanText()
         );
     }
+
+    /**
+     * Извлекает redistribute/broadcast motion из плана Greenplum
+     * (текстовый формат или FORMAT JSON).
+     */
+    public static List<MotionInfo> extractMotions(String plan) {
+        if (plan == null || plan.isBlank()) {
+            return new ArrayList<>();
+        }
+        String trimmed = plan.trim();
+        if (trimmed.startsWith("[") || trimmed.startsWith("{")) {
+            return extractMotionsFromJson(trimmed);
+        }
+        return extractMotionsFromText(plan);
+    }
+
+    private static List<MotionInfo> extractMotionsFromText(String plan) {
+        List<MotionInfo> motions = new ArrayList<>();
+        String[] lines = plan.split("\n");
+
+        for (int i = 0; i < lines.length; i++) {
+            Matcher motionMatcher = MOTION_PATTERN.matcher(lines[i]);
+            if (!motionMatcher.find()) {
+                continue;
+            }
+            OperationType type = "Broadcast".equals(motionMatcher.group(1))
+                    ? OperationType.BROADCAST_MOTION
+                    : OperationType.REDISTRIBUTE_MOTION;
+            String line = lines[i];
+            int indent = indentOf(line);
+
+            List<String> hashKeys = new ArrayList<>();
+            String sourceRelation = null;
+            // Просматриваем поддерево motion: строки с большим отступом
+            for (int j = i + 1; j < lines.length && indentOf(lines[j]) > indent; j++) {
+                String child = lines[j].trim();
+                if (child.startsWith("Hash Key:") && hashKeys.isEmpty()) {
+                    for (String key : child.substring("Hash Key:".length()).split(",")) {
+                        hashKeys.add(key.trim());
+                    }
+                } else if (sourceRelation == null && child.contains("Scan")) {
+                    Matcher relationMatcher = RELATION_PATTERN.matcher(child);
+                    if (relationMatcher.find()) {
+                        sourceRelation = relationMatcher.group(1);
+                    }
+                }
+            }
+
+            motions.add(new MotionInfo(type, extractRows(line), extractWidth(line),
+                    extractSegments(line), hashKeys, sourceRelation));
+        }
+        return motions;
+    }
+
+    private static List<MotionInfo> extractMotionsFromJson(String plan) {
+        List<MotionInfo> motions = new ArrayList<>();
+        try {
+            JsonNode root = objectMapper.readTree(plan);
+            if (root.isArray()) {
+                for (JsonNode element : root) {
+                    collectJsonMotions(element.path("Plan"), motions);
+                }
+            } else {
+                collectJsonMotions(root.path("Plan"), motions);
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to parse JSON plan for motions: {}", e.getMessage());
+        }
+        return motions;
+    }
+
+    private static void collectJsonMotions(JsonNode node, List<MotionInfo> motions) {
+        if (node == null || node.isMissingNode()) {
+            return;
+        }
+        String nodeType = node.path("Node Type").asText("");
+        if (nodeType.contains("Redistribute Motion") || nodeType.contains("Broadcast Motion")) {
+            OperationType type = nodeType.contains("Broadcast")
+                    ? OperationType.BROADCAST_MOTION
+                    : OperationType.REDISTRIBUTE_MOTION;
+
+            List<String> hashKeys = new ArrayList<>();
+            JsonNode keys = node.path("Hash Key");
+            if (keys.isArray()) {
+                keys.forEach(key -> hashKeys.add(key.asText()));
+            } else if (keys.isTextual()) {
+                for (String key : keys.asText().split(",")) {
+                    hashKeys.add(key.trim());
+                }
+            }
+
+            int segments = node.path("Receivers").asInt(node.path("Segments").asInt(1));
+            motions.add(new MotionInfo(type, node.path("Plan Rows").asLong(0),
+                    node.path("Plan Width").asInt(0), segments, hashKeys, findJsonRelation(node)));
+        }
+        for (JsonNode child : node.path("Plans")) {
+            collectJsonMotions(child, motions);
+        }
+    }
+
+    private static String findJsonRelation(JsonNode node) {
+        for (JsonNode child : node.path("Plans")) {
+            if (child.hasNonNull("Relation Name")) {
+                return child.get("Relation Name").asText();
+            }
+            String nested = findJsonRelation(child);
+            if (nested != null) {
+                return nested;
+            }
+        }
+        return null;
+    }
+
+    private static int extractSegments(String line) {
+        Matcher matcher = SEGMENTS_PATTERN.matcher(line);
+        if (matcher.find()) {
+            return Integer.parseInt(matcher.group(1));
+        }
+        Matcher sendersMatcher = SENDERS_PATTERN.matcher(line);
+        return sendersMatcher.find() ? Integer.parseInt(sendersMatcher.group(2)) : 1;
+    }
+
+    private static int indentOf(String line) {
+        int indent = 0;
+        while (indent < line.length() && line.charAt(indent) == ' ') {
+            indent++;
+        }
+        return indent;
+    }
+
+    /**
+     * Возвращает самые "горячие" узлы текстового плана, упорядоченные по
+     * собственному времени (actual time минус время дочерних узлов), а если
+     * плана с ANALYZE нет - по собственной стоимости.
+     */
+    public static List<String> extractHotNodes(String plan, int limit) {
+        List<String> result = new ArrayList<>();
+        if (plan == null || plan.isBlank() || limit <= 0) {
+            return result;
+        }
+
+        List<String> nodeLines = new ArrayList<>();
+        List<Double> selfWeights = new ArrayList<>();
+        Deque<int[]> stack = new ArrayDeque<>(); // {индекс узла, отступ}
+
+        for (String line : plan.split("\n")) {
+            double total = nodeWeight(line);
+            if (total < 0) {
+                continue;
+            }
+            int indent = indentOf(line);
+            while (!stack.isEmpty() && stack.peek()[1] >= indent) {
+                stack.pop();
+            }
+            int index = nodeLines.size();
+            if (!stack.isEmpty()) {
+                int parent = stack.peek()[0];
+                selfWeights.set(parent, selfWeights.get(parent) - total);
+            }
+            nodeLines.add(line.trim().replaceFirst("^->\\s*", ""));
+            selfWeights.add(total);
+            stack.push(new int[]{index, indent});
+        }
+
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < nodeLines.size(); i++) {
+            order.add(i);
+        }
+        order.sort((a, b) -> Double.compare(Math.max(selfWeights.get(b), 0), Math.max(selfWeights.get(a), 0)));
+        for (int i = 0; i < Math.min(limit, order.size()); i++) {
+            result.add(nodeLines.get(order.get(i)));
+        }
+        return result;
+    }
+
+    // Суммарное время узла с учетом loops, либо верхняя оценка стоимости; -1 для строк, не являющихся узлами
+    private static double nodeWeight(String line) {
+        Matcher timeMatcher = ACTUAL_TIME_PATTERN.matcher(line);
+        if (timeMatcher.find()) {
+            return Double.parseDouble(timeMatcher.group(2)) * Long.parseLong(timeMatcher.group(3));
+        }
+        Matcher costMatcher = COST_RANGE_PATTERN.matcher(line);
+        if (costMatcher.find()) {
+            return Double.parseDouble(costMatcher.group(2));
+        }
+        return -1;
+    }
 }
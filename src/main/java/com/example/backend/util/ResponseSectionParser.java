@@ -0,0 +1,15 @@
+package com.example.backend.util;
+
+import com.example.backend.model.LLMResponse;
+
+/**
+ * Потоковый разбор ответа LLM: текст подаётся кусками, результат доступен после finish().
+ */
+public interface ResponseSectionParser {
+
+    void feed(CharSequence chunk);
+
+    void finish();
+
+    LLMResponse getResult();
+}
@@ -0,0 +1,52 @@
+package com.example.backend.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Выполнение работы с пользовательской БД в транзакции, которая всегда откатывается.
+ * EXPLAIN ANALYZE для UPDATE/DELETE/INSERT реально выполняет запрос, поэтому изменения
+ * данных отменяются откатом, а statement_timeout и lock_timeout (SET LOCAL) ограничивают
+ * время выполнения и ожидание блокировок только внутри этой транзакции.
+ * Соединения к пользовательским БД общие (кэш по connectionId), поэтому вся работа
+ * с ними идёт через песочницу: иначе чужой запрос попадёт в её транзакцию или
+ * получит "current transaction is aborted" после таймаута.
+ */
+public final class RollbackSandbox {
+    private static final Logger logger = LoggerFactory.getLogger(RollbackSandbox.class);
+
+    @FunctionalInterface
+    public interface SqlWork<T> {
+        T run(Connection connection) throws SQLException;
+    }
+
+    private RollbackSandbox() {
+    }
+
+    public static <T> T execute(Connection connection, long statementTimeoutMs, long lockTimeoutMs,
+                                SqlWork<T> work) throws SQLException {
+        // Соединение берётся из общего кэша по connectionId - транзакции разных запросов не должны перемежаться
+        synchronized (connection) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute("SET LOCAL statement_timeout = " + Math.max(statementTimeoutMs, 0));
+                    stmt.execute("SET LOCAL lock_timeout = " + Math.max(lockTimeoutMs, 0));
+                }
+                return work.run(connection);
+            } finally {
+                try {
+                    connection.rollback();
+                    connection.setAutoCommit(autoCommit);
+                } catch (SQLException e) {
+                    logger.error("Failed to roll back sandbox transaction: {}", e.getMessage());
+                }
+            }
+        }
+    }
+}
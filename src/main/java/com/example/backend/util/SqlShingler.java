@@ -0,0 +1,67 @@
+package com.example.backend.util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Нормализация SQL для поиска похожих запросов: комментарии отбрасываются,
+ * литералы заменяются на ?, идентификаторы и ключевые слова приводятся к нижнему
+ * регистру. Шинглы - хеши последовательностей из size соседних токенов, поэтому
+ * запросы, отличающиеся лишней колонкой или условием, делят большую часть шинглов.
+ */
+public final class SqlShingler {
+
+    private static final Pattern COMMENT_PATTERN = Pattern.compile("--[^\\n]*|/\\*.*?\\*/", Pattern.DOTALL);
+    private static final Pattern TOKEN_PATTERN = Pattern.compile(
+            "'(?:''|[^'])*'"                 // строковый литерал
+                    + "|\"(?:\"\"|[^\"])*\""     // идентификатор в кавычках
+                    + "|\\d+(?:\\.\\d+)?(?:[eE][+-]?\\d+)?"
+                    + "|[A-Za-z_][A-Za-z0-9_$]*"
+                    + "|<=|>=|<>|!=|::|\\|\\||[^\\sA-Za-z0-9_]");
+
+    private SqlShingler() {
+    }
+
+    public static List<String> tokens(String sql) {
+        List<String> tokens = new ArrayList<>();
+        if (sql == null) {
+            return tokens;
+        }
+        Matcher matcher = TOKEN_PATTERN.matcher(COMMENT_PATTERN.matcher(sql).replaceAll(" "));
+        while (matcher.find()) {
+            String token = matcher.group();
+            char first = token.charAt(0);
+            if (first == '\'' || Character.isDigit(first)) {
+                tokens.add("?");
+            } else if (first == '"') {
+                tokens.add(token.substring(1, token.length() - 1).toLowerCase(Locale.ROOT));
+            } else if (!token.equals(";")) {
+                tokens.add(token.toLowerCase(Locale.ROOT));
+            }
+        }
+        return tokens;
+    }
+
+    public static Set<Long> shingles(String sql, int size) {
+        List<String> tokens = tokens(sql);
+        Set<Long> shingles = new HashSet<>();
+        if (tokens.isEmpty()) {
+            return shingles;
+        }
+        // Запрос короче шингла - один шингл из всех токенов
+        int width = Math.min(size, tokens.size());
+        for (int i = 0; i + width <= tokens.size(); i++) {
+            long hash = 1125899906842597L;
+            for (int j = i; j < i + width; j++) {
+                hash = 31 * hash + tokens.get(j).hashCode();
+            }
+            shingles.add(hash);
+        }
+        return shingles;
+    }
+}
@@ -0,0 +1,368 @@
+package com.example.backend.util;
+
+import com.example.backend.model.LLMResponse;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.core.json.JsonReadFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Разбор ответа в режиме структурированного вывода. Пока JSON корректен, он
+ * читается неблокирующим парсером Jackson по мере поступления и поля отдаются
+ * слушателю сразу после завершения. Если модель вернула испорченный JSON
+ * (обрезанный, в markdown-обёртке, с лишними запятыми), он чинится локально
+ * в finish(); если JSON не найден совсем - используется разбор markdown.
+ */
+public class StructuredResponseParser implements ResponseSectionParser {
+
+    private static final Logger log = LoggerFactory.getLogger(StructuredResponseParser.class);
+
+    public static final String FIELD_OPTIMIZED_SQL = "optimized_sql";
+    public static final String FIELD_RATIONALE = "rationale";
+    public static final String FIELD_PERFORMANCE_IMPACT = "performance_impact";
+    public static final String FIELD_RISKS = "risks";
+    public static final String FIELD_CANDIDATE_INDEXES = "candidate_indexes";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final JsonMapper LENIENT_MAPPER = JsonMapper.builder()
+            .enable(JsonReadFeature.ALLOW_TRAILING_COMMA)
+            .enable(JsonReadFeature.ALLOW_SINGLE_QUOTES)
+            .enable(JsonReadFeature.ALLOW_UNQUOTED_FIELD_NAMES)
+            .enable(JsonReadFeature.ALLOW_UNESCAPED_CONTROL_CHARS)
+            .enable(JsonReadFeature.ALLOW_BACKSLASH_ESCAPING_ANY_CHARACTER)
+            .build();
+
+    private final Consumer<LLMResponseParser.Section> listener;
+    private final StringBuilder raw = new StringBuilder();
+    private final Set<LLMResponseParser.SectionType> emitted = EnumSet.noneOf(LLMResponseParser.SectionType.class);
+    private final LLMResponse result = new LLMResponse();
+
+    private JsonParser parser;
+    private ByteArrayFeeder feeder;
+    private boolean started;
+    private boolean complete;
+    private boolean failed;
+    private boolean finished;
+    private int depth;
+    private String currentField;
+    private List<String> indexes;
+    private char pendingHighSurrogate;
+
+    public StructuredResponseParser() {
+        this(section -> { });
+    }
+
+    public StructuredResponseParser(Consumer<LLMResponseParser.Section> listener) {
+        this.listener = listener;
+    }
+
+    public static LLMResponse parse(String text) {
+        StructuredResponseParser parser = new StructuredResponseParser();
+        parser.feed(text);
+        parser.finish();
+        return parser.getResult();
+    }
+
+    @Override
+    public void feed(CharSequence chunk) {
+        if (chunk == null || chunk.length() == 0 || finished) {
+            return;
+        }
+        raw.append(chunk);
+        if (complete || failed) {
+            return;
+        }
+
+        String text = chunk.toString();
+        if (!started) {
+            // Пропускаем всё до начала объекта (```json, пояснения модели)
+            int start = text.indexOf('{');
+            if (start < 0) {
+                return;
+            }
+            text = text.substring(start);
+            started = true;
+            try {
+                parser = JSON_FACTORY.createNonBlockingByteArrayParser();
+                feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+            } catch (IOException e) {
+                failed = true;
+                return;
+            }
+        }
+
+        // Суррогатная пара могла разорваться между кусками
+        if (pendingHighSurrogate != 0) {
+            text = pendingHighSurrogate + text;
+            pendingHighSurrogate = 0;
+        }
+        if (Character.isHighSurrogate(text.charAt(text.length() - 1))) {
+            pendingHighSurrogate = text.charAt(text.length() - 1);
+            text = text.substring(0, text.length() - 1);
+        }
+
+        try {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            feeder.feedInput(bytes, 0, bytes.length);
+            readAvailableTokens();
+        } catch (IOException e) {
+            log.debug("Streaming JSON parse failed, will repair at the end: {}", e.getMessage());
+            failed = true;
+        }
+    }
+
+    @Override
+    public void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+
+        if (complete && !failed) {
+            return;
+        }
+
+        String repaired = repairJson(raw.toString());
+        if (repaired != null) {
+            try {
+                JsonNode root = LENIENT_MAPPER.readTree(repaired);
+                if (root != null && root.isObject()) {
+                    applyTree(root);
+                    return;
+                }
+            } catch (IOException e) {
+                log.warn("Failed to parse repaired LLM JSON: {}", e.getMessage());
+            }
+        }
+
+        // JSON не найден - модель ответила обычным markdown
+        log.warn("LLM returned no usable JSON, falling back to markdown parsing");
+        LLMResponse markdown = LLMResponseParser.parse(raw.toString());
+        setIfMissing(LLMResponseParser.SectionType.OPTIMIZED_SQL, markdown.getOptimizedSql());
+        setIfMissing(LLMResponseParser.SectionType.RATIONALE, markdown.getOptimizationRationale());
+        setIfMissing(LLMResponseParser.SectionType.IMPACT, markdown.getPerformanceImpact());
+        setIfMissing(LLMResponseParser.SectionType.RISKS, markdown.getPotentialRisks());
+    }
+
+    @Override
+    public LLMResponse getResult() {
+        return result;
+    }
+
+    private void readAvailableTokens() throws IOException {
+        JsonToken token;
+        while (!complete && (token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            switch (token) {
+                case START_OBJECT:
+                case START_ARRAY:
+                    depth++;
+                    if (depth == 2 && token == JsonToken.START_ARRAY && FIELD_CANDIDATE_INDEXES.equals(currentField)) {
+                        indexes = new ArrayList<>();
+                    }
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    depth--;
+                    if (depth == 1 && token == JsonToken.END_ARRAY && indexes != null) {
+                        setIfMissing(LLMResponseParser.SectionType.INDEXES, indexes);
+                        indexes = null;
+                    }
+                    if (depth == 0) {
+                        complete = true;
+                    }
+                    break;
+                case FIELD_NAME:
+                    if (depth == 1) {
+                        currentField = parser.getCurrentName();
+                    }
+                    break;
+                case VALUE_STRING:
+                    if (depth == 1) {
+                        applyField(currentField, parser.getText());
+                    } else if (depth == 2 && indexes != null) {
+                        indexes.add(parser.getText());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void applyTree(JsonNode root) {
+        for (String field : List.of(FIELD_OPTIMIZED_SQL, FIELD_RATIONALE, FIELD_PERFORMANCE_IMPACT, FIELD_RISKS)) {
+            JsonNode value = root.get(field);
+            if (value != null && !value.isNull()) {
+                applyField(field, value.isTextual() ? value.asText() : value.toString());
+            }
+        }
+        JsonNode indexNodes = root.get(FIELD_CANDIDATE_INDEXES);
+        if (indexNodes != null && indexNodes.isArray()) {
+            List<String> values = new ArrayList<>();
+            indexNodes.forEach(node -> values.add(node.isTextual() ? node.asText() : node.toString()));
+            setIfMissing(LLMResponseParser.SectionType.INDEXES, values);
+        }
+    }
+
+    private void applyField(String field, String value) {
+        if (field == null) {
+            return;
+        }
+        switch (field) {
+            case FIELD_OPTIMIZED_SQL:
+                setIfMissing(LLMResponseParser.SectionType.OPTIMIZED_SQL, stripFence(value));
+                break;
+            case FIELD_RATIONALE:
+                setIfMissing(LLMResponseParser.SectionType.RATIONALE, value);
+                break;
+            case FIELD_PERFORMANCE_IMPACT:
+                setIfMissing(LLMResponseParser.SectionType.IMPACT, value);
+                break;
+            case FIELD_RISKS:
+                setIfMissing(LLMResponseParser.SectionType.RISKS, value);
+                break;
+            default:
+                break;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void setIfMissing(LLMResponseParser.SectionType type, Object value) {
+        if (value == null || emitted.contains(type)) {
+            return;
+        }
+        String content;
+        switch (type) {
+            case OPTIMIZED_SQL:
+                content = ((String) value).trim();
+                result.setOptimizedSql(content);
+                break;
+            case RATIONALE:
+                content = ((String) value).trim();
+                result.setOptimizationRationale(content);
+                break;
+            case IMPACT:
+                content = ((String) value).trim();
+                result.setPerformanceImpact(content);
+                break;
+            case RISKS:
+                content = ((String) value).trim();
+                result.setPotentialRisks(content);
+                break;
+            case INDEXES:
+                result.setCandidateIndexes((List<String>) value);
+                content = String.join("\n", (List<String>) value);
+                break;
+            default:
+                return;
+        }
+        if (content.isEmpty()) {
+            return;
+        }
+        emitted.add(type);
+        listener.accept(new LLMResponseParser.Section(type, content));
+    }
+
+    // Модели иногда кладут SQL внутрь поля вместе с ```sql
+    private static String stripFence(String sql) {
+        String trimmed = sql.trim();
+        if (trimmed.startsWith("```")) {
+            int firstLine = trimmed.indexOf('\n');
+            trimmed = firstLine >= 0 ? trimmed.substring(firstLine + 1) : "";
+            if (trimmed.endsWith("```")) {
+                trimmed = trimmed.substring(0, trimmed.length() - 3);
+            }
+        }
+        return trimmed.trim();
+    }
+
+    /**
+     * Вырезает первый JSON-объект и достраивает его: закрывает строку,
+     * убирает висящие запятые и ключи без значения, закрывает скобки.
+     */
+    static String repairJson(String text) {
+        int start = text.indexOf('{');
+        if (start < 0) {
+            return null;
+        }
+
+        StringBuilder out = new StringBuilder();
+        Deque<Character> stack = new ArrayDeque<>();
+        boolean inString = false;
+        boolean escaped = false;
+        char quote = '"';
+
+        char lastSignificant = 0;
+
+        for (int i = start; i < text.length(); i++) {
+            char c = text.charAt(i);
+            // Повторные запятые и запятая сразу после открывающей скобки
+            if (!inString && c == ',' && (lastSignificant == ',' || lastSignificant == '{' || lastSignificant == '[')) {
+                continue;
+            }
+            out.append(c);
+            if (!Character.isWhitespace(c)) {
+                lastSignificant = c;
+            }
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == quote) {
+                    inString = false;
+                }
+                continue;
+            }
+            if (c == '"' || c == '\'') {
+                inString = true;
+                quote = c;
+            } else if (c == '{') {
+                stack.push('}');
+            } else if (c == '[') {
+                stack.push(']');
+            } else if ((c == '}' || c == ']') && !stack.isEmpty()) {
+                stack.pop();
+                if (stack.isEmpty()) {
+                    // Корневой объект закрыт, остальное - хвост вроде ```
+                    return out.toString();
+                }
+            }
+        }
+
+        if (escaped) {
+            out.setLength(out.length() - 1);
+        }
+        if (inString) {
+            out.append(quote);
+        }
+
+        String repaired = out.toString().stripTrailing();
+        if (repaired.endsWith(",")) {
+            repaired = repaired.substring(0, repaired.length() - 1);
+        } else if (repaired.endsWith(":")) {
+            repaired = repaired + " null";
+        }
+
+        StringBuilder closed = new StringBuilder(repaired);
+        while (!stack.isEmpty()) {
+            closed.append(stack.pop());
+        }
+        return closed.toString();
+    }
+}
@@ -0,0 +1,129 @@
+package db.migration;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * V5 перенёс планы из jsonb с хешем от текстового представления jsonb (его порядок ключей
+ * и пробелы), а приложение хеширует компактный JSON с отсортированными ключами. Перекодируем
+ * такие блобы, чтобы одинаковое содержимое до и после миграции имело один ключ.
+ * Логика кодека скопирована сюда намеренно: миграция не должна меняться вместе с классами
+ * приложения, а JSON переписывается как дерево, без привязки к модели, и не теряет полей.
+ */
+public class V11__reencode_migrated_content_blobs extends BaseJavaMigration {
+    private static final Logger log = LoggerFactory.getLogger(V11__reencode_migrated_content_blobs.class);
+
+    private static final String ENCODING_IDENTITY = "identity";
+    private static final String ENCODING_GZIP = "gzip";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    private static final String[] HASH_COLUMNS = {"original_plan_hash", "optimized_plan_hash", "tables_metadata_hash"};
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        Connection connection = context.getConnection();
+
+        List<String> hashes = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT hash FROM content_blobs WHERE encoding = ?")) {
+            stmt.setString(1, ENCODING_IDENTITY);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    hashes.add(rs.getString(1));
+                }
+            }
+        }
+
+        int reencoded = 0;
+        for (String hash : hashes) {
+            String kind;
+            byte[] json;
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "SELECT kind, data FROM content_blobs WHERE hash = ?")) {
+                stmt.setString(1, hash);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    rs.next();
+                    kind = rs.getString("kind");
+                    json = rs.getBytes("data");
+                }
+            }
+
+            byte[] canonical;
+            try {
+                // Map/List-дерево: ORDER_MAP_ENTRIES_BY_KEYS сортирует ключи на всех уровнях
+                canonical = MAPPER.writeValueAsBytes(MAPPER.readValue(json, Object.class));
+            } catch (IOException e) {
+                // Нечитаемый блоб оставляем как есть: ContentCodec по-прежнему понимает identity
+                log.warn("Skipping content blob {}: {}", hash, e.getMessage());
+                continue;
+            }
+            String newHash = sha256(canonical);
+
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO content_blobs (hash, kind, encoding, data, raw_size) VALUES (?, ?, ?, ?, ?) "
+                            + "ON CONFLICT (hash) DO NOTHING")) {
+                insert.setString(1, newHash);
+                insert.setString(2, kind);
+                insert.setString(3, ENCODING_GZIP);
+                insert.setBytes(4, gzip(canonical));
+                insert.setInt(5, canonical.length);
+                insert.executeUpdate();
+            }
+            if (!newHash.equals(hash)) {
+                for (String column : HASH_COLUMNS) {
+                    try (PreparedStatement update = connection.prepareStatement(
+                            "UPDATE sql_queries SET " + column + " = ? WHERE " + column + " = ?")) {
+                        update.setString(1, newHash);
+                        update.setString(2, hash);
+                        update.executeUpdate();
+                    }
+                }
+                try (PreparedStatement delete = connection.prepareStatement("DELETE FROM content_blobs WHERE hash = ?")) {
+                    delete.setString(1, hash);
+                    delete.executeUpdate();
+                }
+            } else {
+                // Совпадение хеша: содержимое то же, остаётся только сжать
+                try (PreparedStatement update = connection.prepareStatement(
+                        "UPDATE content_blobs SET encoding = ?, data = ?, raw_size = ? WHERE hash = ?")) {
+                    update.setString(1, ENCODING_GZIP);
+                    update.setBytes(2, gzip(canonical));
+                    update.setInt(3, canonical.length);
+                    update.setString(4, hash);
+                    update.executeUpdate();
+                }
+            }
+            reencoded++;
+        }
+        log.info("Re-encoded {} of {} migrated content blobs", reencoded, hashes.size());
+    }
+
+    private static String sha256(byte[] data) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,12 @@
+-- Признак успешной оптимизации: SQL получен от LLM и прошёл проверку EXPLAIN.
+-- Индекс похожих запросов берёт примеры для промпта только из таких строк.
+ALTER TABLE sql_queries ADD COLUMN validated BOOLEAN NOT NULL DEFAULT FALSE;
+
+-- Для старых строк флага не было: отсекаем запасные ответы и непрошедшие проверку по тексту обоснования
+UPDATE sql_queries
+SET validated = TRUE
+WHERE optimized_query IS NOT NULL
+  AND optimized_query <> original_query
+  AND coalesce(optimization_rationale, '') NOT LIKE '%Оптимизированный запрос не прошёл проверку%'
+  AND coalesce(optimization_rationale, '') NOT LIKE 'Не удалось получить оптимизированную версию запроса%'
+  AND coalesce(optimization_rationale, '') NOT LIKE 'Сервис оптимизации временно недоступен%';
@@ -0,0 +1,42 @@
+-- Планы и метаданные таблиц хранятся один раз, сжатыми, по хешу содержимого
+CREATE TABLE content_blobs (
+                               hash VARCHAR(64) PRIMARY KEY,
+                               kind VARCHAR(32) NOT NULL,
+                               encoding VARCHAR(16) NOT NULL,
+                               data BYTEA NOT NULL,
+                               raw_size INT NOT NULL,
+                               created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+ALTER TABLE sql_queries
+    ADD COLUMN original_plan_hash VARCHAR(64) REFERENCES content_blobs(hash),
+    ADD COLUMN optimized_plan_hash VARCHAR(64) REFERENCES content_blobs(hash),
+    ADD COLUMN tables_metadata_hash VARCHAR(64) REFERENCES content_blobs(hash);
+
+-- Переносим существующие данные без сжатия (gzip в SQL недоступен), дубликаты схлопываются
+INSERT INTO content_blobs (hash, kind, encoding, data, raw_size)
+SELECT encode(sha256(payload), 'hex'), kind, 'identity', payload, octet_length(payload)
+FROM (
+         SELECT 'plan' AS kind, convert_to(original_plan::text, 'UTF8') AS payload
+         FROM sql_queries WHERE original_plan IS NOT NULL
+         UNION ALL
+         SELECT 'plan', convert_to(optimized_plan::text, 'UTF8')
+         FROM sql_queries WHERE optimized_plan IS NOT NULL
+         UNION ALL
+         SELECT 'tables_metadata', convert_to(tables_metadata::text, 'UTF8')
+         FROM sql_queries WHERE tables_metadata IS NOT NULL
+     ) AS payloads
+ON CONFLICT (hash) DO NOTHING;
+
+UPDATE sql_queries SET
+    original_plan_hash = CASE WHEN original_plan IS NOT NULL
+        THEN encode(sha256(convert_to(original_plan::text, 'UTF8')), 'hex') END,
+    optimized_plan_hash = CASE WHEN optimized_plan IS NOT NULL
+        THEN encode(sha256(convert_to(optimized_plan::text, 'UTF8')), 'hex') END,
+    tables_metadata_hash = CASE WHEN tables_metadata IS NOT NULL
+        THEN encode(sha256(convert_to(tables_metadata::text, 'UTF8')), 'hex') END;
+
+ALTER TABLE sql_queries
+    DROP COLUMN original_plan,
+    DROP COLUMN optimized_plan,
+    DROP COLUMN tables_metadata;
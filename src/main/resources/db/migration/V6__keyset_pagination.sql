@@ -0,0 +1,15 @@
+-- Денормализуем chat_id в sql_queries, чтобы история чата читалась по индексу без join
+ALTER TABLE sql_queries ADD COLUMN chat_id BIGINT REFERENCES chats(id) ON DELETE CASCADE;
+
+UPDATE sql_queries sq
+SET chat_id = m.chat_id
+FROM messages m
+WHERE m.id = sq.message_id;
+
+-- Составные индексы под keyset-пагинацию по (время, id)
+CREATE INDEX idx_chats_user_updated ON chats(user_id, updated_at DESC, id DESC);
+CREATE INDEX idx_messages_chat_created ON messages(chat_id, created_at DESC, id DESC);
+CREATE INDEX idx_sql_queries_chat_created ON sql_queries(chat_id, created_at DESC, id DESC);
+
+-- Покрывается idx_messages_chat_created
+DROP INDEX IF EXISTS idx_messages_chat_id;
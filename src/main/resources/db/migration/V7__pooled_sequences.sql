@@ -0,0 +1,9 @@
+-- Hibernate берёт id блоками по 50 (pooled optimizer), поэтому шаг последовательностей тоже 50.
+-- Значение сдвигается за текущий максимум, чтобы первый блок не пересёкся с существующими строками.
+ALTER SEQUENCE chats_id_seq INCREMENT BY 50;
+ALTER SEQUENCE messages_id_seq INCREMENT BY 50;
+ALTER SEQUENCE sql_queries_id_seq INCREMENT BY 50;
+
+SELECT setval('chats_id_seq', COALESCE((SELECT MAX(id) FROM chats), 0) + 50);
+SELECT setval('messages_id_seq', COALESCE((SELECT MAX(id) FROM messages), 0) + 50);
+SELECT setval('sql_queries_id_seq', COALESCE((SELECT MAX(id) FROM sql_queries), 0) + 50);
@@ -0,0 +1,152 @@
+-- messages и sql_queries секционируются в два уровня:
+--   LIST (is_archived): живые строки и архив истории архивных чатов;
+--   RANGE (created_at): живые строки помесячно, плюс default-секция на случай пропущенного месяца.
+-- Первичный ключ секционированной таблицы обязан включать ключи секционирования,
+-- поэтому внешний ключ sql_queries.message_id -> messages(id) снимается. Удаление чата
+-- по-прежнему каскадно чистит обе таблицы через chat_id, связь сообщения и запроса
+-- поддерживается приложением (каскад Message.sqlQuery).
+
+ALTER TABLE sql_queries DROP CONSTRAINT IF EXISTS sql_queries_message_id_fkey;
+
+-- Последовательности переживают пересоздание таблиц
+ALTER SEQUENCE messages_id_seq OWNED BY NONE;
+ALTER SEQUENCE sql_queries_id_seq OWNED BY NONE;
+
+ALTER TABLE messages RENAME TO messages_unpartitioned;
+ALTER TABLE sql_queries RENAME TO sql_queries_unpartitioned;
+
+CREATE TABLE messages (
+                          id BIGINT NOT NULL DEFAULT nextval('messages_id_seq'),
+                          chat_id BIGINT NOT NULL REFERENCES chats(id) ON DELETE CASCADE,
+                          content TEXT NOT NULL,
+                          is_from_user BOOLEAN NOT NULL,
+                          created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+                          is_archived BOOLEAN NOT NULL DEFAULT FALSE,
+                          PRIMARY KEY (id, is_archived, created_at)
+) PARTITION BY LIST (is_archived);
+
+CREATE TABLE sql_queries (
+                             id BIGINT NOT NULL DEFAULT nextval('sql_queries_id_seq'),
+                             message_id BIGINT NOT NULL,
+                             chat_id BIGINT REFERENCES chats(id) ON DELETE CASCADE,
+                             original_query TEXT NOT NULL,
+                             optimized_query TEXT,
+                             database_connection_id BIGINT REFERENCES database_connections(id),
+                             execution_time_ms BIGINT,
+                             original_plan_hash VARCHAR(64) REFERENCES content_blobs(hash),
+                             optimized_plan_hash VARCHAR(64) REFERENCES content_blobs(hash),
+                             tables_metadata_hash VARCHAR(64) REFERENCES content_blobs(hash),
+                             optimization_rationale TEXT,
+                             performance_impact TEXT,
+                             potential_risks TEXT,
+                             created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+                             is_archived BOOLEAN NOT NULL DEFAULT FALSE,
+                             PRIMARY KEY (id, is_archived, created_at)
+) PARTITION BY LIST (is_archived);
+
+ALTER SEQUENCE messages_id_seq OWNED BY messages.id;
+ALTER SEQUENCE sql_queries_id_seq OWNED BY sql_queries.id;
+
+CREATE TABLE messages_live PARTITION OF messages FOR VALUES IN (FALSE) PARTITION BY RANGE (created_at);
+CREATE TABLE messages_live_default PARTITION OF messages_live DEFAULT;
+CREATE TABLE sql_queries_live PARTITION OF sql_queries FOR VALUES IN (FALSE) PARTITION BY RANGE (created_at);
+CREATE TABLE sql_queries_live_default PARTITION OF sql_queries_live DEFAULT;
+
+-- Архив только дописывается: плотная упаковка и сжатие TOAST уже с небольших значений
+CREATE TABLE messages_archive PARTITION OF messages FOR VALUES IN (TRUE)
+    WITH (fillfactor = 100, toast_tuple_target = 128);
+CREATE TABLE sql_queries_archive PARTITION OF sql_queries FOR VALUES IN (TRUE)
+    WITH (fillfactor = 100, toast_tuple_target = 128);
+
+-- lz4 есть только в PostgreSQL 14+, собранном с его поддержкой; иначе остаётся pglz
+DO $$
+BEGIN
+    ALTER TABLE messages_archive ALTER COLUMN content SET COMPRESSION lz4;
+    ALTER TABLE sql_queries_archive
+        ALTER COLUMN original_query SET COMPRESSION lz4,
+        ALTER COLUMN optimized_query SET COMPRESSION lz4,
+        ALTER COLUMN optimization_rationale SET COMPRESSION lz4,
+        ALTER COLUMN performance_impact SET COMPRESSION lz4,
+        ALTER COLUMN potential_risks SET COMPRESSION lz4;
+EXCEPTION
+    WHEN OTHERS THEN
+        RAISE NOTICE 'lz4 compression is not available, archive partitions keep pglz: %', SQLERRM;
+END $$;
+
+-- Создаёт месячную секцию живых строк; строки этого месяца, уже попавшие в default, переносятся в неё
+CREATE OR REPLACE FUNCTION create_month_partition(parent TEXT, month_start DATE)
+    RETURNS BOOLEAN
+    LANGUAGE plpgsql AS $$
+DECLARE
+    partition_name TEXT := parent || '_' || to_char(month_start, 'YYYY_MM');
+    month_end DATE := (month_start + INTERVAL '1 month')::date;
+BEGIN
+    IF to_regclass(partition_name) IS NOT NULL THEN
+        RETURN FALSE;
+    END IF;
+    EXECUTE format('CREATE TABLE %I (LIKE %I INCLUDING DEFAULTS INCLUDING CONSTRAINTS)', partition_name, parent);
+    EXECUTE format('WITH moved AS (DELETE FROM %I WHERE created_at >= %L AND created_at < %L RETURNING *) '
+                       || 'INSERT INTO %I SELECT * FROM moved',
+                   parent || '_default', month_start, month_end, partition_name);
+    EXECUTE format('ALTER TABLE %I ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)',
+                   parent, partition_name, month_start, month_end);
+    RETURN TRUE;
+END $$;
+
+-- Секции с текущего месяца на months_ahead вперёд; возвращает число созданных
+CREATE OR REPLACE FUNCTION ensure_month_partitions(parent TEXT, months_ahead INT)
+    RETURNS INT
+    LANGUAGE plpgsql AS $$
+DECLARE
+    month_start DATE;
+    created INT := 0;
+BEGIN
+    FOR month_start IN
+        SELECT generate_series(date_trunc('month', now()),
+                               date_trunc('month', now()) + make_interval(months => months_ahead),
+                               INTERVAL '1 month')::date
+    LOOP
+        IF create_month_partition(parent, month_start) THEN
+            created := created + 1;
+        END IF;
+    END LOOP;
+    RETURN created;
+END $$;
+
+-- Секции под уже накопленную историю и на три месяца вперёд
+DO $$
+DECLARE
+    month_start DATE;
+BEGIN
+    FOR month_start IN
+        SELECT generate_series(
+                       date_trunc('month', LEAST(
+                               COALESCE((SELECT MIN(created_at) FROM messages_unpartitioned), now()),
+                               COALESCE((SELECT MIN(created_at) FROM sql_queries_unpartitioned), now()))),
+                       date_trunc('month', now()) + INTERVAL '3 months',
+                       INTERVAL '1 month')::date
+    LOOP
+        PERFORM create_month_partition('messages_live', month_start);
+        PERFORM create_month_partition('sql_queries_live', month_start);
+    END LOOP;
+END $$;
+
+INSERT INTO messages (id, chat_id, content, is_from_user, created_at)
+SELECT id, chat_id, content, is_from_user, created_at
+FROM messages_unpartitioned;
+
+INSERT INTO sql_queries (id, message_id, chat_id, original_query, optimized_query, database_connection_id,
+                         execution_time_ms, original_plan_hash, optimized_plan_hash, tables_metadata_hash,
+                         optimization_rationale, performance_impact, potential_risks, created_at)
+SELECT id, message_id, chat_id, original_query, optimized_query, database_connection_id,
+       execution_time_ms, original_plan_hash, optimized_plan_hash, tables_metadata_hash,
+       optimization_rationale, performance_impact, potential_risks, created_at
+FROM sql_queries_unpartitioned;
+
+DROP TABLE sql_queries_unpartitioned;
+DROP TABLE messages_unpartitioned;
+
+-- Индексы на родительских таблицах создаются в каждой секции, включая будущие
+CREATE INDEX idx_messages_chat_created ON messages(chat_id, created_at DESC, id DESC);
+CREATE INDEX idx_sql_queries_chat_created ON sql_queries(chat_id, created_at DESC, id DESC);
+CREATE INDEX idx_sql_queries_message_id ON sql_queries(message_id);
@@ -0,0 +1,48 @@
+-- Поиск по истории оптимизаций: полнотекстовый (tsvector) и нечёткий (pg_trgm) по индексам GIN
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+-- SQL разбирается конфигурацией simple (идентификаторы без стемминга), обоснование - russian.
+-- Колонка вычисляемая, приложение её не пишет.
+ALTER TABLE sql_queries ADD COLUMN search_vector tsvector GENERATED ALWAYS AS (
+    setweight(to_tsvector('simple', coalesce(original_query, '')), 'A') ||
+    setweight(to_tsvector('simple', coalesce(optimized_query, '')), 'A') ||
+    setweight(to_tsvector('russian', coalesce(optimization_rationale, '')), 'B')
+) STORED;
+
+ALTER TABLE chats ADD COLUMN title_vector tsvector GENERATED ALWAYS AS (
+    to_tsvector('simple', title)
+) STORED;
+
+-- Индексы на родительской sql_queries создаются во всех секциях, включая будущие
+CREATE INDEX idx_sql_queries_search ON sql_queries USING GIN (search_vector);
+CREATE INDEX idx_sql_queries_original_trgm ON sql_queries USING GIN (original_query gin_trgm_ops);
+CREATE INDEX idx_sql_queries_optimized_trgm ON sql_queries USING GIN (optimized_query gin_trgm_ops);
+CREATE INDEX idx_chats_title_search ON chats USING GIN (title_vector);
+CREATE INDEX idx_chats_title_trgm ON chats USING GIN (title gin_trgm_ops);
+
+-- Новые месячные секции должны наследовать вычисляемую колонку, а при переносе строк
+-- из default её нельзя вставлять явно - перечисляем только обычные колонки
+CREATE OR REPLACE FUNCTION create_month_partition(parent TEXT, month_start DATE)
+    RETURNS BOOLEAN
+    LANGUAGE plpgsql AS $$
+DECLARE
+    partition_name TEXT := parent || '_' || to_char(month_start, 'YYYY_MM');
+    month_end DATE := (month_start + INTERVAL '1 month')::date;
+    column_list TEXT;
+BEGIN
+    IF to_regclass(partition_name) IS NOT NULL THEN
+        RETURN FALSE;
+    END IF;
+    SELECT string_agg(quote_ident(column_name), ', ' ORDER BY ordinal_position) INTO column_list
+    FROM information_schema.columns
+    WHERE table_schema = current_schema() AND table_name = parent AND is_generated = 'NEVER';
+
+    EXECUTE format('CREATE TABLE %I (LIKE %I INCLUDING DEFAULTS INCLUDING CONSTRAINTS INCLUDING GENERATED)',
+                   partition_name, parent);
+    EXECUTE format('WITH moved AS (DELETE FROM %I WHERE created_at >= %L AND created_at < %L RETURNING %s) '
+                       || 'INSERT INTO %I (%s) SELECT %s FROM moved',
+                   parent || '_default', month_start, month_end, column_list, partition_name, column_list, column_list);
+    EXECUTE format('ALTER TABLE %I ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)',
+                   parent, partition_name, month_start, month_end);
+    RETURN TRUE;
+END $$;
@@ -26,6 +26,7 @@ import org.springframework.test.web.servlet.MockMvc;
 import com.example.backend.config.TestConfig;
 import com.example.backend.config.TestSecurityConfig;
 import com.example.backend.model.dto.ChatDto;
+import com.example.backend.model.dto.CursorPage;
 import com.example.backend.model.dto.MessageDto;
 import com.example.backend.repository.ChatRepository;
 import com.example.backend.repository.MessageRepository;
@@ -160,6 +161,27 @@ public class ChatControllerTest {
                                 .andExpect(jsonPath("$[1].content").value("Message 2"));
         }
 
+        @Test
+        @WithTestUser
+        public void getChatMessagesPage_WithCursor_ReturnsPage() throws Exception {
+                CursorPage<MessageDto> page = CursorPage.<MessageDto>builder()
+                                .items(List.of(MessageDto.builder().id(3L).content("Message 3").sqlQueryId(7L).build()))
+                                .nextCursor("next")
+                                .hasMore(true)
+                                .build();
+
+                when(chatService.getChatMessagesPage(eq(1L), eq(1L), eq("abc"), eq(20))).thenReturn(page);
+
+                mockMvc.perform(get("/chats/1/messages/page")
+                                .param("cursor", "abc")
+                                .param("limit", "20"))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.items[0].id").value(3))
+                                .andExpect(jsonPath("$.items[0].sqlQueryId").value(7))
+                                .andExpect(jsonPath("$.nextCursor").value("next"))
+                                .andExpect(jsonPath("$.hasMore").value(true));
+        }
+
         @Test
         @WithTestUser
         public void sendMessage_ValidRequest_ReturnsOk() throws Exception {
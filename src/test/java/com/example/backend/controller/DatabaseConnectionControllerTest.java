@@ -23,8 +23,10 @@ import org.springframework.test.web.servlet.MockMvc;
 import com.example.backend.config.TestConfig;
 import com.example.backend.config.TestSecurityConfig;
 import com.example.backend.model.dto.DatabaseConnectionDto;
+import com.example.backend.model.dto.DistributionKeyProposalDto;
 import com.example.backend.security.WithTestUser;
 import com.example.backend.service.DatabaseConnectionService;
+import com.example.backend.service.DistributionKeyAdvisorService;
 
 @WebMvcTest(DatabaseConnectionController.class)
 @Import({TestConfig.class, TestSecurityConfig.class})
@@ -37,6 +39,9 @@ public class DatabaseConnectionControllerTest {
     @MockBean
     private DatabaseConnectionService databaseConnectionService;
 
+    @MockBean
+    private DistributionKeyAdvisorService distributionKeyAdvisorService;
+
     @Test
     @WithTestUser
     public void getConnectionsForChat_ValidId_ReturnsOk() throws Exception {
@@ -98,4 +103,27 @@ public class DatabaseConnectionControllerTest {
         mockMvc.perform(post("/connections/1/close"))
                 .andExpect(status().isNoContent());
     }
-} 
\ No newline at end of file
+
+    @Test
+    @WithTestUser
+    public void getDistributionAdvice_ValidId_ReturnsOk() throws Exception {
+        List<DistributionKeyProposalDto> proposals = Arrays.asList(
+            DistributionKeyProposalDto.builder()
+                .tableName("orders")
+                .currentDistribution("DISTRIBUTED BY (id)")
+                .proposedKey(Arrays.asList("customer_id"))
+                .estimatedBytesEliminated(1024L)
+                .affectedQueries(3)
+                .build()
+        );
+
+        when(distributionKeyAdvisorService.adviseDistributionKeys(eq(1L), eq(1L), eq(false))).thenReturn(proposals);
+
+        mockMvc.perform(get("/connections/1/distribution-advice"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].tableName").value("orders"))
+                .andExpect(jsonPath("$[0].proposedKey[0]").value("customer_id"))
+                .andExpect(jsonPath("$[0].estimatedBytesEliminated").value(1024))
+                .andExpect(jsonPath("$[0].affectedQueries").value(3));
+    }
+}
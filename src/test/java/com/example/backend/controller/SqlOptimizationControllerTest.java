@@ -3,12 +3,17 @@ package com.example.backend.controller;
 import com.example.backend.config.TestConfig;
 import com.example.backend.config.TestJwtConfig;
 import com.example.backend.config.TestSecurityConfig;
+import com.example.backend.exception.ApiException;
 import com.example.backend.exception.ResourceNotFoundException;
+import com.example.backend.model.dto.CursorPage;
 import com.example.backend.model.dto.MessageDto;
+import com.example.backend.model.dto.SimilarQueryDto;
 import com.example.backend.model.dto.SqlQueryRequest;
 import com.example.backend.model.dto.SqlQueryResponse;
+import com.example.backend.model.dto.SqlSearchResultDto;
 import com.example.backend.model.entity.User;
 import com.example.backend.security.CustomUserDetails;
+import com.example.backend.service.HistoryExportService;
 import com.example.backend.service.SqlOptimizationService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
@@ -18,6 +23,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -25,12 +31,15 @@ import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
 import reactor.core.publisher.Mono;
 
+import java.io.OutputStream;
 import java.time.LocalDateTime;
 import java.util.Arrays;
 import java.util.List;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
@@ -51,6 +60,9 @@ public class SqlOptimizationControllerTest {
     @MockBean
     private SqlOptimizationService sqlOptimizationService;
 
+    @MockBean
+    private HistoryExportService historyExportService;
+
     private CustomUserDetails userDetails;
 
     @BeforeEach
@@ -168,4 +180,109 @@ public class SqlOptimizationControllerTest {
                         .with(user(userDetails)))
                 .andExpect(status().isNotFound());
     }
+
+    @Test
+    public void searchHistory_ValidQuery_ReturnsRankedPage() throws Exception {
+        CursorPage<SqlSearchResultDto> page = CursorPage.<SqlSearchResultDto>builder()
+                .items(List.of(SqlSearchResultDto.builder()
+                        .queryId(7L)
+                        .chatId(1L)
+                        .chatTitle("Orders report")
+                        .originalQuery("SELECT * FROM orders o JOIN payments p ON p.order_id = o.id")
+                        .rank(0.9)
+                        .build()))
+                .nextCursor("20")
+                .hasMore(true)
+                .build();
+
+        when(sqlOptimizationService.searchHistory(any(Long.class), eq("orders payments"), isNull(), eq(20)))
+                .thenReturn(page);
+
+        mockMvc.perform(get("/sql/search")
+                        .param("q", "orders payments")
+                        .param("limit", "20")
+                        .with(user(userDetails)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items[0].queryId").value(7))
+                .andExpect(jsonPath("$.items[0].chatTitle").value("Orders report"))
+                .andExpect(jsonPath("$.nextCursor").value("20"))
+                .andExpect(jsonPath("$.hasMore").value(true));
+    }
+
+    @Test
+    public void findSimilarQueries_ReturnsPriorOptimizations() throws Exception {
+        List<SimilarQueryDto> similar = List.of(SimilarQueryDto.builder()
+                .queryId(3L)
+                .chatId(1L)
+                .originalQuery("SELECT * FROM orders WHERE status = 'new'")
+                .optimizedQuery("SELECT id, total FROM orders WHERE status = 'new'")
+                .similarity(0.84)
+                .build());
+
+        when(sqlOptimizationService.findSimilarQueries(any(Long.class), eq("SELECT * FROM orders"), isNull()))
+                .thenReturn(similar);
+
+        mockMvc.perform(get("/sql/similar")
+                        .param("q", "SELECT * FROM orders")
+                        .with(user(userDetails)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].queryId").value(3))
+                .andExpect(jsonPath("$[0].similarity").value(0.84));
+    }
+
+    @Test
+    public void exportHistory_CsvGzip_SetsAttachmentHeaders() throws Exception {
+        when(historyExportService.resolveColumns("id,original_query")).thenReturn(List.of("id", "original_query"));
+
+        mockMvc.perform(get("/sql/export")
+                        .param("format", "csv")
+                        .param("columns", "id,original_query")
+                        .param("gzip", "true")
+                        .with(user(userDetails)))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/gzip"))
+                .andExpect(header().string("Content-Disposition", "attachment; filename=\"sql-history.csv.gz\""));
+
+        verify(historyExportService).export(any(Long.class), eq(HistoryExportService.Format.CSV),
+                eq(List.of("id", "original_query")), eq(true), any(OutputStream.class));
+    }
+
+    @Test
+    public void exportHistory_UnknownFormat_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(get("/sql/export")
+                        .param("format", "xml")
+                        .with(user(userDetails)))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void exportHistory_TooManyExports_ReturnsTooManyRequests() throws Exception {
+        when(historyExportService.acquireSlot())
+                .thenThrow(new ApiException("Too many concurrent exports, try again later", HttpStatus.TOO_MANY_REQUESTS));
+
+        mockMvc.perform(get("/sql/export")
+                        .with(user(userDetails)))
+                .andExpect(status().isTooManyRequests());
+    }
+
+    @Test
+    public void getQuerySection_ValidQuery_ReturnsMarkdown() throws Exception {
+        when(sqlOptimizationService.renderQuerySection(eq(1L), any(Long.class), eq("plans")))
+                .thenReturn("## Детальные планы выполнения\n");
+
+        mockMvc.perform(get("/sql/queries/1/sections/plans")
+                        .with(user(userDetails)))
+                .andExpect(status().isOk())
+                .andExpect(content().string("## Детальные планы выполнения\n"));
+    }
+
+    @Test
+    public void getQuerySection_QueryNotFound_ReturnsNotFound() throws Exception {
+        when(sqlOptimizationService.renderQuerySection(eq(999L), any(Long.class), eq("plans")))
+                .thenThrow(new ResourceNotFoundException("SQL query not found"));
+
+        mockMvc.perform(get("/sql/queries/999/sections/plans")
+                        .with(user(userDetails)))
+                .andExpect(status().isNotFound());
+    }
 }
@@ -0,0 +1,112 @@
+package com.example.backend.service;
+
+import com.example.backend.exception.DatabaseConnectionException;
+import com.example.backend.model.dto.DistributionKeyProposalDto;
+import com.example.backend.model.entity.ContentBlob;
+import com.example.backend.model.entity.DatabaseConnection;
+import com.example.backend.model.entity.User;
+import com.example.backend.repository.DatabaseConnectionRepository;
+import com.example.backend.repository.SqlQueryRepository;
+import com.example.backend.util.ContentCodec;
+import com.example.sqlopt.ast.QueryPlanResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class DistributionKeyAdvisorServiceTest {
+
+    private static final String QUERY = "SELECT o.id, c.name FROM orders o JOIN customers c ON o.customer_id = c.id";
+
+    private static final String PLAN = String.join("\n",
+            "Gather Motion 4:1  (slice2; segments: 4)  (cost=0.00..862.00 rows=1000 width=16)",
+            "  ->  Hash Join  (cost=0.00..862.00 rows=1000 width=16)",
+            "        Hash Cond: (o.customer_id = c.id)",
+            "        ->  Redistribute Motion 4:4  (slice1; segments: 4)  (cost=0.00..431.00 rows=1000 width=16)",
+            "              Hash Key: o.customer_id",
+            "              ->  Seq Scan on orders o  (cost=0.00..431.00 rows=1000 width=16)",
+            "        ->  Hash  (cost=431.00..431.00 rows=100 width=12)",
+            "              ->  Seq Scan on customers c  (cost=0.00..431.00 rows=100 width=12)");
+
+    @Mock
+    private SqlQueryRepository sqlQueryRepository;
+
+    @Mock
+    private DatabaseConnectionRepository databaseConnectionRepository;
+
+    @Mock
+    private DatabaseConnectionService databaseConnectionService;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private DistributionKeyAdvisorService advisorService;
+
+    @BeforeEach
+    void setUp() {
+        advisorService = new DistributionKeyAdvisorService(sqlQueryRepository, databaseConnectionRepository,
+                databaseConnectionService, transactionManager);
+        ReflectionTestUtils.setField(advisorService, "sampleRows", 10000);
+        ReflectionTestUtils.setField(advisorService, "maxProposals", 10);
+        ReflectionTestUtils.setField(advisorService, "historyLimit", 500);
+        advisorService.init();
+    }
+
+    @Test
+    public void adviseDistributionKeys_RedistributeMotion_ProposesJoinColumn() {
+        User user = User.builder().id(1L).build();
+        DatabaseConnection connection = DatabaseConnection.builder().id(7L).user(user).dbType("greenplum").build();
+        when(databaseConnectionRepository.findById(7L)).thenReturn(Optional.of(connection));
+
+        QueryPlanResult plan = new QueryPlanResult();
+        plan.setPlanText(PLAN);
+        ContentBlob planBlob = ContentCodec.encode(ContentBlob.KIND_PLAN, plan);
+        when(sqlQueryRepository.findLatestPlans(eq(7L), any(Pageable.class)))
+                .thenReturn(List.of(planView(42L, QUERY, planBlob)));
+        // Целевая БД недоступна: совет строится только по сохранённым планам
+        when(databaseConnectionService.getConnection(7L))
+                .thenThrow(new DatabaseConnectionException("Connection refused"));
+
+        List<DistributionKeyProposalDto> proposals = advisorService.adviseDistributionKeys(1L, 7L, false);
+
+        assertEquals(1, proposals.size());
+        DistributionKeyProposalDto proposal = proposals.get(0);
+        assertEquals("orders", proposal.getTableName());
+        assertEquals(List.of("customer_id"), proposal.getProposedKey());
+        assertEquals(1, proposal.getAffectedQueries());
+        assertTrue(proposal.getJoinPartners().contains("customers.id"));
+    }
+
+    private static SqlQueryRepository.PlanHistoryView planView(Long id, String originalQuery, ContentBlob planBlob) {
+        return new SqlQueryRepository.PlanHistoryView() {
+            @Override
+            public Long getId() {
+                return id;
+            }
+
+            @Override
+            public String getOriginalQuery() {
+                return originalQuery;
+            }
+
+            @Override
+            public ContentBlob getPlanBlob() {
+                return planBlob;
+            }
+        };
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.backend.service;
+
+import com.example.backend.exception.ProviderUnavailableException;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class LLMBulkheadTest {
+
+    private static final Duration MAX_WAIT = Duration.ofMillis(10000);
+
+    private final List<String> started = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void wrap_QueueFull_RejectsImmediately() {
+        LLMBulkhead bulkhead = new LLMBulkhead("test", 1, 1, MAX_WAIT);
+        bulkhead.wrap(call("active", Sinks.many().unicast().onBackpressureBuffer())).subscribe();
+        bulkhead.wrap(call("queued", Sinks.many().unicast().onBackpressureBuffer())).subscribe();
+
+        StepVerifier.create(bulkhead.wrap(Flux.just("rejected")))
+                .expectErrorMatches(e -> e instanceof ProviderUnavailableException
+                        && e.getMessage().contains("at capacity"))
+                .verify();
+
+        assertEquals(1, bulkhead.getActiveCalls());
+        assertEquals(1, bulkhead.getWaitingCalls());
+    }
+
+    @Test
+    public void wrap_NoPermitWithinMaxWait_TimesOut() {
+        LLMBulkhead bulkhead = new LLMBulkhead("test", 1, 1, MAX_WAIT);
+        bulkhead.wrap(call("active", Sinks.many().unicast().onBackpressureBuffer())).subscribe();
+
+        StepVerifier.withVirtualTime(() -> bulkhead.wrap(Flux.just("late")))
+                .expectSubscription()
+                .expectNoEvent(MAX_WAIT.minusMillis(1))
+                .thenAwait(Duration.ofMillis(1))
+                .expectErrorMatches(e -> e instanceof ProviderUnavailableException
+                        && e.getMessage().contains("Timed out"))
+                .verify();
+
+        assertEquals(1, bulkhead.getActiveCalls());
+        assertEquals(0, bulkhead.getWaitingCalls());
+    }
+
+    @Test
+    public void wrap_CallCancelled_ReleasesPermit() {
+        LLMBulkhead bulkhead = new LLMBulkhead("test", 1, 1, MAX_WAIT);
+        Disposable call = bulkhead.wrap(Flux.never()).subscribe();
+        assertEquals(1, bulkhead.getActiveCalls());
+
+        call.dispose();
+
+        assertEquals(0, bulkhead.getActiveCalls());
+    }
+
+    @Test
+    public void wrap_CallFails_ReleasesPermit() {
+        LLMBulkhead bulkhead = new LLMBulkhead("test", 1, 1, MAX_WAIT);
+
+        StepVerifier.create(bulkhead.wrap(Flux.error(new IllegalStateException("boom"))))
+                .expectError(IllegalStateException.class)
+                .verify();
+
+        assertEquals(0, bulkhead.getActiveCalls());
+    }
+
+    @Test
+    public void wrap_WaiterCancelled_LeavesQueueAndPermitGoesBack() {
+        LLMBulkhead bulkhead = new LLMBulkhead("test", 1, 1, MAX_WAIT);
+        Sinks.Many<String> active = Sinks.many().unicast().onBackpressureBuffer();
+        bulkhead.wrap(call("active", active)).subscribe();
+        Disposable waiter = bulkhead.wrap(call("queued", Sinks.many().unicast().onBackpressureBuffer())).subscribe();
+
+        waiter.dispose();
+        assertEquals(0, bulkhead.getWaitingCalls());
+        active.tryEmitComplete();
+
+        assertEquals(List.of("active"), started);
+        assertEquals(0, bulkhead.getActiveCalls());
+    }
+
+    @Test
+    public void wrap_PermitReleased_HandedToWaitersInOrder() {
+        LLMBulkhead bulkhead = new LLMBulkhead("test", 1, 2, MAX_WAIT);
+        Sinks.Many<String> first = Sinks.many().unicast().onBackpressureBuffer();
+        Sinks.Many<String> second = Sinks.many().unicast().onBackpressureBuffer();
+        Sinks.Many<String> third = Sinks.many().unicast().onBackpressureBuffer();
+        bulkhead.wrap(call("first", first)).subscribe();
+        bulkhead.wrap(call("second", second)).subscribe();
+        bulkhead.wrap(call("third", third)).subscribe();
+        assertEquals(2, bulkhead.getWaitingCalls());
+
+        first.tryEmitComplete();
+        assertEquals(List.of("first", "second"), started);
+        assertEquals(1, bulkhead.getActiveCalls());
+        assertEquals(1, bulkhead.getWaitingCalls());
+
+        second.tryEmitComplete();
+        assertEquals(List.of("first", "second", "third"), started);
+
+        third.tryEmitComplete();
+        assertEquals(0, bulkhead.getActiveCalls());
+        assertEquals(0, bulkhead.getWaitingCalls());
+    }
+
+    private Flux<String> call(String name, Sinks.Many<String> sink) {
+        return sink.asFlux().doOnSubscribe(subscription -> started.add(name));
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.backend.service;
+
+import com.example.backend.config.LLMConfig;
+import com.example.backend.exception.ApiException;
+import com.example.backend.exception.ProviderUnavailableException;
+import com.example.backend.model.LLMProvider;
+import com.example.backend.model.LLMRequest;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LLMProviderRouterTest {
+
+    private static final LLMRequest REQUEST = LLMRequest.builder()
+            .provider(LLMProvider.GIGACHAT.getName())
+            .userPrompt("SELECT 1")
+            .build();
+
+    private SimpleMeterRegistry meterRegistry;
+    private LLMConfig llmConfig;
+    private LLMProviderRouter router;
+
+    private final AtomicInteger alternateSubscriptions = new AtomicInteger();
+    private final AtomicBoolean primaryCancelled = new AtomicBoolean();
+    private final AtomicBoolean alternateCancelled = new AtomicBoolean();
+
+    @BeforeEach
+    void setUp() {
+        llmConfig = new LLMConfig();
+        llmConfig.setApiUrl("http://gigachat");
+        llmConfig.setModel("GigaChat");
+        llmConfig.setLocalEnabled(true);
+        meterRegistry = new SimpleMeterRegistry();
+        router = new LLMProviderRouter(llmConfig, meterRegistry, CircuitBreakerRegistry.ofDefaults());
+    }
+
+    @Test
+    public void hedgeDelay_FewSamples_UsesDefaultDelay() {
+        assertEquals(Duration.ofMillis(llmConfig.getHedgeDefaultDelayMs()),
+                router.hedgeDelay(LLMProvider.GIGACHAT, LLMProviderRouter.MODE_COMPLETE));
+    }
+
+    @Test
+    public void hedgeDelay_EnoughSamples_UsesObservedP90() {
+        recordLatency(LLMProvider.GIGACHAT, 2000);
+
+        long delayMs = router.hedgeDelay(LLMProvider.GIGACHAT, LLMProviderRouter.MODE_COMPLETE).toMillis();
+
+        // Гистограмма перцентилей приближённая
+        assertTrue(delayMs >= 1800 && delayMs <= 2200, "p90 delay was " + delayMs);
+    }
+
+    @Test
+    public void route_PrimarySlowerThanP90_HedgeFiresAfterDelayAndPrimaryCancelled() {
+        recordLatency(LLMProvider.GIGACHAT, 2000);
+        Duration delay = router.hedgeDelay(LLMProvider.GIGACHAT, LLMProviderRouter.MODE_COMPLETE);
+
+        StepVerifier.withVirtualTime(() -> router.route(REQUEST, request -> call(request,
+                        Mono.never(), Mono.just("alternate"))))
+                .expectSubscription()
+                .expectNoEvent(delay.minusMillis(1))
+                .then(() -> assertEquals(0, alternateSubscriptions.get()))
+                .thenAwait(Duration.ofMillis(1))
+                .expectNext("alternate")
+                .verifyComplete();
+
+        assertEquals(1, alternateSubscriptions.get());
+        assertTrue(primaryCancelled.get());
+        assertEquals(1.0, meterRegistry.counter("llm.hedge.wins", "provider", LLMProvider.LOCAL.getName()).count());
+    }
+
+    @Test
+    public void route_PrimaryAnswersAfterHedge_AlternateCancelled() {
+        Duration delay = router.hedgeDelay(LLMProvider.GIGACHAT, LLMProviderRouter.MODE_COMPLETE);
+
+        StepVerifier.withVirtualTime(() -> router.route(REQUEST, request -> call(request,
+                        Mono.delay(delay.plusSeconds(1)).thenReturn("primary"),
+                        Mono.delay(delay.plusSeconds(10)).thenReturn("alternate"))))
+                .expectSubscription()
+                .thenAwait(delay.plusSeconds(1))
+                .expectNext("primary")
+                .verifyComplete();
+
+        assertEquals(1, alternateSubscriptions.get());
+        assertTrue(alternateCancelled.get());
+    }
+
+    @Test
+    public void route_PrimaryUnavailable_FailsOverWithoutWaiting() {
+        StepVerifier.withVirtualTime(() -> router.route(REQUEST, request -> call(request,
+                        Mono.error(new ProviderUnavailableException("breaker open")), Mono.just("alternate"))))
+                .expectSubscription()
+                .expectNext("alternate")
+                .verifyComplete();
+
+        assertEquals(1, alternateSubscriptions.get());
+    }
+
+    @Test
+    public void route_BothProvidersFail_ReturnsProviderError() {
+        StepVerifier.withVirtualTime(() -> router.route(REQUEST, request -> call(request,
+                        Mono.<String>error(new ProviderUnavailableException("breaker open")),
+                        Mono.<String>error(new IllegalStateException("connection reset")))))
+                .expectSubscription()
+                .expectErrorMatches(e -> e instanceof ApiException && e.getMessage().equals("breaker open"))
+                .verify();
+    }
+
+    private Mono<String> call(LLMRequest request, Mono<String> primary, Mono<String> alternate) {
+        if (LLMProvider.fromName(request.getProvider()) == LLMProvider.GIGACHAT) {
+            return primary.doOnCancel(() -> primaryCancelled.set(true));
+        }
+        return alternate
+                .doOnSubscribe(subscription -> alternateSubscriptions.incrementAndGet())
+                .doOnCancel(() -> alternateCancelled.set(true));
+    }
+
+    private void recordLatency(LLMProvider provider, long millis) {
+        // Таймер создаётся роутером с нужными перцентилями
+        router.hedgeDelay(provider, LLMProviderRouter.MODE_COMPLETE);
+        Timer timer = meterRegistry.get("llm.request.latency")
+                .tags("provider", provider.getName(), "mode", LLMProviderRouter.MODE_COMPLETE)
+                .timer();
+        for (int i = 0; i < llmConfig.getHedgeMinSamples(); i++) {
+            timer.record(millis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.backend.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LLMRequestCoalescerTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private LLMRequestCoalescer coalescer;
+
+    private final AtomicInteger upstreamSubscriptions = new AtomicInteger();
+    private final AtomicBoolean upstreamCancelled = new AtomicBoolean();
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        coalescer = new LLMRequestCoalescer(meterRegistry);
+    }
+
+    @Test
+    public void coalesce_FirstSubscriberCancels_UpstreamKeepsRunning() {
+        Sinks.One<String> upstream = Sinks.one();
+        Mono<String> first = coalescer.coalesce("key", () -> track(upstream.asMono()));
+        Mono<String> second = coalescer.coalesce("key", () -> track(upstream.asMono()));
+
+        Disposable firstSubscription = first.subscribe();
+
+        StepVerifier.create(second)
+                .then(() -> {
+                    firstSubscription.dispose();
+                    assertFalse(upstreamCancelled.get());
+                    upstream.tryEmitValue("ok");
+                })
+                .expectNext("ok")
+                .verifyComplete();
+
+        assertEquals(1, upstreamSubscriptions.get());
+        assertFalse(upstreamCancelled.get());
+        assertEquals(1.0, meterRegistry.counter("llm.requests.coalesced", "mode", "complete").count());
+    }
+
+    @Test
+    public void coalesce_LastSubscriberLeaves_UpstreamCancelledAndKeyReleased() {
+        Sinks.One<String> upstream = Sinks.one();
+        Disposable first = coalescer.coalesce("key", () -> track(upstream.asMono())).subscribe();
+        Disposable second = coalescer.coalesce("key", () -> track(upstream.asMono())).subscribe();
+
+        first.dispose();
+        assertFalse(upstreamCancelled.get());
+        second.dispose();
+        assertTrue(upstreamCancelled.get());
+
+        // После отмены ключ свободен: следующий вызов идёт к провайдеру заново
+        StepVerifier.create(coalescer.coalesce("key", () -> track(Mono.just("again"))))
+                .expectNext("again")
+                .verifyComplete();
+        assertEquals(2, upstreamSubscriptions.get());
+    }
+
+    @Test
+    public void coalesceStream_LateSubscriber_ReplaysAndOutlivesFirst() {
+        Sinks.Many<String> upstream = Sinks.many().unicast().onBackpressureBuffer();
+        Flux<String> first = coalescer.coalesceStream("key", () -> track(upstream.asFlux()));
+        Flux<String> second = coalescer.coalesceStream("key", () -> track(upstream.asFlux()));
+
+        Disposable firstSubscription = first.subscribe();
+        upstream.tryEmitNext("a");
+
+        StepVerifier.create(second)
+                .expectNext("a")
+                .then(() -> {
+                    firstSubscription.dispose();
+                    upstream.tryEmitNext("b");
+                    upstream.tryEmitComplete();
+                })
+                .expectNext("b")
+                .verifyComplete();
+
+        assertEquals(1, upstreamSubscriptions.get());
+        assertFalse(upstreamCancelled.get());
+    }
+
+    @Test
+    public void coalesceStream_AllSubscribersLeave_UpstreamCancelled() {
+        Sinks.Many<String> upstream = Sinks.many().unicast().onBackpressureBuffer();
+        Disposable first = coalescer.coalesceStream("key", () -> track(upstream.asFlux())).subscribe();
+        Disposable second = coalescer.coalesceStream("key", () -> track(upstream.asFlux())).subscribe();
+
+        second.dispose();
+        assertFalse(upstreamCancelled.get());
+        first.dispose();
+        assertTrue(upstreamCancelled.get());
+    }
+
+    private <T> Mono<T> track(Mono<T> upstream) {
+        return upstream
+                .doOnSubscribe(subscription -> upstreamSubscriptions.incrementAndGet())
+                .doOnCancel(() -> upstreamCancelled.set(true));
+    }
+
+    private <T> Flux<T> track(Flux<T> upstream) {
+        return upstream
+                .doOnSubscribe(subscription -> upstreamSubscriptions.incrementAndGet())
+                .doOnCancel(() -> upstreamCancelled.set(true));
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.backend.service;
+
+import com.example.backend.model.dto.SimilarQueryDto;
+import com.example.backend.repository.SqlQueryRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(MockitoExtension.class)
+public class SimilarQueryIndexTest {
+
+    private static final String QUERY = "SELECT o.id, o.total, c.name FROM orders o JOIN customers c "
+            + "ON o.customer_id = c.id WHERE o.status = 'paid' AND o.created_at > '2024-01-01' "
+            + "ORDER BY o.created_at DESC";
+    private static final String OPTIMIZED = QUERY + " LIMIT 100";
+
+    @Mock
+    private SqlQueryRepository sqlQueryRepository;
+
+    private SimilarQueryIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new SimilarQueryIndex(sqlQueryRepository, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(index, "shingleSize", 2);
+        ReflectionTestUtils.setField(index, "bands", 32);
+        ReflectionTestUtils.setField(index, "rowsPerBand", 4);
+        ReflectionTestUtils.setField(index, "minSimilarity", 0.4);
+        index.init();
+    }
+
+    @Test
+    public void findSimilar_OnlyLiteralsDiffer_ExactMatch() {
+        index.add(1L, 10L, 100L, QUERY, OPTIMIZED);
+
+        List<SimilarQueryDto> similar = index.findSimilar(10L, QUERY.replace("'paid'", "'new'")
+                .replace("'2024-01-01'", "'2025-06-30'"), 5);
+
+        assertEquals(1, similar.size());
+        assertEquals(1L, similar.get(0).getQueryId());
+        assertEquals(1.0, similar.get(0).getSimilarity());
+    }
+
+    @Test
+    public void findSimilar_NearDuplicate_Recalled() {
+        index.add(1L, 10L, 100L, QUERY, OPTIMIZED);
+
+        List<SimilarQueryDto> similar = index.findSimilar(10L, QUERY.replace("WHERE o.status = 'paid'",
+                "WHERE o.status = 'paid' AND o.total > 100 AND c.region = 'eu'"), 5);
+
+        assertEquals(1, similar.size());
+        assertTrue(similar.get(0).getSimilarity() >= 0.4, "similarity " + similar.get(0).getSimilarity());
+    }
+
+    @Test
+    public void findSimilar_UnrelatedQuery_NotReturned() {
+        index.add(1L, 10L, 100L, QUERY, OPTIMIZED);
+
+        assertTrue(index.findSimilar(10L, "UPDATE inventory SET qty = qty - 1 WHERE sku = 'x'", 5).isEmpty());
+    }
+
+    @Test
+    public void findSimilar_OtherUser_NothingReturned() {
+        index.add(1L, 10L, 100L, QUERY, OPTIMIZED);
+
+        assertTrue(index.findSimilar(20L, QUERY, 5).isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void add_SameQueryForTwoUsers_NoSharedBuckets() {
+        index.add(1L, 10L, 100L, QUERY, OPTIMIZED);
+        index.add(2L, 20L, 200L, QUERY, OPTIMIZED);
+
+        Map<Long, Set<Long>> buckets = (Map<Long, Set<Long>>) ReflectionTestUtils.getField(index, "buckets");
+        // Одинаковые сигнатуры, но корзины разные: ключ включает пользователя
+        assertEquals(64, buckets.size());
+        buckets.values().forEach(bucket -> assertEquals(1, bucket.size()));
+        assertEquals(1L, index.findSimilar(10L, QUERY, 5).get(0).getQueryId());
+        assertEquals(2L, index.findSimilar(20L, QUERY, 5).get(0).getQueryId());
+    }
+
+    @Test
+    public void add_UnchangedQuery_NotIndexed() {
+        index.add(1L, 10L, 100L, QUERY, QUERY);
+
+        assertTrue(index.findSimilar(10L, QUERY, 5).isEmpty());
+    }
+
+    @Test
+    public void removeChat_EntriesOfChat_NoLongerFound() {
+        index.add(1L, 10L, 100L, QUERY, OPTIMIZED);
+        index.add(2L, 10L, 101L, QUERY.replace("DESC", "ASC"), OPTIMIZED);
+
+        index.removeChat(100L);
+
+        List<SimilarQueryDto> similar = index.findSimilar(10L, QUERY, 5);
+        assertEquals(1, similar.size());
+        assertEquals(2L, similar.get(0).getQueryId());
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.backend.util;
+
+import com.example.backend.model.entity.ContentBlob;
+import com.example.sqlopt.ast.QueryPlanResult;
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class ContentCodecTest {
+
+    private static final TypeReference<QueryPlanResult> PLAN_TYPE = new TypeReference<>() { };
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() { };
+
+    @Test
+    public void encode_Plan_RoundTripsThroughGzip() {
+        QueryPlanResult plan = new QueryPlanResult();
+        plan.setPlanText("Seq Scan on orders  (cost=0.00..431.00 rows=1000 width=16)");
+        plan.addAdditionalInfo("segments", 4);
+
+        ContentBlob encoded = ContentCodec.encode(ContentBlob.KIND_PLAN, plan);
+        QueryPlanResult decoded = ContentCodec.decode(stored(encoded), PLAN_TYPE);
+
+        assertEquals(ContentCodec.ENCODING_GZIP, encoded.getEncoding());
+        assertEquals(plan.getPlanText(), decoded.getPlanText());
+        assertEquals(4, decoded.getAdditionalInfo().get("segments"));
+        assertEquals(encoded.getHash(), ContentCodec.encode(ContentBlob.KIND_PLAN, decoded).getHash());
+    }
+
+    @Test
+    public void encode_KeyOrderDiffers_SameHash() {
+        Map<String, Object> nestedFirst = new LinkedHashMap<>();
+        nestedFirst.put("d", 2);
+        nestedFirst.put("c", 3);
+        Map<String, Object> first = new LinkedHashMap<>();
+        first.put("b", 1);
+        first.put("a", nestedFirst);
+
+        Map<String, Object> nestedSecond = new LinkedHashMap<>();
+        nestedSecond.put("c", 3);
+        nestedSecond.put("d", 2);
+        Map<String, Object> second = new LinkedHashMap<>();
+        second.put("a", nestedSecond);
+        second.put("b", 1);
+
+        String hash = ContentCodec.encode(ContentBlob.KIND_TABLES_METADATA, first).getHash();
+
+        assertEquals(hash, ContentCodec.encode(ContentBlob.KIND_TABLES_METADATA, second).getHash());
+        // Тот же канонический JSON строит V11 для перенесённых блобов
+        assertEquals(sha256("{\"a\":{\"c\":3,\"d\":2},\"b\":1}"), hash);
+        assertNotEquals(hash, ContentCodec.encode(ContentBlob.KIND_TABLES_METADATA, Map.of("b", 2)).getHash());
+    }
+
+    @Test
+    public void decode_IdentityBlob_ReadsRawJson() {
+        byte[] json = "{\"orders\": {\"rows\": 1000}}".getBytes(StandardCharsets.UTF_8);
+        ContentBlob blob = ContentBlob.builder()
+                .hash(sha256("{\"orders\": {\"rows\": 1000}}"))
+                .kind(ContentBlob.KIND_TABLES_METADATA)
+                .encoding(ContentCodec.ENCODING_IDENTITY)
+                .data(json)
+                .rawSize(json.length)
+                .build();
+
+        assertEquals(Map.of("orders", Map.of("rows", 1000)), ContentCodec.decode(blob, MAP_TYPE));
+    }
+
+    @Test
+    public void encode_Null_ReturnsNull() {
+        assertNull(ContentCodec.encode(ContentBlob.KIND_PLAN, null));
+        assertNull(ContentCodec.decode(null, PLAN_TYPE));
+    }
+
+    // Копия без кэша decoded, как после чтения из БД
+    private static ContentBlob stored(ContentBlob blob) {
+        return ContentBlob.builder()
+                .hash(blob.getHash())
+                .kind(blob.getKind())
+                .encoding(blob.getEncoding())
+                .data(blob.getData())
+                .rawSize(blob.getRawSize())
+                .build();
+    }
+
+    private static String sha256(String json) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+                    .digest(json.getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
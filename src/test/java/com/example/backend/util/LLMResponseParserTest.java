@@ -0,0 +1,93 @@
+package com.example.backend.util;
+
+import com.example.backend.model.LLMResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class LLMResponseParserTest {
+
+    private static final int[] CHUNK_SIZES = {1, 2, 3, 5, 8, 13};
+
+    // Название, ответ модели, ожидаемые SQL, обоснование и риски
+    static Stream<Arguments> responses() {
+        return Stream.of(
+                Arguments.of("level-3 headings",
+                        "### Оптимизированный SQL-запрос\n```sql\nSELECT id FROM t\n```\n### Обоснование\nПричина\n",
+                        "SELECT id FROM t", "Причина", null),
+                Arguments.of("english headings, SQL without fence",
+                        "## Optimized SQL\nSELECT id FROM t\n## Rationale\nfewer columns",
+                        "SELECT id FROM t", "fewer columns", null),
+                Arguments.of("unlabeled fence without headings",
+                        "Вот запрос:\n```\nSELECT id FROM t WHERE x = 1\n```\n",
+                        "SELECT id FROM t WHERE x = 1", null, null),
+                Arguments.of("last SQL fence wins without headings",
+                        "Исходный:\n```sql\nSELECT * FROM t\n```\nЛучше так:\n```sql\nSELECT id FROM t\n```\n",
+                        "SELECT id FROM t", null, null),
+                Arguments.of("unlabeled non-SQL fence ignored",
+                        "```\nSeq Scan on t\n```\n",
+                        null, null, null),
+                Arguments.of("subheading inside known section",
+                        "## Обоснование оптимизации\nОбщее\n### Детали\nПодробно\n## Потенциальные риски\nНет\n",
+                        null, "Общее\n### Детали\nПодробно", "Нет"),
+                Arguments.of("unterminated fence at EOF",
+                        "## Оптимизированный SQL-запрос\n```sql\nSELECT id\nFROM t",
+                        "SELECT id\nFROM t", null, null),
+                Arguments.of("CRLF line endings",
+                        "## Оптимизированный запрос\r\n```sql\r\nSELECT 1\r\n```\r\n## Риски\r\nНет\r\n",
+                        "SELECT 1", null, "Нет"));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("responses")
+    public void parse_WholeText_ExtractsSections(String name, String text, String sql, String rationale, String risks) {
+        assertResponse(LLMResponseParser.parse(text), sql, rationale, risks);
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("responses")
+    public void feed_AnyChunkBoundaries_SameAsWholeText(String name, String text, String sql, String rationale,
+                                                         String risks) {
+        for (int size : CHUNK_SIZES) {
+            LLMResponseParser parser = new LLMResponseParser();
+            for (int i = 0; i < text.length(); i += size) {
+                parser.feed(text.substring(i, Math.min(text.length(), i + size)));
+            }
+            parser.finish();
+            assertResponse(parser.getResult(), sql, rationale, risks);
+        }
+    }
+
+    @Test
+    public void feed_SqlFenceClosed_EmittedBeforeSectionEnds() {
+        List<LLMResponseParser.Section> sections = new ArrayList<>();
+        LLMResponseParser parser = new LLMResponseParser(sections::add);
+
+        parser.feed("## Оптимизированный SQL-запрос\n```sql\nSELECT 1\n");
+        assertEquals(0, sections.size());
+        parser.feed("```\n## Обоснование\nчасть");
+        assertEquals(1, sections.size());
+        assertEquals(LLMResponseParser.SectionType.OPTIMIZED_SQL, sections.get(0).getType());
+        assertEquals("SELECT 1", sections.get(0).getContent());
+
+        parser.finish();
+        assertEquals(2, sections.size());
+        assertEquals(LLMResponseParser.SectionType.RATIONALE, sections.get(1).getType());
+        assertEquals("часть", sections.get(1).getContent());
+    }
+
+    private static void assertResponse(LLMResponse response, String sql, String rationale, String risks) {
+        assertEquals(sql, response.getOptimizedSql());
+        assertEquals(rationale, response.getOptimizationRationale());
+        assertEquals(risks, response.getPotentialRisks());
+        assertNull(response.getPerformanceImpact());
+    }
+}
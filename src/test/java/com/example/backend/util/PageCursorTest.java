@@ -0,0 +1,90 @@
+package com.example.backend.util;
+
+import com.example.backend.exception.ApiException;
+import com.example.backend.model.dto.CursorPage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.http.HttpStatus;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PageCursorTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 3, 1, 12, 30, 15, 123456000);
+
+    @Test
+    public void decode_EncodedCursor_RoundTrips() {
+        PageCursor cursor = PageCursor.decode(PageCursor.encode(START, 42L));
+
+        assertEquals(START, cursor.getTimestamp());
+        assertEquals(42L, cursor.getId());
+    }
+
+    @Test
+    public void decode_Blank_ReturnsNull() {
+        assertNull(PageCursor.decode(null));
+        assertNull(PageCursor.decode(" "));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"not base64!", "2024-03-01T12:30|abc", "garbage|5", "no-separator"})
+    public void decode_Malformed_RejectedWithBadRequest(String value) {
+        String cursor = value.contains("!") ? value
+                : Base64.getUrlEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+
+        ApiException e = assertThrows(ApiException.class, () -> PageCursor.decode(cursor));
+
+        assertEquals(HttpStatus.BAD_REQUEST, e.getStatus());
+    }
+
+    @Test
+    public void limit_OutOfRange_Clamped() {
+        assertEquals(PageCursor.DEFAULT_LIMIT, PageCursor.limit(null));
+        assertEquals(PageCursor.DEFAULT_LIMIT, PageCursor.limit(0));
+        assertEquals(PageCursor.MAX_LIMIT, PageCursor.limit(PageCursor.MAX_LIMIT + 1));
+        assertEquals(10, PageCursor.limit(10));
+        assertEquals(11, PageCursor.pageable(10).getPageSize());
+    }
+
+    @Test
+    public void toPage_ExtraRowFetched_HasMoreWithCursorAtLastItem() {
+        CursorPage<Long> page = toPage(rows(4), 3);
+
+        assertTrue(page.isHasMore());
+        assertEquals(List.of(1L, 2L, 3L), page.getItems());
+        PageCursor next = PageCursor.decode(page.getNextCursor());
+        assertEquals(3L, next.getId());
+        assertEquals(START.minusMinutes(3), next.getTimestamp());
+    }
+
+    @Test
+    public void toPage_ExactlyLimitRows_LastPage() {
+        CursorPage<Long> page = toPage(rows(3), 3);
+
+        assertFalse(page.isHasMore());
+        assertNull(page.getNextCursor());
+        assertEquals(List.of(1L, 2L, 3L), page.getItems());
+    }
+
+    // Строки отсортированы по убыванию времени, как в запросах keyset-пагинации
+    private static List<Long> rows(int count) {
+        return LongStream.rangeClosed(1, count).boxed().collect(Collectors.toList());
+    }
+
+    private static CursorPage<Long> toPage(List<Long> rows, int limit) {
+        return PageCursor.toPage(rows, limit, id -> START.minusMinutes(id), id -> id, Function.identity());
+    }
+}
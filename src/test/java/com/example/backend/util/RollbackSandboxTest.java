@@ -0,0 +1,73 @@
+package com.example.backend.util;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class RollbackSandboxTest {
+
+    @Mock
+    private Connection connection;
+
+    @Mock
+    private Statement statement;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        when(connection.getAutoCommit()).thenReturn(true);
+        when(connection.createStatement()).thenReturn(statement);
+    }
+
+    @Test
+    public void execute_WorkSucceeds_RollsBackAndRestoresAutoCommit() throws SQLException {
+        String result = RollbackSandbox.execute(connection, 5000, 1000, c -> "plan");
+
+        assertEquals("plan", result);
+        InOrder order = inOrder(connection, statement);
+        order.verify(connection).setAutoCommit(false);
+        order.verify(statement).execute("SET LOCAL statement_timeout = 5000");
+        order.verify(statement).execute("SET LOCAL lock_timeout = 1000");
+        order.verify(connection).rollback();
+        order.verify(connection).setAutoCommit(true);
+        verify(statement).close();
+    }
+
+    @Test
+    public void execute_WorkFails_RollsBackAndRestoresAutoCommit() throws SQLException {
+        SQLException failure = new SQLException("canceling statement due to statement timeout");
+
+        SQLException thrown = assertThrows(SQLException.class,
+                () -> RollbackSandbox.execute(connection, 5000, 1000, c -> {
+                    throw failure;
+                }));
+
+        assertSame(failure, thrown);
+        InOrder order = inOrder(connection);
+        order.verify(connection).setAutoCommit(false);
+        order.verify(connection).rollback();
+        order.verify(connection).setAutoCommit(true);
+    }
+
+    @Test
+    public void execute_RollbackFails_KeepsWorkResult() throws SQLException {
+        doThrow(new SQLException("connection closed")).when(connection).rollback();
+
+        assertEquals("plan", RollbackSandbox.execute(connection, 5000, 1000, c -> "plan"));
+    }
+}
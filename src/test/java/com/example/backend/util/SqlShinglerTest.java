@@ -0,0 +1,46 @@
+package com.example.backend.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SqlShinglerTest {
+
+    @Test
+    public void tokens_LiteralsAndComments_Normalized() {
+        List<String> tokens = SqlShingler.tokens(
+                "SELECT * FROM \"Orders\" /* hot */ WHERE id = 42 AND name = 'O''Brien' AND price < 1.5e3 -- tail\n;");
+
+        assertEquals(List.of("select", "*", "from", "orders", "where", "id", "=", "?",
+                "and", "name", "=", "?", "and", "price", "<", "?"), tokens);
+    }
+
+    @Test
+    public void tokens_MultiCharOperators_KeptWhole() {
+        assertEquals(List.of("where", "a", "<>", "?", "and", "b", "::", "text", "||", "c"),
+                SqlShingler.tokens("WHERE a <> 1 AND b::text || c"));
+    }
+
+    @Test
+    public void shingles_QueriesDifferOnlyInLiteralsAndCase_Equal() {
+        assertEquals(SqlShingler.shingles("SELECT id FROM orders WHERE status = 'paid' AND total > 100", 2),
+                SqlShingler.shingles("select ID from Orders where STATUS = 'new' and TOTAL > 5;", 2));
+    }
+
+    @Test
+    public void shingles_DifferentColumns_NotEqual() {
+        assertNotEquals(SqlShingler.shingles("SELECT id FROM orders", 2),
+                SqlShingler.shingles("SELECT total FROM orders", 2));
+    }
+
+    @Test
+    public void shingles_QueryShorterThanShingle_SingleShingle() {
+        assertEquals(1, SqlShingler.shingles("SELECT", 3).size());
+        assertTrue(SqlShingler.shingles(null, 2).isEmpty());
+        assertTrue(SqlShingler.shingles("-- only a comment", 2).isEmpty());
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.backend.util;
+
+import com.example.backend.model.LLMResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class StructuredResponseParserTest {
+
+    @Test
+    public void repairJson_TruncatedString_ClosesStringAndObject() {
+        assertEquals("{\"optimized_sql\": \"SELECT 1\", \"rationale\": \"because\"}",
+                StructuredResponseParser.repairJson("{\"optimized_sql\": \"SELECT 1\", \"rationale\": \"because"));
+    }
+
+    @Test
+    public void repairJson_TrailingAndRepeatedCommas_AreDropped() {
+        assertEquals("{\"a\": \"x\"}", StructuredResponseParser.repairJson("{\"a\": \"x\","));
+        assertEquals("{\"a\": \"x\", \"b\": \"y\"}", StructuredResponseParser.repairJson("{\"a\": \"x\",, \"b\": \"y\"}"));
+        assertEquals("{\"a\": [\"x\"]}", StructuredResponseParser.repairJson("{\"a\": [,\"x\""));
+    }
+
+    @Test
+    public void repairJson_DanglingKey_GetsNullValue() {
+        assertEquals("{\"a\": \"x\", \"b\": null}", StructuredResponseParser.repairJson("{\"a\": \"x\", \"b\":"));
+    }
+
+    @Test
+    public void repairJson_DanglingEscape_IsRemoved() {
+        assertEquals("{\"a\": \"x\"}", StructuredResponseParser.repairJson("{\"a\": \"x\\"));
+    }
+
+    @Test
+    public void repairJson_JsonFence_CutsObjectOut() {
+        assertEquals("{\"optimized_sql\": \"SELECT 1\"}",
+                StructuredResponseParser.repairJson("```json\n{\"optimized_sql\": \"SELECT 1\"}\n```\n"));
+    }
+
+    @Test
+    public void repairJson_NoObject_ReturnsNull() {
+        assertNull(StructuredResponseParser.repairJson("## Оптимизированный SQL-запрос"));
+    }
+
+    @Test
+    public void feed_CompleteField_EmittedBeforeFinish() {
+        List<LLMResponseParser.Section> sections = new ArrayList<>();
+        StructuredResponseParser parser = new StructuredResponseParser(sections::add);
+
+        parser.feed("{\"optimized_sql\": \"SELECT id ");
+        assertEquals(0, sections.size());
+        parser.feed("FROM t\", \"rationale\": \"Мень");
+        assertEquals(1, sections.size());
+        assertEquals(LLMResponseParser.SectionType.OPTIMIZED_SQL, sections.get(0).getType());
+        assertEquals("SELECT id FROM t", sections.get(0).getContent());
+
+        parser.feed("ше колонок\"}");
+        parser.finish();
+        assertEquals(2, sections.size());
+        assertEquals("Меньше колонок", parser.getResult().getOptimizationRationale());
+    }
+
+    @Test
+    public void parse_JsonFenceWithSqlFence_StripsBoth() {
+        LLMResponse response = StructuredResponseParser.parse(
+                "```json\n{\"optimized_sql\": \"```sql\\nSELECT 1\\n```\", \"risks\": \"нет\"}\n```");
+
+        assertEquals("SELECT 1", response.getOptimizedSql());
+        assertEquals("нет", response.getPotentialRisks());
+    }
+
+    @Test
+    public void parse_TruncatedStream_RepairsRemainingFields() {
+        List<LLMResponseParser.Section> sections = new ArrayList<>();
+        StructuredResponseParser parser = new StructuredResponseParser(sections::add);
+
+        parser.feed("{\"optimized_sql\": \"SELECT id FROM t\", \"rationale\": \"Индекс по");
+        parser.finish();
+
+        LLMResponse response = parser.getResult();
+        assertEquals("SELECT id FROM t", response.getOptimizedSql());
+        assertEquals("Индекс по", response.getOptimizationRationale());
+        // SQL отдан во время потока и не дублируется при починке
+        assertEquals(1, sections.stream()
+                .filter(section -> section.getType() == LLMResponseParser.SectionType.OPTIMIZED_SQL)
+                .count());
+    }
+
+    @Test
+    public void parse_CandidateIndexes_ReadAsList() {
+        LLMResponse response = StructuredResponseParser.parse("{\"optimized_sql\": \"SELECT 1\", "
+                + "\"candidate_indexes\": [\"CREATE INDEX a ON t (x)\", \"CREATE INDEX b ON t (y)\"]}");
+
+        assertEquals(List.of("CREATE INDEX a ON t (x)", "CREATE INDEX b ON t (y)"), response.getCandidateIndexes());
+    }
+
+    @Test
+    public void feed_SurrogatePairSplitAcrossChunks_IsPreserved() {
+        StructuredResponseParser parser = new StructuredResponseParser();
+
+        parser.feed("{\"rationale\": \"ok \uD83D");
+        parser.feed("\uDE00\"}");
+        parser.finish();
+
+        assertEquals("ok 😀", parser.getResult().getOptimizationRationale());
+    }
+
+    @Test
+    public void parse_NoJson_FallsBackToMarkdown() {
+        LLMResponse response = StructuredResponseParser.parse("## Оптимизированный SQL-запрос\n\n"
+                + "```sql\nSELECT id FROM t\n```\n\n## Обоснование оптимизации\n\nМеньше колонок\n");
+
+        assertEquals("SELECT id FROM t", response.getOptimizedSql());
+        assertEquals("Меньше колонок", response.getOptimizationRationale());
+    }
+}